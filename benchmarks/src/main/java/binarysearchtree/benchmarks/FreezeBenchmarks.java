@@ -0,0 +1,156 @@
+package binarysearchtree.benchmarks;
+
+import binarysearchtree.BPlusTree;
+import binarysearchtree.BinarySearchTree;
+import binarysearchtree.FrozenBinarySearchTree;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks comparing lookups in a BinarySearchTree with lookups in
+ * its frozen index and in a BPlusTree holding the same even keys.
+ * Queries are random, so half of them miss. 10^8 keys need a large
+ * heap, for example
+ * java -jar benchmarks/target/benchmarks.jar FreezeBenchmarks
+ *    -p count=100000000 -jvmArgsAppend -Xmx24g
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FreezeBenchmarks {
+
+  /** Queries in the precomputed sequence, a power of two. */
+   private static final int QUERIES = 1 << 20;
+
+  /** Number of keys in the trees. */
+   @Param({"10000", "100000", "1000000"})
+   public int count;
+
+  /** The pointer tree, of minimum height. */
+   private BinarySearchTree<Integer> tree;
+  /** The tree frozen into its Eytzinger-layout index. */
+   private FrozenBinarySearchTree<Integer> frozen;
+  /** The same keys in a B+ tree. */
+   private BPlusTree<Integer> wide;
+  /** Keys to look up, about half absent. */
+   private Integer[] queries;
+  /** Position in the query sequence. */
+   private int next;
+
+  /**
+   * Builds the three structures and the queries.
+   */
+   @Setup(Level.Trial)
+   public void build() {
+      ArrayList<Integer> keys = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+         keys.add(2 * i);
+      }
+      tree = BinarySearchTree.fromSorted(keys, true);
+      frozen = tree.freeze();
+      wide = new BPlusTree<Integer>();
+      for (Integer key : keys) {
+         wide.add(key);
+      }
+      Random random = new Random(count);
+      queries = new Integer[QUERIES];
+      for (int i = 0; i < QUERIES; i++) {
+         queries[i] = random.nextInt(2 * count);
+      }
+   }
+
+  /**
+   * The next query.
+   *
+   * @return the key to look up
+   */
+   private Integer query() {
+      return queries[next++ & (QUERIES - 1)];
+   }
+
+  /**
+   * One contains on the pointer tree.
+   *
+   * @return whether the key was found
+   */
+   @Benchmark
+   public boolean treeLookup() {
+      return tree.contains(this.query());
+   }
+
+  /**
+   * One contains on the frozen index.
+   *
+   * @return whether the key was found
+   */
+   @Benchmark
+   public boolean frozenLookup() {
+      return frozen.contains(this.query());
+   }
+
+  /**
+   * One contains on the B+ tree.
+   *
+   * @return whether the key was found
+   */
+   @Benchmark
+   public boolean bPlusTreeLookup() {
+      return wide.contains(this.query());
+   }
+
+  /**
+   * One floor on the pointer tree.
+   *
+   * @return the item found, or null
+   */
+   @Benchmark
+   public Integer treeFloor() {
+      return tree.floor(this.query());
+   }
+
+  /**
+   * One floor on the frozen index.
+   *
+   * @return the item found, or null
+   */
+   @Benchmark
+   public Integer frozenFloor() {
+      return frozen.floor(this.query());
+   }
+
+  /**
+   * One ceiling on the pointer tree.
+   *
+   * @return the item found, or null
+   */
+   @Benchmark
+   public Integer treeCeiling() {
+      return tree.ceiling(this.query());
+   }
+
+  /**
+   * One ceiling on the frozen index.
+   *
+   * @return the item found, or null
+   */
+   @Benchmark
+   public Integer frozenCeiling() {
+      return frozen.ceiling(this.query());
+   }
+}
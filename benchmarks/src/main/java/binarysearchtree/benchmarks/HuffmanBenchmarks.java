@@ -0,0 +1,272 @@
+package binarysearchtree.benchmarks;
+
+import binarysearchtree.HuffmanBlockFile;
+import binarysearchtree.HuffmanInputStream;
+import binarysearchtree.HuffmanOutputStream;
+import binarysearchtree.HuffmanTree;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of HuffmanTree building, encoding and decoding, over
+ * corpus shapes and sizes. Encode and decode also count the corpus bytes
+ * handled, so the bytes counter of the results reads as bytes per second;
+ * divide by 2^20 for MB/s. The block benchmarks compare one thread with
+ * the common pool when run with -p threads=1,0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HuffmanBenchmarks {
+
+  /** Letter distribution of the corpus: english, uniform or skewed. */
+   @Param({"english", "uniform", "skewed"})
+   public String corpus;
+
+  /** Characters in the corpus. */
+   @Param({"65536", "1048576"})
+   public int size;
+
+  /** Threads coding the blocks, 0 for the common pool. */
+   @Param({"0"})
+   public int threads;
+
+  /** The text to encode. */
+   private String text;
+  /** The text encoded, for decode. */
+   private String encoded;
+  /** The text encoded into packed bits. */
+   private byte[] packed;
+  /** Bits used in packed. */
+   private long packedBits;
+  /** Reused output buffer of the packed encoder. */
+   private ByteBuffer out;
+  /** The text as bytes, for the streams. */
+   private byte[] textBytes;
+  /** The text compressed by HuffmanOutputStream. */
+   private byte[] streamed;
+  /** The text compressed into 64 KB blocks by HuffmanBlockFile. */
+   private byte[] blocks;
+  /** Read buffer of the stream benchmark. */
+   private final byte[] readBuffer = new byte[1 << 16];
+  /** Frequency file written from the corpus. */
+   private File frequencies;
+  /** Tree with its codes generated. */
+   private HuffmanTree tree;
+  /** Runs the block tasks. */
+   private ForkJoinPool pool;
+
+  /**
+   * Bytes processed, reported next to the operation rate.
+   */
+   @State(Scope.Thread)
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   public static class Bytes {
+     /** Corpus characters handled in the iteration. */
+      public long bytes;
+
+     /**
+      * Clears the count before each iteration.
+      */
+      @Setup(Level.Iteration)
+      public void clear() {
+         bytes = 0;
+      }
+   }
+
+  /**
+   * Makes the corpus, its frequency file, the tree and the encoded text.
+   *
+   * @throws IOException if the frequency file cannot be written
+   */
+   @Setup(Level.Trial)
+   public void setUp() throws IOException {
+      text = Workloads.corpus(corpus, size);
+      int[] counts = new int[26];
+      for (int i = 0; i < text.length(); i++) {
+         counts[text.charAt(i) - 'a']++;
+      }
+      frequencies = File.createTempFile("frequencies", ".txt");
+      try (PrintWriter writer = new PrintWriter(frequencies, "UTF-8")) {
+         for (int i = 0; i < 26; i++) {
+            writer.println((char) ('a' + i) + " " + counts[i]);
+         }
+      }
+      tree = new HuffmanTree(frequencies);
+      tree.generateCodes();
+      encoded = tree.encode(text);
+      packed = tree.encodeToBytes(text);
+      packedBits = tree.encodedLength(text);
+      out = ByteBuffer.allocate(packed.length);
+      textBytes = text.getBytes(StandardCharsets.US_ASCII);
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (HuffmanOutputStream stream = new HuffmanOutputStream(compressed)) {
+         stream.write(textBytes);
+      }
+      streamed = compressed.toByteArray();
+      blocks = HuffmanBlockFile.compress(textBytes, 1 << 16);
+      pool = threads == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(threads);
+   }
+
+  /**
+   * Deletes the frequency file and stops a pool of our own.
+   */
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      frequencies.delete();
+      if (pool != ForkJoinPool.commonPool()) {
+         pool.shutdown();
+      }
+   }
+
+  /**
+   * Reads the frequency file and builds the tree and its codes.
+   *
+   * @return the tree
+   */
+   @Benchmark
+   @BenchmarkMode(Mode.AverageTime)
+   @OutputTimeUnit(TimeUnit.MICROSECONDS)
+   public HuffmanTree buildTree() {
+      HuffmanTree built = new HuffmanTree(frequencies);
+      built.generateCodes();
+      return built;
+   }
+
+  /**
+   * Encodes the whole corpus.
+   *
+   * @param counter Counts the bytes encoded
+   * @return the code string
+   */
+   @Benchmark
+   public String encode(Bytes counter) {
+      counter.bytes += size;
+      return tree.encode(text);
+   }
+
+  /**
+   * Decodes the whole corpus by walking the tree one bit at a time.
+   *
+   * @param counter Counts the bytes decoded
+   * @return the text
+   */
+   @Benchmark
+   public String decode(Bytes counter) {
+      counter.bytes += size;
+      return tree.decode(encoded);
+   }
+
+  /**
+   * Encodes the whole corpus into packed bits.
+   *
+   * @param counter Counts the bytes encoded
+   * @return the number of bits written
+   */
+   @Benchmark
+   public long encodePacked(Bytes counter) {
+      counter.bytes += size;
+      out.clear();
+      return tree.encode(text, out);
+   }
+
+  /**
+   * Decodes the whole corpus from packed bits with the decode tables,
+   * one lookup per code of up to 11 bits.
+   *
+   * @param counter Counts the bytes decoded
+   * @return the text
+   */
+   @Benchmark
+   public String decodePacked(Bytes counter) {
+      counter.bytes += size;
+      return tree.decode(packed, packedBits);
+   }
+
+  /**
+   * Compresses the corpus bytes through HuffmanOutputStream.
+   *
+   * @param counter Counts the bytes compressed
+   * @return the compressed size
+   * @throws IOException never, the output is discarded
+   */
+   @Benchmark
+   public long compressStream(Bytes counter) throws IOException {
+      counter.bytes += size;
+      HuffmanOutputStream stream = new HuffmanOutputStream(OutputStream.nullOutputStream());
+      stream.write(textBytes);
+      stream.close();
+      return stream.getCompressedSize();
+   }
+
+  /**
+   * Decompresses the corpus through HuffmanInputStream.
+   *
+   * @param counter Counts the bytes decompressed
+   * @return the number of bytes read
+   * @throws IOException never, the input is in memory
+   */
+   @Benchmark
+   public long decompressStream(Bytes counter) throws IOException {
+      counter.bytes += size;
+      long total = 0;
+      try (HuffmanInputStream stream = new HuffmanInputStream(new ByteArrayInputStream(streamed))) {
+         int n;
+         while ((n = stream.read(readBuffer, 0, readBuffer.length)) > 0) {
+            total += n;
+         }
+      }
+      return total;
+   }
+
+  /**
+   * Compresses the corpus bytes into 64 KB blocks, coded in parallel on
+   * the pool.
+   *
+   * @param counter Counts the bytes compressed
+   * @return the compressed bytes
+   */
+   @Benchmark
+   public byte[] compressBlocks(Bytes counter) {
+      counter.bytes += size;
+      return HuffmanBlockFile.compress(textBytes, 1 << 16, pool);
+   }
+
+  /**
+   * Decompresses the 64 KB blocks in parallel on the pool.
+   *
+   * @param counter Counts the bytes decompressed
+   * @return the bytes
+   * @throws IOException never, the blocks are valid
+   */
+   @Benchmark
+   public byte[] decompressBlocks(Bytes counter) throws IOException {
+      counter.bytes += size;
+      return HuffmanBlockFile.wrap(blocks).decompress(pool);
+   }
+}
@@ -0,0 +1,124 @@
+package binarysearchtree.benchmarks;
+
+import binarysearchtree.BinarySearchTree;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the BinarySearchTree bulk operations, the sequential
+ * traversals against the fork-join versions. Each item gets a little
+ * hashing work so the scan is not purely memory bound. Speedup needs
+ * more than one core. Run for example with
+ * java -jar benchmarks/target/benchmarks.jar ParallelBenchmarks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelBenchmarks {
+
+  /** Number of keys in the tree. */
+   @Param({"100000", "2000000"})
+   public int count;
+
+  /** The balanced tree, built in random order. */
+   private BinarySearchTree<Integer> tree;
+
+  /**
+   * Builds the tree.
+   */
+   @Setup(Level.Trial)
+   public void buildTree() {
+      int[] order = Workloads.order(Workloads.Distribution.RANDOM, count,
+         count, true, 1);
+      tree = new BinarySearchTree<Integer>(true);
+      for (int key : order) {
+         tree.add(key);
+      }
+   }
+
+  /**
+   * Fake work per item so the scan is not purely memory bound.
+   *
+   * @param key The item to work on
+   * @return a mixed hash of the key
+   */
+   private static long work(int key) {
+      long h = key;
+      for (int i = 0; i < 16; i++) {
+         h = h * 0x9E3779B97F4A7C15L + i;
+         h ^= h >>> 29;
+      }
+      return h;
+   }
+
+  /**
+   * Sequential for-each over the tree's iterator.
+   *
+   * @return the checksum, so the JIT keeps the work
+   */
+   @Benchmark
+   public long sequentialForEach() {
+      long sum = 0;
+      for (Integer key : tree) {
+         sum += work(key);
+      }
+      return sum;
+   }
+
+  /**
+   * Sequential stream over the tree's spliterator.
+   *
+   * @return the checksum
+   */
+   @Benchmark
+   public long sequentialStream() {
+      return tree.stream().mapToLong(ParallelBenchmarks::work).sum();
+   }
+
+  /**
+   * parallelForEach on the common pool.
+   *
+   * @return the checksum
+   */
+   @Benchmark
+   public long parallelForEach() {
+      LongAdder sum = new LongAdder();
+      tree.parallelForEach(key -> sum.add(work(key)));
+      return sum.sum();
+   }
+
+  /**
+   * parallelReduce on the common pool.
+   *
+   * @return the checksum
+   */
+   @Benchmark
+   public long parallelReduce() {
+      return tree.parallelReduce(0L, (sum, key) -> sum + work(key), Long::sum);
+   }
+
+  /**
+   * parallelStream over the tree's splitting spliterator.
+   *
+   * @return the checksum
+   */
+   @Benchmark
+   public long parallelStream() {
+      return tree.parallelStream().mapToLong(ParallelBenchmarks::work).sum();
+   }
+}
@@ -0,0 +1,221 @@
+package binarysearchtree.benchmarks;
+
+import binarysearchtree.BinarySearchTree;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks of BinarySearchTree add, get, remove and traversals,
+ * over key counts, key distributions and key types. Lookups cycle
+ * through a precomputed sequence of keys, half of them absent, or 7 in
+ * 10 for the miss-heavy mix the Bloom filter is meant for.
+ * Run for example with
+ * java -jar benchmarks/target/benchmarks.jar TreeBenchmarks -p count=1000000
+ * or, to compare the Bloom filter,
+ * java -jar benchmarks/target/benchmarks.jar TreeBenchmarks.containsMostlyMissing
+ *   -p bloomFilter=false,true
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class TreeBenchmarks {
+
+  /** Lookups in the precomputed sequence, a power of two. */
+   private static final int LOOKUPS = 1 << 16;
+
+  /** Number of keys in the tree. */
+   @Param({"1000", "100000", "1000000"})
+   public int count;
+
+  /** Insert and lookup order. */
+   @Param({"RANDOM", "SORTED", "ZIPFIAN"})
+   public Workloads.Distribution distribution;
+
+  /** Type of the keys. */
+   @Param({"INTEGER", "LONG", "STRING"})
+   public Workloads.KeyType keyType;
+
+  /** true for an AVL tree; sorted input makes an unbalanced tree a list. */
+   @Param({"true"})
+   public boolean balanced;
+
+  /** true to check a Bloom filter before walking the tree. */
+   @Param({"false"})
+   public boolean bloomFilter;
+
+  /** The keys in insertion order. */
+   private Comparable[] insertOrder;
+  /** Keys to look up, every other one absent. */
+   private Comparable[] lookups;
+  /** Keys to look up, 7 in 10 absent. */
+   private Comparable[] mostlyMissing;
+  /** Keys to remove and put back, all present. */
+   private Comparable[] present;
+  /** The tree, rebuilt for every iteration. */
+   private BinarySearchTree tree;
+  /** Position in the lookup sequences. */
+   private int next;
+
+  /**
+   * Makes the keys and the sequences.
+   */
+   @Setup(Level.Trial)
+   public void makeKeys() {
+      Comparable[] sorted = Workloads.keys(keyType, count);
+      int[] order = Workloads.order(distribution, count, count, true, 1);
+      insertOrder = new Comparable[count];
+      for (int i = 0; i < count; i++) {
+         insertOrder[i] = sorted[order[i]];
+      }
+      // keys are spaced out, so key + 1 falls between two keys
+      int[] hits = Workloads.order(distribution, count, LOOKUPS, false, 2);
+      lookups = new Comparable[LOOKUPS];
+      mostlyMissing = new Comparable[LOOKUPS];
+      present = new Comparable[LOOKUPS];
+      for (int i = 0; i < LOOKUPS; i++) {
+         present[i] = sorted[hits[i]];
+         lookups[i] = i % 2 == 0 ? sorted[hits[i]]
+            : this.absent(sorted[hits[i]]);
+         mostlyMissing[i] = i % 10 < 3 ? sorted[hits[i]]
+            : this.absent(sorted[hits[i]]);
+      }
+   }
+
+  /**
+   * Makes a key that falls between a key and the next one.
+   *
+   * @param key A key in the tree
+   * @return a key that is not in the tree
+   */
+   private Comparable absent(Comparable key) {
+      return keyType == Workloads.KeyType.INTEGER ? (Integer) key + 1
+         : keyType == Workloads.KeyType.LONG ? (Long) key + 1
+         : key + "!";
+   }
+
+  /**
+   * Builds the tree the lookup benchmarks read.
+   */
+   @Setup(Level.Iteration)
+   public void buildTree() {
+      tree = new BinarySearchTree(balanced);
+      for (Comparable key : insertOrder) {
+         tree.add(key);
+      }
+      tree.setBloomFilter(bloomFilter);
+      next = 0;
+   }
+
+  /**
+   * Builds a whole tree with add, in the distribution's order.
+   *
+   * @return the tree, so the JIT keeps the work
+   */
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.MILLISECONDS)
+   public BinarySearchTree add() {
+      BinarySearchTree built = new BinarySearchTree(balanced);
+      for (Comparable key : insertOrder) {
+         built.add(key);
+      }
+      return built;
+   }
+
+  /**
+   * One lookup with contains, half hits and half misses.
+   *
+   * @return whether the key was found
+   */
+   @Benchmark
+   public boolean contains() {
+      return tree.contains(lookups[next++ & (LOOKUPS - 1)]);
+   }
+
+  /**
+   * One lookup with contains, 7 in 10 of them misses.
+   *
+   * @return whether the key was found
+   */
+   @Benchmark
+   public boolean containsMostlyMissing() {
+      return tree.contains(mostlyMissing[next++ & (LOOKUPS - 1)]);
+   }
+
+  /**
+   * One lookup with get, hits only, since misses throw.
+   *
+   * @return the item found
+   */
+   @Benchmark
+   public Object get() {
+      return tree.get(present[next++ & (LOOKUPS - 1)]);
+   }
+
+  /**
+   * One remove followed by adding the key back, so the tree keeps its size.
+   */
+   @Benchmark
+   public void removeAndAdd() {
+      Comparable key = present[next++ & (LOOKUPS - 1)];
+      tree.remove(key);
+      tree.add(key);
+   }
+
+  /**
+   * Full in-order traversal.
+   *
+   * @param sink Consumes the items
+   */
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.MICROSECONDS)
+   public void inOrder(Blackhole sink) {
+      for (Object item : tree) {
+         sink.consume(item);
+      }
+   }
+
+  /**
+   * Full pre-order traversal.
+   *
+   * @param sink Consumes the items
+   */
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.MICROSECONDS)
+   public void preOrder(Blackhole sink) {
+      Iterator items = tree.preOrderIterator();
+      while (items.hasNext()) {
+         sink.consume(items.next());
+      }
+   }
+
+  /**
+   * Full post-order traversal.
+   *
+   * @param sink Consumes the items
+   */
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.MICROSECONDS)
+   public void postOrder(Blackhole sink) {
+      Iterator items = tree.postOrderIterator();
+      while (items.hasNext()) {
+         sink.consume(items.next());
+      }
+   }
+}
@@ -0,0 +1,168 @@
+package binarysearchtree.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generated keys, key orders and text corpora shared by the benchmarks.
+ * Everything is seeded, so every run measures the same data.
+ */
+public final class Workloads {
+
+  /** Order in which keys are inserted or looked up. */
+   public enum Distribution {
+      /** Uniformly random order. */
+      RANDOM,
+      /** Ascending order, the worst case for an unbalanced tree. */
+      SORTED,
+      /** Zipfian popularity, a few hot keys take most of the accesses. */
+      ZIPFIAN
+   }
+
+  /** Type of the tree keys. */
+   public enum KeyType {
+      /** Boxed ints. */
+      INTEGER,
+      /** Boxed longs spread over the whole range. */
+      LONG,
+      /** Fifteen-character strings with a shared prefix. */
+      STRING
+   }
+
+  /** Skew of the Zipfian distribution, the usual YCSB value. */
+   private static final double ZIPF_EXPONENT = 0.99;
+
+  /** Letter frequencies of English text, per 1000 letters, a to z. */
+   private static final int[] ENGLISH = {82, 15, 28, 43, 127, 22, 20, 61, 70,
+      2, 8, 40, 24, 67, 75, 19, 1, 60, 63, 91, 28, 10, 24, 2, 20, 1};
+
+  /** Static methods only. */
+   private Workloads() {
+   }
+
+  /**
+   * Makes count distinct keys of a type, in ascending order.
+   *
+   * @param type The key type
+   * @param count The number of keys
+   * @return the keys
+   */
+   @SuppressWarnings("rawtypes")
+   static Comparable[] keys(KeyType type, int count) {
+      Comparable[] keys = new Comparable[count];
+      for (int i = 0; i < count; i++) {
+         switch (type) {
+            case INTEGER:
+               keys[i] = i * 2;
+               break;
+            case LONG:
+               keys[i] = Long.MIN_VALUE + i * (Long.MAX_VALUE / count) * 2;
+               break;
+            default:
+               keys[i] = String.format("key-%011d", i * 2);
+               break;
+         }
+      }
+      return keys;
+   }
+
+  /**
+   * Makes a sequence of positions into a sorted key array.
+   *
+   * @param distribution How the positions are spread
+   * @param count The number of keys
+   * @param length The length of the sequence
+   * @param distinct true to use every key exactly once (length == count),
+   *        Zipfian order then puts the hot keys first
+   * @param seed The random seed
+   * @return the positions
+   */
+   static int[] order(Distribution distribution, int count, int length,
+         boolean distinct, long seed) {
+      Random random = new Random(seed);
+      int[] order = new int[length];
+      if (distribution == Distribution.SORTED) {
+         for (int i = 0; i < length; i++) {
+            order[i] = i % count;
+         }
+         return order;
+      }
+      int[] permutation = shuffled(count, random);
+      if (distribution == Distribution.RANDOM || distinct) {
+         // for a distinct Zipfian order, rank r sits at position r
+         for (int i = 0; i < length; i++) {
+            order[i] = distribution == Distribution.RANDOM
+               ? (distinct ? permutation[i] : random.nextInt(count))
+               : permutation[i];
+         }
+         return order;
+      }
+      double[] cumulative = new double[count];
+      double total = 0;
+      for (int rank = 0; rank < count; rank++) {
+         total += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+         cumulative[rank] = total;
+      }
+      for (int i = 0; i < length; i++) {
+         int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+         rank = rank >= 0 ? rank : Math.min(-rank - 1, count - 1);
+         order[i] = permutation[rank];
+      }
+      return order;
+   }
+
+  /**
+   * A random permutation of 0 to count - 1.
+   *
+   * @param count The number of positions
+   * @param random The source of randomness
+   * @return the permutation
+   */
+   private static int[] shuffled(int count, Random random) {
+      int[] permutation = new int[count];
+      for (int i = 0; i < count; i++) {
+         permutation[i] = i;
+      }
+      for (int i = count - 1; i > 0; i--) {
+         int j = random.nextInt(i + 1);
+         int swap = permutation[i];
+         permutation[i] = permutation[j];
+         permutation[j] = swap;
+      }
+      return permutation;
+   }
+
+  /**
+   * Makes a text corpus of lowercase letters.
+   *
+   * @param kind "english" for English letter frequencies, "uniform" for
+   *        equally likely letters, "skewed" for Zipfian letters
+   * @param length The number of characters
+   * @return the corpus
+   */
+   static String corpus(String kind, int length) {
+      double[] weights = new double[26];
+      for (int i = 0; i < 26; i++) {
+         weights[i] = kind.equals("english") ? ENGLISH[i]
+            : kind.equals("uniform") ? 1 : 1 / Math.pow(i + 1, 1.5);
+      }
+      double[] cumulative = new double[26];
+      double total = 0;
+      for (int i = 0; i < 26; i++) {
+         total += weights[i];
+         cumulative[i] = total;
+      }
+      Random random = new Random(length);
+      char[] text = new char[length];
+      for (int i = 0; i < length; i++) {
+         int letter = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+         letter = letter >= 0 ? letter : Math.min(-letter - 1, 25);
+         text[i] = (char) ('a' + letter);
+      }
+      // every letter at least once, so every letter gets a code
+      for (int i = 0; i < 26 && i < length; i++) {
+         text[i] = (char) ('a' + i);
+      }
+      return new String(text);
+   }
+}
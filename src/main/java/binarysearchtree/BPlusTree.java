@@ -0,0 +1,644 @@
+package binarysearchtree;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * B+ tree with the same add/get/remove/in-order API as BinarySearchTree.
+ * Each node keeps up to width keys in an array, so a search makes about
+ * log(n)/log(width) dependent loads instead of log2(n), and binary
+ * searches inside a node stay within a few cache lines. Items live only
+ * in the leaves, which are linked left to right, so in-order and range
+ * scans walk the leaves sequentially.
+ *
+ * @param <T> the type of items held in tree.
+ */
+public class BPlusTree<T extends Comparable<T>> implements Iterable<T> {
+
+  /** Default keys per node, 16 compressed references fill a cache line. */
+   public static final int DEFAULT_WIDTH = 16;
+
+  /** Most keys a node holds. */
+   private final int width;
+  /** Fewest keys a node other than the root holds. */
+   private final int minKeys;
+
+  /** Root node, a leaf while the tree is small. */
+   private Node root;
+  /** Number of items in the tree. */
+   private int size = 0;
+  /** Number of levels, leaves included. */
+   private int height = 1;
+  /** Count of structural changes, lets iterators fail fast. */
+   private int modCount = 0;
+
+  /** Separator pushed up by the last split, read by the caller. */
+   private Object promoted;
+
+  /**
+   * Common part of leaves and internal nodes, a sorted key array.
+   * One slot more than width gives room to overflow before a split.
+   */
+   private abstract class Node {
+      /** Keys in ascending order. */
+      final Object[] keys = new Object[width + 1];
+      /** Keys in use. */
+      int count;
+
+      /**
+       * Binary search for a key.
+       *
+       * @param key The key to search for
+       * @return its index, or -(insertion point) - 1 if it is absent
+       */
+      @SuppressWarnings("unchecked")
+      int search(T key) {
+         int low = 0;
+         int high = count - 1;
+         while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = ((T) keys[mid]).compareTo(key);
+            if (comparison < 0) {
+               low = mid + 1;
+            }
+            else if (comparison > 0) {
+               high = mid - 1;
+            }
+            else {
+               return mid;
+            }
+         }
+         return -(low + 1);
+      }
+   }
+
+  /** Leaf, holds the items and a link to the next leaf. */
+   private final class Leaf extends Node {
+      /** Next leaf in key order, or null. */
+      Leaf next;
+   }
+
+  /**
+   * Internal node. children[i] holds keys below keys[i] and
+   * children[i + 1] holds keys at or above it.
+   */
+   private final class Internal extends Node {
+      /**
+       * Subtrees, one more than the keys. Node is an inner class of a
+       * generic class, so its array can only be created raw; it only ever
+       * holds nodes of this tree.
+       */
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      final Node[] children = new BPlusTree.Node[width + 2];
+
+      /**
+       * Index of the child whose range holds a key.
+       *
+       * @param key The key to route
+       * @return the child index
+       */
+      int childIndex(T key) {
+         int index = this.search(key);
+         return index >= 0 ? index + 1 : -index - 1;
+      }
+   }
+
+  /** No parameter constructor, nodes of DEFAULT_WIDTH keys. */
+   public BPlusTree() {
+      this(DEFAULT_WIDTH);
+   }
+
+  /**
+   * Constructor choosing the node width.
+   *
+   * @param width The most keys a node holds, at least 3
+   * @throws IllegalArgumentException if width is below 3
+   */
+   public BPlusTree(int width) {
+      if (width < 3) {
+         throw new IllegalArgumentException("Width must be at least 3");
+      }
+      this.width = width;
+      this.minKeys = width / 2;
+      this.root = new Leaf();
+   }
+
+  /**
+   * Accessor for the node width.
+   *
+   * @return the most keys a node holds
+   */
+   public int getWidth() {
+      return width;
+   }
+
+  /**
+   * Number of items in the tree.
+   *
+   * @return the item count
+   */
+   public int size() {
+      return size;
+   }
+
+  /**
+   * Number of levels from the root down to the leaves.
+   *
+   * @return the height, 1 for a tree that is a single leaf
+   */
+   public int height() {
+      return height;
+   }
+
+  /**
+   * Fewest keys held by a node other than the root, so tests can check
+   * that splits, borrows and merges keep every node at least half full.
+   *
+   * @return the smallest key count below the root, or width for a tree
+   *         that is a single leaf
+   */
+   int fewestKeys() {
+      return root instanceof BPlusTree.Internal
+         ? this.fewestKeys((Internal) root) : width;
+   }
+
+  /**
+   * Fewest keys held by a node below an internal node.
+   *
+   * @param node The internal node
+   * @return the smallest key count among its descendants
+   */
+   private int fewestKeys(Internal node) {
+      int fewest = width;
+      for (int i = 0; i <= node.count; i++) {
+         Node child = node.children[i];
+         fewest = Math.min(fewest, child.count);
+         if (child instanceof BPlusTree.Internal) {
+            fewest = Math.min(fewest, this.fewestKeys((Internal) child));
+         }
+      }
+      return fewest;
+   }
+
+  /**
+   * Adds an item to the tree.
+   *
+   * @param item The object to be added
+   * @throws TreeException if an item with the same key is in the tree
+   */
+   public void add(T item) {
+      Node sibling = this.insert(root, item);
+      if (sibling != null) {
+         Internal newRoot = new Internal();
+         newRoot.keys[0] = promoted;
+         newRoot.children[0] = root;
+         newRoot.children[1] = sibling;
+         newRoot.count = 1;
+         root = newRoot;
+         height++;
+      }
+      size++;
+      modCount++;
+   }
+
+  /**
+   * Inserts an item below a node, splitting the node if it overflows.
+   *
+   * @param node The subtree root
+   * @param item The item to insert
+   * @return the new right sibling of the node after a split, else null
+   */
+   private Node insert(Node node, T item) {
+      if (node instanceof BPlusTree.Leaf) {
+         Leaf leaf = (Leaf) node;
+         int index = leaf.search(item);
+         if (index >= 0) {
+            throw new TreeException("No duplicate items are allowed!");
+         }
+         insertAt(leaf.keys, leaf.count, -index - 1, item);
+         leaf.count++;
+         return leaf.count > width ? this.splitLeaf(leaf) : null;
+      }
+      Internal internal = (Internal) node;
+      int index = internal.childIndex(item);
+      Node sibling = this.insert(internal.children[index], item);
+      if (sibling == null) {
+         return null;
+      }
+      insertAt(internal.keys, internal.count, index, promoted);
+      insertAt(internal.children, internal.count + 1, index + 1, sibling);
+      internal.count++;
+      return internal.count > width ? this.splitInternal(internal) : null;
+   }
+
+  /**
+   * Moves the upper half of an overfull leaf into a new leaf.
+   *
+   * @param leaf The leaf to split
+   * @return the new leaf, its first key is left in promoted
+   */
+   private Leaf splitLeaf(Leaf leaf) {
+      Leaf right = new Leaf();
+      int mid = leaf.count / 2;
+      right.count = leaf.count - mid;
+      System.arraycopy(leaf.keys, mid, right.keys, 0, right.count);
+      clear(leaf.keys, mid, leaf.count);
+      leaf.count = mid;
+      right.next = leaf.next;
+      leaf.next = right;
+      promoted = right.keys[0];
+      return right;
+   }
+
+  /**
+   * Moves the upper half of an overfull internal node into a new node,
+   * the middle key goes up to the parent.
+   *
+   * @param node The node to split
+   * @return the new node, the middle key is left in promoted
+   */
+   private Internal splitInternal(Internal node) {
+      Internal right = new Internal();
+      int mid = node.count / 2;
+      promoted = node.keys[mid];
+      right.count = node.count - mid - 1;
+      System.arraycopy(node.keys, mid + 1, right.keys, 0, right.count);
+      System.arraycopy(node.children, mid + 1, right.children, 0,
+         right.count + 1);
+      clear(node.keys, mid, node.count);
+      clear(node.children, mid + 1, node.count + 1);
+      node.count = mid;
+      return right;
+   }
+
+  /**
+   * gets an item from the tree with the same search key.
+   *
+   * @param searchKey An object containing the search key
+   * @return the data item in the tree with matching key.
+   * @throws TreeException if item not found
+   */
+   @SuppressWarnings("unchecked")
+   public T get(T searchKey) {
+      Leaf leaf = this.findLeaf(searchKey);
+      int index = leaf.search(searchKey);
+      if (index < 0) {
+         throw new TreeException("Item not found!");
+      }
+      return (T) leaf.keys[index];
+   }
+
+  /**
+   * Tells whether an item with the same search key is in the tree.
+   *
+   * @param searchKey An object containing the search key
+   * @return true if a matching item is in the tree
+   */
+   public boolean contains(T searchKey) {
+      return this.findLeaf(searchKey).search(searchKey) >= 0;
+   }
+
+  /**
+   * Walks down to the leaf whose range holds a key.
+   *
+   * @param key The key to route
+   * @return the leaf
+   */
+   private Leaf findLeaf(T key) {
+      Node node = root;
+      while (node instanceof BPlusTree.Internal) {
+         Internal internal = (Internal) node;
+         node = internal.children[internal.childIndex(key)];
+      }
+      return (Leaf) node;
+   }
+
+  /**
+   * Removes an item from the tree.
+   *
+   * @param searchKey An object storing the key to remove.
+   * @throws TreeException if item not found in tree.
+   */
+   public void remove(T searchKey) {
+      this.delete(root, searchKey);
+      if (root instanceof BPlusTree.Internal && root.count == 0) {
+         root = ((Internal) root).children[0];
+         height--;
+      }
+      size--;
+      modCount++;
+   }
+
+  /**
+   * Deletes a key below a node, then refills the child it came from
+   * if that child dropped below the minimum.
+   *
+   * @param node The subtree root
+   * @param key The key to delete
+   * @throws TreeException if the key is not found
+   */
+   private void delete(Node node, T key) {
+      if (node instanceof BPlusTree.Leaf) {
+         int index = node.search(key);
+         if (index < 0) {
+            throw new TreeException("Item not found!");
+         }
+         removeAt(node.keys, node.count, index);
+         node.count--;
+         return;
+      }
+      Internal internal = (Internal) node;
+      int index = internal.childIndex(key);
+      this.delete(internal.children[index], key);
+      if (internal.children[index].count < minKeys) {
+         this.refill(internal, index);
+      }
+   }
+
+  /**
+   * Brings an underfull child back to the minimum by borrowing a key
+   * from a sibling that can spare one, or else by merging with a sibling.
+   *
+   * @param parent The parent of the underfull child
+   * @param index The index of the underfull child
+   */
+   private void refill(Internal parent, int index) {
+      if (index > 0 && parent.children[index - 1].count > minKeys) {
+         this.borrowFromLeft(parent, index);
+      }
+      else if (index < parent.count
+            && parent.children[index + 1].count > minKeys) {
+         this.borrowFromRight(parent, index);
+      }
+      else if (index > 0) {
+         this.merge(parent, index - 1);
+      }
+      else {
+         this.merge(parent, index);
+      }
+   }
+
+  /**
+   * Moves the last key of the left sibling into a child.
+   *
+   * @param parent The parent of both
+   * @param index The index of the child
+   */
+   private void borrowFromLeft(Internal parent, int index) {
+      Node child = parent.children[index];
+      Node left = parent.children[index - 1];
+      if (child instanceof BPlusTree.Leaf) {
+         insertAt(child.keys, child.count, 0, left.keys[left.count - 1]);
+         parent.keys[index - 1] = child.keys[0];
+      }
+      else {
+         Internal to = (Internal) child;
+         Internal from = (Internal) left;
+         insertAt(to.keys, to.count, 0, parent.keys[index - 1]);
+         insertAt(to.children, to.count + 1, 0, from.children[from.count]);
+         parent.keys[index - 1] = from.keys[from.count - 1];
+         from.children[from.count] = null;
+      }
+      left.keys[left.count - 1] = null;
+      left.count--;
+      child.count++;
+   }
+
+  /**
+   * Moves the first key of the right sibling into a child.
+   *
+   * @param parent The parent of both
+   * @param index The index of the child
+   */
+   private void borrowFromRight(Internal parent, int index) {
+      Node child = parent.children[index];
+      Node right = parent.children[index + 1];
+      if (child instanceof BPlusTree.Leaf) {
+         child.keys[child.count] = right.keys[0];
+         removeAt(right.keys, right.count, 0);
+         parent.keys[index] = right.keys[0];
+      }
+      else {
+         Internal to = (Internal) child;
+         Internal from = (Internal) right;
+         to.keys[to.count] = parent.keys[index];
+         to.children[to.count + 1] = from.children[0];
+         parent.keys[index] = from.keys[0];
+         removeAt(from.keys, from.count, 0);
+         removeAt(from.children, from.count + 1, 0);
+      }
+      right.count--;
+      child.count++;
+   }
+
+  /**
+   * Merges a child with its right sibling and drops the separator
+   * between them from the parent.
+   *
+   * @param parent The parent of both
+   * @param index The index of the left child of the pair
+   */
+   private void merge(Internal parent, int index) {
+      Node left = parent.children[index];
+      Node right = parent.children[index + 1];
+      if (left instanceof BPlusTree.Leaf) {
+         System.arraycopy(right.keys, 0, left.keys, left.count, right.count);
+         left.count += right.count;
+         ((Leaf) left).next = ((Leaf) right).next;
+      }
+      else {
+         Internal to = (Internal) left;
+         Internal from = (Internal) right;
+         to.keys[to.count] = parent.keys[index];
+         System.arraycopy(from.keys, 0, to.keys, to.count + 1, from.count);
+         System.arraycopy(from.children, 0, to.children, to.count + 1,
+            from.count + 1);
+         to.count += from.count + 1;
+      }
+      removeAt(parent.keys, parent.count, index);
+      removeAt(parent.children, parent.count + 1, index + 1);
+      parent.count--;
+   }
+
+  /**
+   * Shifts array entries right to open a slot and fills it.
+   *
+   * @param array The array
+   * @param count The entries in use
+   * @param index The slot to fill
+   * @param value The new entry
+   */
+   private static void insertAt(Object[] array, int count, int index,
+         Object value) {
+      System.arraycopy(array, index, array, index + 1, count - index);
+      array[index] = value;
+   }
+
+  /**
+   * Shifts array entries left over a slot and clears the freed end.
+   *
+   * @param array The array
+   * @param count The entries in use
+   * @param index The slot to remove
+   */
+   private static void removeAt(Object[] array, int count, int index) {
+      System.arraycopy(array, index + 1, array, index, count - index - 1);
+      array[count - 1] = null;
+   }
+
+  /**
+   * Clears array entries so dropped items can be collected.
+   *
+   * @param array The array
+   * @param from The first slot to clear
+   * @param to One past the last slot to clear
+   */
+   private static void clear(Object[] array, int from, int to) {
+      for (int i = from; i < to; i++) {
+         array[i] = null;
+      }
+   }
+
+  /**
+   * In-order iterator, walks the linked leaves.
+   *
+   * @return an iterator over the items in ascending order
+   */
+   @Override
+   public Iterator<T> iterator() {
+      Node node = root;
+      while (node instanceof BPlusTree.Internal) {
+         node = ((Internal) node).children[0];
+      }
+      return new LeafIterator((Leaf) node, 0, null);
+   }
+
+  /**
+   * Iterator over the items from low to high, both inclusive. It finds
+   * the first leaf with one descent and then walks the leaf links.
+   *
+   * @param low The smallest key to include
+   * @param high The largest key to include
+   * @return an iterator over the items in range, in ascending order
+   */
+   public Iterator<T> rangeIterator(T low, T high) {
+      Leaf leaf = this.findLeaf(low);
+      int index = leaf.search(low);
+      return new LeafIterator(leaf, index >= 0 ? index : -index - 1, high);
+   }
+
+  /**
+   * Iterator walking the leaf chain from a starting slot, optionally
+   * stopping after a high key. Fails fast on changes to the tree.
+   */
+   private final class LeafIterator implements Iterator<T> {
+      /** Leaf holding the next item. */
+      private Leaf leaf;
+      /** Index of the next item in the leaf. */
+      private int index;
+      /** Largest key to return, or null for none. */
+      private final T high;
+      /** The modCount the tree must still have. */
+      private final int expectedModCount = modCount;
+
+      /**
+       * Constructor.
+       *
+       * @param leaf The first leaf
+       * @param index The first index in that leaf
+       * @param high The largest key to return, or null for none
+       */
+      LeafIterator(Leaf leaf, int index, T high) {
+         this.leaf = leaf;
+         this.index = index;
+         this.high = high;
+         this.skipEmpty();
+      }
+
+      /**
+       * Moves past the end of a leaf to the start of the next one.
+       */
+      private void skipEmpty() {
+         while (leaf != null && index >= leaf.count) {
+            leaf = leaf.next;
+            index = 0;
+         }
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public boolean hasNext() {
+         return leaf != null
+            && (high == null || ((T) leaf.keys[index]).compareTo(high) <= 0);
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public T next() {
+         if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+         }
+         if (!this.hasNext()) {
+            throw new NoSuchElementException();
+         }
+         T item = (T) leaf.keys[index++];
+         this.skipEmpty();
+         return item;
+      }
+   }
+
+  /**
+   * called automatically by println/print method.
+   *
+   * @return an inorder String of the tree
+   */
+   public String toString() {
+      StringBuilder displayNodes = new StringBuilder();
+      for (T item : this) {
+         displayNodes.append(item).append(", ");
+      }
+      return displayNodes.toString();
+   }
+
+  /**
+   * Driver code to test class.
+   *
+   * @param args are not used
+   */
+   public static void main(String[] args) {
+      BPlusTree<Integer> tree = new BPlusTree<Integer>(4);
+      for (int i = 0; i < 40; i++) {
+         tree.add(i * 7 % 40);
+      }
+      System.out.println("In-order: " + tree);
+      System.out.println("Size " + tree.size() + ", height " + tree.height()
+         + ", get 13: " + tree.get(13));
+      for (int i = 0; i < 40; i += 3) {
+         tree.remove(i);
+      }
+      System.out.println("After removing multiples of 3: " + tree);
+      StringBuilder range = new StringBuilder();
+      for (Iterator<Integer> items = tree.rangeIterator(10, 20);
+            items.hasNext();) {
+         range.append(items.next()).append(", ");
+      }
+      System.out.println("Range 10..20: " + range);
+      try {
+         tree.get(3);
+      }
+      catch (TreeException exception) {
+         System.out.println("get 3: " + exception.getMessage());
+      }
+
+      BPlusTree<Integer> wide = new BPlusTree<Integer>();
+      BinarySearchTree<Integer> binary = new BinarySearchTree<Integer>(true);
+      for (int i = 0; i < 1000000; i++) {
+         int key = (int) (i * 2654435761L % 1000003);
+         wide.add(key);
+         binary.add(key);
+      }
+      System.out.println("1000000 keys: B+ tree height " + wide.height()
+         + " (width " + wide.getWidth() + "), AVL height " + binary.height());
+   } // end of main
+} // end of class
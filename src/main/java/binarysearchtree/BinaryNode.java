@@ -13,6 +13,10 @@ public class BinaryNode<E> {
    private BinaryNode<E> left;
    /** Link to right child Node. */
    private BinaryNode<E> right;
+   /** Height of the subtree rooted at this Node (a leaf has height 1). */
+   private int height = 1;
+   /** Number of Nodes in the subtree rooted at this Node. */
+   private int size = 1;
 
 	/**
 	 * Constructor.
@@ -95,6 +99,44 @@ public class BinaryNode<E> {
       right = r;
    }
 
+	/**
+	 * Accessor method.
+	 * 
+	 * @return the height of the subtree rooted at this node
+	 */
+   public int getHeight() {
+      return height;
+   }
+
+	/**
+	 * Mutator method.
+	 * 
+	 * @param h
+	 *            is the height of the subtree rooted at this node
+	 */
+   public void setHeight(int h) {
+      height = h;
+   }
+
+	/**
+	 * Accessor method.
+	 * 
+	 * @return the number of nodes in the subtree rooted at this node
+	 */
+   public int getSize() {
+      return size;
+   }
+
+	/**
+	 * Mutator method.
+	 * 
+	 * @param s
+	 *            is the number of nodes in the subtree rooted at this node
+	 */
+   public void setSize(int s) {
+      size = s;
+   }
+
 	/**
 	 * Driver code to test class.
 	 * 
@@ -1,233 +1,2250 @@
 package binarysearchtree;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Generic class for a binary search tree.
+ * A tree constructed as balanced keeps the AVL property on every add and
+ * remove, so its height stays below 1.45 log2(n + 2) whatever the insert order.
+ * A persistent tree never changes a node once it is linked in: add and
+ * remove copy the root-to-leaf path they touch, so snapshot() is O(1).
  * 
  * @author Lisa Miller from William McDaniel Albritton
  * @param <T> the type of items held in tree.
  */
-public class BinarySearchTree<T extends Comparable<T>> {
+public class BinarySearchTree<T extends Comparable<T>> implements Iterable<T> {
 
   /** Root node instance variable. */
    private BinaryNode<T> root = null;
 
-  /** No parameter constructor. */
+  /** True if add and remove rebalance the tree (AVL). */
+   private final boolean balanced;
+
+  /** True if changes copy nodes instead of modifying them. */
+   private final boolean persistent;
+
+  /** True for snapshots, which refuse every change. */
+   private final boolean readOnly;
+
+  /** Count of structural changes, lets iterators fail fast. */
+   private int modCount = 0;
+
+  /** Subtree size below which parallel operations run sequentially. */
+   private int parallelThreshold = 4096;
+
+  /** Height above which batches go in one key at a time, bounding recursion. */
+   private static final int MAX_BATCH_DEPTH = 1000;
+
+  /** Set operation keeping the items of either tree. */
+   private static final int UNION = 0;
+
+  /** Set operation keeping the items in both trees. */
+   private static final int INTERSECTION = 1;
+
+  /** Set operation keeping the items only in this tree. */
+   private static final int DIFFERENCE = 2;
+
+  /** True if lookups check the Bloom filter before walking the tree. */
+   private boolean bloomEnabled = false;
+
+  /** Negative cache of the items, null while the filter is off. */
+   private BloomFilter bloom = null;
+
+  /** Removes since the Bloom filter was built, their bits are stale. */
+   private int bloomRemoved = 0;
+
+  /** Path of the last removeIfPresent walk, grown when a walk goes deeper. */
+   private BinaryNode<T>[] removePath = newPath(null);
+
+  /** removeWentLeft[i] is true if that walk went left from removePath[i]. */
+   private boolean[] removeWentLeft = new boolean[0];
+
+  /** No parameter constructor, makes an unbalanced tree. */
    public BinarySearchTree() {
-      // root already initialized
+      this(false);
+   }
+
+  /**
+   * Constructor choosing the balancing policy.
+   * 
+   * @param balanced true to keep the tree AVL balanced on add and remove
+   */
+   public BinarySearchTree(boolean balanced) {
+      this(balanced, false);
+   }
+
+  /**
+   * Constructor choosing the balancing policy and whether the tree is
+   * persistent (path copying).
+   * 
+   * @param balanced true to keep the tree AVL balanced on add and remove
+   * @param persistent true to copy changed paths instead of changing nodes
+   */
+   public BinarySearchTree(boolean balanced, boolean persistent) {
+      this(balanced, persistent, false);
+   }
+
+  /**
+   * Constructor for all the tree options.
+   * 
+   * @param balanced true to keep the tree AVL balanced on add and remove
+   * @param persistent true to copy changed paths instead of changing nodes
+   * @param readOnly true to refuse every change
+   */
+   private BinarySearchTree(boolean balanced, boolean persistent,
+         boolean readOnly) {
+      this.balanced = balanced;
+      this.persistent = persistent;
+      this.readOnly = readOnly;
+   }
+
+  /**
+   * Tells whether this tree copies paths instead of changing nodes.
+   * 
+   * @return true if the tree is persistent
+   */
+   public boolean isPersistent() {
+      return persistent;
+   }
+
+  /**
+   * Tells whether this tree is a read-only snapshot.
+   * 
+   * @return true if every change is refused
+   */
+   public boolean isReadOnly() {
+      return readOnly;
+   }
+
+  /**
+   * Immutable view of the tree as it is now. Takes O(1) for a persistent
+   * tree, which shares all its nodes with the snapshot, and O(n) for any
+   * other tree, whose items are copied into a new minimum-height tree.
+   * Readers of a snapshot need no locks, later changes never reach it.
+   * 
+   * @return a read-only tree holding the current items
+   */
+   public BinarySearchTree<T> snapshot() {
+      BinarySearchTree<T> copy = new BinarySearchTree<T>(balanced, true, true);
+      if (persistent) {
+         copy.root = root;
+      } 
+      else {
+         T[] items = newArray(this.size());
+         int count = 0;
+         for (T item : this) {
+            items[count++] = item;
+         }
+         copy.root = buildBalanced(items, 0, count);
+      }
+      copy.parallelThreshold = parallelThreshold;
+      return copy;
+   }
+
+  /**
+   * Copies the items into an immutable index laid out for fast lookups.
+   * Worth it for trees built once and then searched many times; later
+   * changes to this tree do not reach the index.
+   *
+   * @return a frozen index holding the current items
+   */
+   public FrozenBinarySearchTree<T> freeze() {
+      return new FrozenBinarySearchTree<T>(this);
+   }
+
+  /**
+   * Saves the items to a binary snapshot file, see MappedSnapshot.
+   *
+   * @param file The snapshot file
+   * @param codec Encodes the items
+   * @throws IOException if the file cannot be written
+   */
+   public void writeSnapshot(Path file, KeyCodec<T> codec) throws IOException {
+      MappedSnapshot.write(this, file, codec);
+   }
+
+  /**
+   * Loads a tree from a binary snapshot file by mapping it and building
+   * a minimum-height tree in O(n), instead of adding the items one by one.
+   *
+   * @param <T> the type of items held in tree
+   * @param file The snapshot file
+   * @param codec Decodes the items
+   * @param balanced true if the tree should stay AVL balanced afterwards
+   * @return a new tree holding the saved items
+   * @throws IOException if the file cannot be read or fails its checks
+   */
+   public static <T extends Comparable<T>> BinarySearchTree<T> loadSnapshot(
+         Path file, KeyCodec<T> codec, boolean balanced) throws IOException {
+      return MappedSnapshot.open(file, codec).toTree(balanced);
+   }
+
+  /**
+   * Throws if the tree is a read-only snapshot.
+   */
+   private void checkWritable() {
+      if (readOnly) {
+         throw new UnsupportedOperationException("Snapshots are read-only");
+      }
+   }
+
+  /**
+   * Returns a node that may be changed: the node itself, or a copy of it
+   * in a persistent tree, where linked nodes are never changed.
+   * 
+   * @param node The node about to be changed
+   * @return the node to change
+   */
+   private BinaryNode<T> writable(BinaryNode<T> node) {
+      if (!persistent) {
+         return node;
+      }
+      BinaryNode<T> copy = new BinaryNode<T>(node.getData(),
+         node.getLeftChild(), node.getRightChild());
+      copy.setHeight(node.getHeight());
+      copy.setSize(node.getSize());
+      return copy;
+   }
+
+  /**
+   * Tells whether this tree rebalances itself.
+   * 
+   * @return true if the tree keeps the AVL property
+   */
+   public boolean isBalanced() {
+      return balanced;
+   }
+
+  /**
+   * Gives classes in this package read access to the nodes.
+   * 
+   * @return the root node, null if the tree is empty
+   */
+   BinaryNode<T> getRoot() {
+      return root;
+   }
+
+  /**
+   * Height of the tree, the number of nodes on the longest root-to-leaf path.
+   * 
+   * @return the height, 0 for an empty tree
+   */
+   public int height() {
+      return height(root);
+   }
+
+  /**
+   * Adds an item to the tree.
+   * Walks down from the root comparing once per level, remembering the
+   * path, then relinks and rebalances the path on the way back up.
+   * 
+   * @param item The object to be added
+   * @throws TreeException if an item with the same key is in the tree
+   */
+   public void add(T item) {
+      this.checkWritable();
+      BinaryNode<T>[] path = this.newPath(root);
+      boolean[] wentLeft = new boolean[path.length];
+      int depth = 0;
+      BinaryNode<T> node = root;
+      // find the empty spot where the item belongs
+      while (node != null) {
+         int comparison = item.compareTo(node.getData());
+         if (comparison == 0) {
+            throw new TreeException("No duplicate items are allowed!");
+         }
+         path[depth] = node;
+         wentLeft[depth] = comparison < 0;
+         depth++;
+         node = comparison < 0 ? node.getLeftChild() : node.getRightChild();
+      }
+      this.link(path, wentLeft, depth, item);
+   }
+
+  /**
+   * Puts a new leaf at the end of a search path and fixes the path.
+   * 
+   * @param path The ancestors of the empty spot, path[0] being the root
+   * @param wentLeft wentLeft[i] is true if the walk went left from path[i]
+   * @param depth The number of ancestors in path
+   * @param item The item for the new leaf
+   */
+   private void link(BinaryNode<T>[] path, boolean[] wentLeft, int depth,
+         T item) {
+      root = this.fixPath(path, wentLeft, depth,
+         new BinaryNode<T>(item, null, null));
+      modCount++;
+      this.bloomAdded(item);
+   }
+
+  /**
+   * Takes a node found at the end of a search path out of the tree and
+   * fixes the path.
+   * 
+   * @param path The ancestors of the node, path[0] being the root
+   * @param wentLeft wentLeft[i] is true if the walk went left from path[i]
+   * @param depth The number of ancestors in path
+   * @param node The node to take out
+   */
+   private void unlink(BinaryNode<T>[] path, boolean[] wentLeft, int depth,
+         BinaryNode<T> node) {
+      root = this.fixPath(path, wentLeft, depth, this.remove(node));
+      modCount++;
+      this.bloomRemoved(1);
+   }
+
+  /**
+   * Adds an item unless an item with the same key is in the tree.
+   * 
+   * @param item The object to be added
+   * @return true if the item was added
+   */
+   public boolean addIfAbsent(T item) {
+      int before = this.size();
+      this.update(item, (key, old) -> old == null ? item : old);
+      return this.size() > before;
+   }
+
+  /**
+   * Works out the item for a key from the item now in the tree, if any,
+   * in a single descent. A null result removes the key.
+   * 
+   * @param searchKey An object containing the search key
+   * @param remapping Gets the key and the current item or null, returns
+   *        the new item, with the same key, or null for none
+   * @return the new item, or null if the key is not in the tree anymore
+   * @throws IllegalArgumentException if the new item has a different key
+   */
+   public T compute(T searchKey,
+         BiFunction<? super T, ? super T, ? extends T> remapping) {
+      return this.update(searchKey, remapping);
+   }
+
+  /**
+   * Returns the item with a key, adding one made from the key first if
+   * there is none, in a single descent.
+   * 
+   * @param searchKey An object containing the search key
+   * @param factory Makes the item, with the same key, or returns null to
+   *        add nothing
+   * @return the item now in the tree, or null if none was made
+   * @throws IllegalArgumentException if the new item has a different key
+   */
+   public T computeIfAbsent(T searchKey,
+         Function<? super T, ? extends T> factory) {
+      return this.update(searchKey,
+         (key, old) -> old != null ? old : factory.apply(key));
+   }
+
+  /**
+   * Adds an item, or combines it with the item already in the tree under
+   * the same key, in a single descent. A null combination removes the key.
+   * 
+   * @param item The object to be added or combined
+   * @param merger Gets the current item and the new one, returns the
+   *        combined item, with the same key, or null for none
+   * @return the item now in the tree, or null if the key was removed
+   * @throws IllegalArgumentException if the combined item has a different key
+   */
+   public T merge(T item, BinaryOperator<T> merger) {
+      return this.update(item,
+         (key, old) -> old == null ? item : merger.apply(old, item));
+   }
+
+  /**
+   * Walks down once to the node or empty spot for a key, then inserts,
+   * replaces or removes there depending on what remapping returns.
+   * 
+   * @param searchKey An object containing the search key
+   * @param remapping Gets the key and the current item or null, returns
+   *        the new item or null
+   * @return the new item, or null if the key is not in the tree anymore
+   * @throws IllegalArgumentException if the new item has a different key
+   */
+   private T update(T searchKey,
+         BiFunction<? super T, ? super T, ? extends T> remapping) {
+      this.checkWritable();
+      BinaryNode<T>[] path = this.newPath(root);
+      boolean[] wentLeft = new boolean[path.length];
+      int depth = 0;
+      BinaryNode<T> node = root;
+      while (node != null) {
+         int comparison = searchKey.compareTo(node.getData());
+         if (comparison == 0) {
+            break;
+         }
+         path[depth] = node;
+         wentLeft[depth] = comparison < 0;
+         depth++;
+         node = comparison < 0 ? node.getLeftChild() : node.getRightChild();
+      }
+      T old = node == null ? null : node.getData();
+      T result = remapping.apply(searchKey, old);
+      if (result == null) {
+         if (node != null) {
+            this.unlink(path, wentLeft, depth, node);
+         }
+         return null;
+      }
+      if (result.compareTo(searchKey) != 0) {
+         throw new IllegalArgumentException("New item must have the same key");
+      }
+      if (node == null) {
+         this.link(path, wentLeft, depth, result);
+      } 
+      else if (result != old) {
+         if (persistent) {
+            node = this.writable(node);
+            node.setData(result);
+            root = this.fixPath(path, wentLeft, depth, node);
+         } 
+         else {
+            node.setData(result);
+         }
+      }
+      return result;
+   }
+
+  /**
+   * Relinks a changed subtree into its ancestors, bottom up, updating
+   * heights and rebalancing each ancestor in turn.
+   * 
+   * @param path The ancestors, path[0] being the root of the tree/subtree
+   * @param wentLeft wentLeft[i] is true if the walk went left from path[i]
+   * @param depth The number of ancestors in path
+   * @param child The new root of the subtree below path[depth - 1]
+   * @return the new root of the tree/subtree
+   */
+   private BinaryNode<T> fixPath(BinaryNode<T>[] path, boolean[] wentLeft,
+         int depth, BinaryNode<T> child) {
+      for (int i = depth - 1; i >= 0; i--) {
+         BinaryNode<T> parent = this.writable(path[i]);
+         if (wentLeft[i]) {
+            parent.setLeftChild(child);
+         } 
+         else {
+            parent.setRightChild(child);
+         }
+         child = this.rebalance(parent);
+      }
+      return child;
+   }
+
+  /**
+   * Makes an array big enough to hold any root-to-node path in a subtree.
+   * 
+   * @param node The root of the tree/subtree
+   * @return an empty path array
+   */
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   private BinaryNode<T>[] newPath(BinaryNode<T> node) {
+      return (BinaryNode<T>[]) new BinaryNode[height(node)];
+   }
+
+  /**
+   * Builds a tree of minimum height from a collection in O(n) when the
+   * items come in ascending order; otherwise they are sorted in parallel
+   * first. Items that compare equal are merged, the first one is kept.
+   * 
+   * @param <T> the type of items held in tree
+   * @param items The items to put in the tree, ideally already sorted
+   * @param balanced true if the tree should stay AVL balanced afterwards
+   * @return a new tree holding the distinct items
+   */
+   public static <T extends Comparable<T>> BinarySearchTree<T> fromSorted(
+         Collection<? extends T> items, boolean balanced) {
+      BinarySearchTree<T> tree = new BinarySearchTree<T>(balanced);
+      tree.addAll(items);
+      return tree;
+   }
+
+  /**
+   * Adds every item of a collection, then rebuilds the tree with minimum
+   * height. Sorted input costs O(n + m) time and space for a tree of n
+   * items, unsorted input is sorted in parallel first. A few items added
+   * to a large tree, fewer than n over the tree height, go in one at a
+   * time instead, for O(m log n) when balanced. Duplicates, within the
+   * collection or of items already in the tree, are skipped instead of
+   * throwing, the tree's copy is kept.
+   * 
+   * @param items The items to add
+   * @return the number of items actually added
+   */
+   public int addAll(Collection<? extends T> items) {
+      this.checkWritable();
+      if ((long) items.size() * (height(root) + 1) < this.size()) {
+         int addedCount = 0;
+         for (T item : items) {
+            if (this.addIfAbsent(item)) {
+               addedCount++;
+            }
+         }
+         return addedCount;
+      }
+      T[] added = sortedDistinct(items);
+      int addedCount = added.length;
+      T[] merged = added;
+      // merge with the items already in the tree, old items win ties
+      if (root != null) {
+         merged = newArray(this.size() + added.length);
+         Iterator<T> old = this.iterator();
+         T next = old.next();
+         int count = 0;
+         int i = 0;
+         while (next != null || i < added.length) {
+            int comparison = next == null ? 1
+               : i == added.length ? -1 : next.compareTo(added[i]);
+            if (comparison <= 0) {
+               merged[count++] = next;
+               next = old.hasNext() ? old.next() : null;
+               if (comparison == 0) {
+                  i++;
+                  addedCount--;
+               }
+            } 
+            else {
+               merged[count++] = added[i++];
+            }
+         }
+         merged = Arrays.copyOf(merged, count);
+      }
+      root = buildBalanced(merged, 0, merged.length);
+      modCount++;
+      this.rebuildBloom();
+      return addedCount;
+   }
+
+  /**
+   * Copies a collection to an array in ascending order without duplicates.
+   * Sorting is skipped when the items already come in order.
+   * 
+   * @param items The items to copy
+   * @return the sorted, distinct items
+   */
+   private static <T extends Comparable<T>> T[] sortedDistinct(
+         Collection<? extends T> items) {
+      T[] array = items.toArray(newArray(items.size()));
+      boolean sorted = true;
+      for (int i = 1; i < array.length && sorted; i++) {
+         sorted = array[i - 1].compareTo(array[i]) <= 0;
+      }
+      if (!sorted) {
+         Arrays.parallelSort(array);
+      }
+      // squeeze out equal neighbours, keeping the first of each run
+      int count = array.length == 0 ? 0 : 1;
+      for (int i = 1; i < array.length; i++) {
+         if (array[count - 1].compareTo(array[i]) != 0) {
+            array[count++] = array[i];
+         }
+      }
+      return count == array.length ? array : Arrays.copyOf(array, count);
+   }
+
+  /**
+   * Makes an empty array of tree items.
+   * 
+   * @param length The array length
+   * @return a new array
+   */
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   private static <T extends Comparable<T>> T[] newArray(int length) {
+      return (T[]) new Comparable[length];
+   }
+
+  /**
+   * Builds a subtree of minimum height from a sorted slice of items,
+   * using the middle item as the root at every level.
+   * 
+   * @param items The sorted, distinct items
+   * @param from Index of the first item of the slice
+   * @param to Index after the last item of the slice
+   * @return the root of the new subtree
+   */
+   private static <T> BinaryNode<T> buildBalanced(T[] items, int from, int to) {
+      if (from >= to) {
+         return null;
+      }
+      int middle = (from + to) >>> 1;
+      BinaryNode<T> node = new BinaryNode<T>(items[middle],
+         buildBalanced(items, from, middle),
+         buildBalanced(items, middle + 1, to));
+      update(node);
+      return node;
+   }
+
+  /**
+   * Adds a batch of items in one pass. The batch is sorted, then split
+   * against the tree from the root down, so each subtree is visited at
+   * most once however many items land in it; the pieces are joined back
+   * together on the way up, keeping the AVL property in a balanced tree.
+   * Items already in the tree, or repeated in the batch, are skipped and
+   * reported instead of throwing.
+   * 
+   * @param items The items to add
+   * @return the items not added, because their key was already present
+   */
+   public List<T> addBatch(Collection<? extends T> items) {
+      this.checkWritable();
+      ArrayList<T> duplicates = new ArrayList<T>();
+      T[] sorted = items.toArray(newArray(items.size()));
+      int count = sortBatch(sorted, duplicates);
+      if (!balanced && height(root) > MAX_BATCH_DEPTH) {
+         // too deep to recurse, but the sorted order still helps the cache
+         for (int i = 0; i < count; i++) {
+            if (!this.addIfAbsent(sorted[i])) {
+               duplicates.add(sorted[i]);
+            }
+         }
+         return duplicates;
+      }
+      root = this.addBatch(root, sorted, 0, count, duplicates);
+      modCount++;
+      for (int i = 0; i < count; i++) {
+         this.bloomAdded(sorted[i]);
+      }
+      return duplicates;
+   }
+
+  /**
+   * Removes a batch of items in one pass, splitting the sorted batch
+   * against the tree like addBatch. Keys not in the tree, or repeated in
+   * the batch, are reported instead of throwing.
+   * 
+   * @param items The items storing the keys to remove
+   * @return the items whose key was not found
+   */
+   public List<T> removeBatch(Collection<? extends T> items) {
+      this.checkWritable();
+      ArrayList<T> missing = new ArrayList<T>();
+      T[] sorted = items.toArray(newArray(items.size()));
+      int count = sortBatch(sorted, missing);
+      if (!balanced && height(root) > MAX_BATCH_DEPTH) {
+         for (int i = 0; i < count; i++) {
+            if (!this.removeIfPresent(sorted[i])) {
+               missing.add(sorted[i]);
+            }
+         }
+         return missing;
+      }
+      int before = this.size();
+      root = this.removeBatch(root, sorted, 0, count, missing);
+      modCount++;
+      this.bloomRemoved(before - this.size());
+      return missing;
+   }
+
+  /**
+   * Sorts a batch and moves repeated keys out, keeping the first of each.
+   * 
+   * @param batch The batch, sorted distinct items are left at its front
+   * @param repeats Gets the repeated items
+   * @return the number of distinct items
+   */
+   private static <T extends Comparable<T>> int sortBatch(T[] batch,
+         List<T> repeats) {
+      Arrays.parallelSort(batch);
+      int count = 0;
+      for (int i = 0; i < batch.length; i++) {
+         if (count > 0 && batch[i].compareTo(batch[count - 1]) == 0) {
+            repeats.add(batch[i]);
+         } 
+         else {
+            batch[count++] = batch[i];
+         }
+      }
+      return count;
+   }
+
+  /**
+   * Adds a sorted range of distinct items to a subtree.
+   * 
+   * @param node The root of the subtree, may be null
+   * @param items The sorted items
+   * @param from The first item of the range
+   * @param to One past the last item of the range
+   * @param duplicates Gets the items whose key is already in the subtree
+   * @return the new root of the subtree
+   */
+   private BinaryNode<T> addBatch(BinaryNode<T> node, T[] items, int from,
+         int to, List<T> duplicates) {
+      if (from >= to) {
+         return node;
+      }
+      if (node == null) {
+         return buildBalanced(items, from, to);
+      }
+      int split = Arrays.binarySearch(items, from, to, node.getData());
+      int next = split;
+      if (split >= 0) {
+         duplicates.add(items[split]);
+         next = split + 1;
+      } 
+      else {
+         split = -split - 1;
+         next = split;
+      }
+      // a batch only adds, so unchanged sizes mean unchanged subtrees
+      int childSizes = size(node.getLeftChild()) + size(node.getRightChild());
+      BinaryNode<T> left = this.addBatch(node.getLeftChild(), items, from,
+         split, duplicates);
+      BinaryNode<T> right = this.addBatch(node.getRightChild(), items, next,
+         to, duplicates);
+      if (size(left) + size(right) == childSizes) {
+         return node;
+      }
+      return this.join(left, this.writable(node), right);
+   }
+
+  /**
+   * Removes the keys of a sorted range of distinct items from a subtree.
+   * 
+   * @param node The root of the subtree, may be null
+   * @param items The sorted items
+   * @param from The first item of the range
+   * @param to One past the last item of the range
+   * @param missing Gets the items whose key is not in the subtree
+   * @return the new root of the subtree
+   */
+   private BinaryNode<T> removeBatch(BinaryNode<T> node, T[] items, int from,
+         int to, List<T> missing) {
+      if (from >= to) {
+         return node;
+      }
+      if (node == null) {
+         for (int i = from; i < to; i++) {
+            missing.add(items[i]);
+         }
+         return null;
+      }
+      int split = Arrays.binarySearch(items, from, to, node.getData());
+      boolean found = split >= 0;
+      int next = found ? split + 1 : -split - 1;
+      split = found ? split : next;
+      int childSizes = size(node.getLeftChild()) + size(node.getRightChild());
+      BinaryNode<T> left = this.removeBatch(node.getLeftChild(), items, from,
+         split, missing);
+      BinaryNode<T> right = this.removeBatch(node.getRightChild(), items,
+         next, to, missing);
+      if (found) {
+         return this.join(left, right);
+      }
+      if (size(left) + size(right) == childSizes) {
+         return node;
+      }
+      return this.join(left, this.writable(node), right);
+   }
+
+  /**
+   * Joins two subtrees and a middle node whose key lies between them.
+   * In a balanced tree the shorter subtree is hung at the right height
+   * along the spine of the taller one and the spine is rebalanced, which
+   * takes O(difference in heights).
+   * 
+   * @param left The subtree with the smaller keys, may be null
+   * @param middle A node that may be changed, its children are replaced
+   * @param right The subtree with the larger keys, may be null
+   * @return the root of the joined tree
+   */
+   private BinaryNode<T> join(BinaryNode<T> left, BinaryNode<T> middle,
+         BinaryNode<T> right) {
+      int difference = height(left) - height(right);
+      if (!balanced || Math.abs(difference) <= 1) {
+         middle.setLeftChild(left);
+         middle.setRightChild(right);
+         update(middle);
+         return middle;
+      }
+      if (difference > 0) {
+         BinaryNode<T> spine = this.writable(left);
+         spine.setRightChild(this.join(left.getRightChild(), middle, right));
+         return this.rebalance(spine);
+      }
+      BinaryNode<T> spine = this.writable(right);
+      spine.setLeftChild(this.join(left, middle, right.getLeftChild()));
+      return this.rebalance(spine);
+   }
+
+  /**
+   * Joins two subtrees, all keys of the first below those of the second,
+   * using the smallest node of the second as the middle.
+   * 
+   * @param left The subtree with the smaller keys, may be null
+   * @param right The subtree with the larger keys, may be null
+   * @return the root of the joined tree
+   */
+   private BinaryNode<T> join(BinaryNode<T> left, BinaryNode<T> right) {
+      if (right == null) {
+         return left;
+      }
+      BinaryNode<T> smallest = right;
+      while (smallest.getLeftChild() != null) {
+         smallest = smallest.getLeftChild();
+      }
+      return this.join(left, new BinaryNode<T>(smallest.getData(), null, null),
+         this.removeSmallest(right));
+   }
+
+  /**
+   * Takes the smallest node out of a subtree, rebalancing on the way up.
+   * 
+   * @param node The root of the subtree
+   * @return the new root of the subtree
+   */
+   private BinaryNode<T> removeSmallest(BinaryNode<T> node) {
+      if (node.getLeftChild() == null) {
+         return node.getRightChild();
+      }
+      BinaryNode<T> copy = this.writable(node);
+      copy.setLeftChild(this.removeSmallest(node.getLeftChild()));
+      return this.rebalance(copy);
+   }
+
+  /**
+   * Moves every item at or above a key out of this tree into a new one.
+   * Takes O(log n) in a balanced tree: the search path is cut in two and
+   * each side is joined back together.
+   * 
+   * @param key The smallest key to move
+   * @return a new tree, with the same options, holding the moved items
+   */
+   public BinarySearchTree<T> split(T key) {
+      this.checkWritable();
+      BinarySearchTree<T> upper = new BinarySearchTree<T>(balanced, persistent);
+      upper.parallelThreshold = parallelThreshold;
+      if (height(root) > MAX_BATCH_DEPTH) {
+         ArrayList<T> moved = new ArrayList<T>(this.tailSet(key, true));
+         this.removeBatch(moved);
+         upper.addAll(moved);
+         return upper;
+      }
+      Parts<T> parts = this.split(root, key);
+      root = parts.left;
+      upper.root = parts.middle == null ? parts.right
+         : this.join(null, this.writable(parts.middle), parts.right);
+      modCount++;
+      this.bloomRemoved(upper.size());
+      return upper;
+   }
+
+  /**
+   * Moves every item of another tree, all of them greater than the items
+   * of this one, to the end of this tree, leaving the other tree empty.
+   * Takes O(log n) for two balanced trees.
+   * 
+   * @param other The tree to append
+   * @throws IllegalArgumentException if other's items do not all come
+   *         after this tree's items
+   */
+   public void join(BinarySearchTree<T> other) {
+      this.checkWritable();
+      other.checkWritable();
+      if (other.root == null) {
+         return;
+      }
+      if (other == this || (root != null
+            && this.last().compareTo(other.first()) >= 0)) {
+         throw new IllegalArgumentException(
+            "Items to join must all be greater than this tree's items");
+      }
+      BinaryNode<T> moved = other.root;
+      if (height(root) > MAX_BATCH_DEPTH || height(moved) > MAX_BATCH_DEPTH) {
+         this.addAll(other.items());
+      } 
+      else {
+         // nodes another tree may still share, or out of AVL shape, are copied
+         if ((other.persistent && !persistent) || (balanced && !other.balanced)) {
+            moved = copyOf(moved);
+         }
+         root = this.join(root, moved);
+         modCount++;
+         for (T item : other) {
+            this.bloomAdded(item);
+         }
+      }
+      other.root = null;
+      other.modCount++;
+      other.rebuildBloom();
+   }
+
+  /**
+   * Adds every item of another tree that is not in this one, leaving the
+   * other tree unchanged. Items in both keep this tree's copy. Takes
+   * O(m log(n/m + 1)) for balanced trees of sizes m and n, m <= n, and
+   * runs in parallel on the common ForkJoinPool for large trees.
+   * 
+   * @param other The tree whose items to add
+   */
+   public void union(BinarySearchTree<T> other) {
+      this.combine(UNION, other);
+   }
+
+  /**
+   * Keeps only the items whose key is also in another tree, leaving the
+   * other tree unchanged. Same cost as union.
+   * 
+   * @param other The tree whose keys to keep
+   */
+   public void intersection(BinarySearchTree<T> other) {
+      this.combine(INTERSECTION, other);
+   }
+
+  /**
+   * Removes every item whose key is in another tree, leaving the other
+   * tree unchanged. Same cost as union.
+   * 
+   * @param other The tree whose keys to remove
+   */
+   public void difference(BinarySearchTree<T> other) {
+      this.combine(DIFFERENCE, other);
+   }
+
+  /**
+   * Runs a set operation with another tree, see union.
+   * 
+   * @param op UNION, INTERSECTION or DIFFERENCE
+   * @param other The other tree
+   */
+   private void combine(int op, BinarySearchTree<T> other) {
+      this.checkWritable();
+      if (other == this) {
+         if (op == DIFFERENCE) {
+            this.removeBatch(this.items());
+         }
+         return;
+      }
+      if (height(root) > MAX_BATCH_DEPTH
+            || height(other.root) > MAX_BATCH_DEPTH) {
+         // too deep to recurse, use the batch operations instead
+         if (op == UNION) {
+            this.addBatch(other.items());
+         } 
+         else if (op == DIFFERENCE) {
+            this.removeBatch(other.items());
+         } 
+         else {
+            ArrayList<T> dropped = new ArrayList<T>();
+            for (T item : this) {
+               if (!other.contains(item)) {
+                  dropped.add(item);
+               }
+            }
+            this.removeBatch(dropped);
+         }
+         return;
+      }
+      int before = this.size();
+      if (size(root) + size(other.root) > parallelThreshold) {
+         root = ForkJoinPool.commonPool().invoke(
+            new SetTask(op, root, other.root));
+      } 
+      else {
+         root = this.combine(op, root, other.root);
+      }
+      modCount++;
+      if (op == UNION) {
+         for (T item : other) {
+            this.bloomAdded(item);
+         }
+      } 
+      else {
+         this.bloomRemoved(before - this.size());
+      }
+   }
+
+  /**
+   * Set operation on two subtrees: the first, from this tree, is split
+   * at the root key of the second, which is only read, and the halves
+   * are combined with the matching children and joined back together.
+   * Above the threshold the left halves are combined in another task.
+   * 
+   * @param op UNION, INTERSECTION or DIFFERENCE
+   * @param mine A subtree of this tree, may be changed
+   * @param theirs A subtree of the other tree
+   * @return the root of the combined subtree
+   */
+   private BinaryNode<T> combine(int op, BinaryNode<T> mine,
+         BinaryNode<T> theirs) {
+      if (theirs == null) {
+         return op == INTERSECTION ? null : mine;
+      }
+      if (mine == null) {
+         return op == UNION ? copyOf(theirs) : null;
+      }
+      boolean fork = size(mine) + size(theirs) > parallelThreshold;
+      Parts<T> parts = this.split(mine, theirs.getData());
+      BinaryNode<T> left;
+      BinaryNode<T> right;
+      if (fork) {
+         SetTask task = new SetTask(op, parts.left, theirs.getLeftChild());
+         task.fork();
+         right = this.combine(op, parts.right, theirs.getRightChild());
+         left = task.join();
+      } 
+      else {
+         left = this.combine(op, parts.left, theirs.getLeftChild());
+         right = this.combine(op, parts.right, theirs.getRightChild());
+      }
+      BinaryNode<T> middle = null;
+      if (parts.middle != null && op != DIFFERENCE) {
+         middle = this.writable(parts.middle);
+      } 
+      else if (op == UNION) {
+         middle = new BinaryNode<T>(theirs.getData(), null, null);
+      }
+      return middle == null ? this.join(left, right)
+         : this.join(left, middle, right);
+   }
+
+  /**
+   * Cuts a subtree at a key into the part below it, the node holding it
+   * if any, and the part above it. Both parts are joined back together
+   * along the search path, so the cost is O(height).
+   * 
+   * @param node The root of the subtree, may be null
+   * @param key The key to cut at
+   * @return the parts, middle is null if the key is not in the subtree
+   */
+   private Parts<T> split(BinaryNode<T> node, T key) {
+      if (node == null) {
+         return new Parts<T>();
+      }
+      int comparison = key.compareTo(node.getData());
+      if (comparison == 0) {
+         Parts<T> parts = new Parts<T>();
+         parts.left = node.getLeftChild();
+         parts.middle = node;
+         parts.right = node.getRightChild();
+         return parts;
+      }
+      if (comparison < 0) {
+         Parts<T> parts = this.split(node.getLeftChild(), key);
+         parts.right = this.join(parts.right, this.writable(node),
+            node.getRightChild());
+         return parts;
+      }
+      Parts<T> parts = this.split(node.getRightChild(), key);
+      parts.left = this.join(node.getLeftChild(), this.writable(node),
+         parts.left);
+      return parts;
+   }
+
+  /**
+   * Copies a subtree into new nodes of minimum height.
+   * 
+   * @param node The root of the subtree
+   * @return the root of the copy
+   */
+   private static <T extends Comparable<T>> BinaryNode<T> copyOf(
+         BinaryNode<T> node) {
+      T[] items = newArray(size(node));
+      int count = 0;
+      // in-order walk with an explicit stack, bounded by the height
+      ArrayList<BinaryNode<T>> stack = new ArrayList<BinaryNode<T>>();
+      BinaryNode<T> next = node;
+      while (next != null || !stack.isEmpty()) {
+         while (next != null) {
+            stack.add(next);
+            next = next.getLeftChild();
+         }
+         BinaryNode<T> top = stack.remove(stack.size() - 1);
+         items[count++] = top.getData();
+         next = top.getRightChild();
+      }
+      return buildBalanced(items, 0, count);
+   }
+
+  /**
+   * The items of this tree in ascending order.
+   * 
+   * @return a new list of the items
+   */
+   private ArrayList<T> items() {
+      ArrayList<T> items = new ArrayList<T>(this.size());
+      for (T item : this) {
+         items.add(item);
+      }
+      return items;
+   }
+
+  /**
+   * The result of cutting a subtree at a key.
+   * 
+   * @param <T> the type of items held in tree.
+   */
+   private static final class Parts<T> {
+     /** The part below the key. */
+      private BinaryNode<T> left;
+     /** The node holding the key, or null. */
+      private BinaryNode<T> middle;
+     /** The part above the key. */
+      private BinaryNode<T> right;
+   }
+
+  /**
+   * called automatically by println/print method.
+   * 
+   * @return an inorder String of the tree
+   */
+   public String toString() {
+      return this.display(this.iterator());
+   }
+
+  /**
+   * Joins the items of a traversal, with a comma after each item.
+   * 
+   * @param items The traversal to display
+   * @return a String of the items in traversal order
+   */
+   private String display(Iterator<T> items) {
+      StringBuilder displayNodes = new StringBuilder();
+      while (items.hasNext()) {
+         displayNodes.append(items.next()).append(", ");
+      }
+      return displayNodes.toString();
+   }
+
+  /**
+   * Pre-Order traversal of tree.
+   * 
+   * @return String representation of preOrder
+   */
+   public String preOrder() {
+      return this.display(this.preOrderIterator());
+   }
+
+  /**
+   * Post-Order traversal of tree.
+   * 
+   * @return a postOrder String of the tree
+   */
+   public String postOrder() {
+      return this.display(this.postOrderIterator());
+   }
+
+  /**
+   * Number of items in the tree, kept in the root node.
+   * 
+   * @return the item count
+   */
+   public int size() {
+      return size(root);
+   }
+
+  /**
+   * Position a key has, or would have, in ascending order: the number
+   * of items in the tree smaller than the key. Takes O(log n).
+   * 
+   * @param searchKey An object containing the search key
+   * @return the number of items less than the key
+   */
+   public int rank(T searchKey) {
+      return this.countBelow(searchKey, false);
+   }
+
+  /**
+   * The k-th smallest item, counting from 0. Takes O(log n).
+   * 
+   * @param index The position of the item in ascending order
+   * @return the item at that position
+   * @throws TreeException if index is negative or not below size()
+   */
+   public T select(int index) {
+      if (index < 0 || index >= this.size()) {
+         throw new TreeException("Index out of range: " + index);
+      }
+      BinaryNode<T> node = root;
+      while (true) {
+         int leftSize = size(node.getLeftChild());
+         if (index == leftSize) {
+            return node.getData();
+         }
+         // skip the left subtree and this node when going right
+         if (index < leftSize) {
+            node = node.getLeftChild();
+         } 
+         else {
+            index -= leftSize + 1;
+            node = node.getRightChild();
+         }
+      }
+   }
+
+  /**
+   * Number of items from low to high, both included. Takes O(log n).
+   * 
+   * @param low The smallest key to count
+   * @param high The largest key to count
+   * @return the number of items in the range, 0 if low is above high
+   */
+   public int countInRange(T low, T high) {
+      if (low.compareTo(high) > 0) {
+         return 0;
+      }
+      return this.countBelow(high, true) - this.countBelow(low, false);
+   }
+
+  /**
+   * Counts the items below a key with one walk down the tree, adding up
+   * the left subtree sizes wherever the walk turns right.
+   * 
+   * @param searchKey An object containing the search key
+   * @param inclusive true to count an item equal to the key too
+   * @return the number of items less than (or equal to) the key
+   */
+   int countBelow(T searchKey, boolean inclusive) {
+      int count = 0;
+      BinaryNode<T> node = root;
+      while (node != null) {
+         int comparison = searchKey.compareTo(node.getData());
+         if (comparison == 0) {
+            return count + size(node.getLeftChild()) + (inclusive ? 1 : 0);
+         }
+         if (comparison < 0) {
+            node = node.getLeftChild();
+         } 
+         else {
+            count += size(node.getLeftChild()) + 1;
+            node = node.getRightChild();
+         }
+      }
+      return count;
+   }
+
+  /**
+   * The smallest item in the tree.
+   * 
+   * @return the first item in ascending order
+   * @throws NoSuchElementException if the tree is empty
+   */
+   public T first() {
+      if (root == null) {
+         throw new NoSuchElementException();
+      }
+      BinaryNode<T> node = root;
+      while (node.getLeftChild() != null) {
+         node = node.getLeftChild();
+      }
+      return node.getData();
+   }
+
+  /**
+   * The largest item in the tree.
+   * 
+   * @return the last item in ascending order
+   * @throws NoSuchElementException if the tree is empty
+   */
+   public T last() {
+      if (root == null) {
+         throw new NoSuchElementException();
+      }
+      return this.getItemWithLargestSearchKey(root);
+   }
+
+  /**
+   * The largest item less than or equal to a key.
+   * 
+   * @param searchKey An object containing the search key
+   * @return the matching item, or null if there is none
+   */
+   public T floor(T searchKey) {
+      return this.nearest(searchKey, true, true);
+   }
+
+  /**
+   * The smallest item greater than or equal to a key.
+   * 
+   * @param searchKey An object containing the search key
+   * @return the matching item, or null if there is none
+   */
+   public T ceiling(T searchKey) {
+      return this.nearest(searchKey, false, true);
+   }
+
+  /**
+   * The largest item strictly less than a key.
+   * 
+   * @param searchKey An object containing the search key
+   * @return the matching item, or null if there is none
+   */
+   public T lower(T searchKey) {
+      return this.nearest(searchKey, true, false);
+   }
+
+  /**
+   * The smallest item strictly greater than a key.
+   * 
+   * @param searchKey An object containing the search key
+   * @return the matching item, or null if there is none
+   */
+   public T higher(T searchKey) {
+      return this.nearest(searchKey, false, false);
+   }
+
+  /**
+   * Finds the closest item on one side of a key with one walk down,
+   * remembering the last node where the walk turned away from that side.
+   * 
+   * @param searchKey An object containing the search key
+   * @param below true to look below the key, false to look above it
+   * @param inclusive true if an item equal to the key matches
+   * @return the closest item, or null if there is none
+   */
+   private T nearest(T searchKey, boolean below, boolean inclusive) {
+      T best = null;
+      BinaryNode<T> node = root;
+      while (node != null) {
+         int comparison = searchKey.compareTo(node.getData());
+         if (comparison == 0 && inclusive) {
+            return node.getData();
+         }
+         if (below ? comparison > 0 : comparison >= 0) {
+            if (below) {
+               best = node.getData();
+            }
+            node = node.getRightChild();
+         } 
+         else {
+            if (!below) {
+               best = node.getData();
+            }
+            node = node.getLeftChild();
+         }
+      }
+      return best;
+   }
+
+  /**
+   * A java.util.NavigableSet view of the tree, so it can stand in for a
+   * TreeSet. Changes go straight through to the tree; add returns false
+   * for a duplicate instead of throwing.
+   * 
+   * @return a live set view of the whole tree
+   */
+   public NavigableSet<T> asNavigableSet() {
+      return new NavigableTreeSet<T>(this, null, false, null, false, false);
+   }
+
+  /**
+   * Lazy view of the items between two keys. Iterating it costs
+   * O(log n + k) for k items, subtrees outside the range are skipped.
+   * 
+   * @param fromKey The low end of the range
+   * @param fromInclusive true if fromKey itself is in the range
+   * @param toKey The high end of the range
+   * @param toInclusive true if toKey itself is in the range
+   * @return a live set view of the range
+   */
+   public NavigableSet<T> subSet(T fromKey, boolean fromInclusive, T toKey,
+         boolean toInclusive) {
+      return this.asNavigableSet().subSet(fromKey, fromInclusive,
+         toKey, toInclusive);
+   }
+
+  /**
+   * Lazy view of the items below a key.
+   * 
+   * @param toKey The high end of the range
+   * @param inclusive true if toKey itself is in the range
+   * @return a live set view of the range
+   */
+   public NavigableSet<T> headSet(T toKey, boolean inclusive) {
+      return this.asNavigableSet().headSet(toKey, inclusive);
+   }
+
+  /**
+   * Lazy view of the items above a key.
+   * 
+   * @param fromKey The low end of the range
+   * @param inclusive true if fromKey itself is in the range
+   * @return a live set view of the range
+   */
+   public NavigableSet<T> tailSet(T fromKey, boolean inclusive) {
+      return this.asNavigableSet().tailSet(fromKey, inclusive);
+   }
+
+  /**
+   * Iterator over the items between two optional bounds, in ascending or
+   * descending order. Only the nodes on the boundary paths and the
+   * items in range are visited. Its remove method removes from the tree.
+   * 
+   * @param low The low bound, or null for none
+   * @param lowInclusive true if an item equal to low is in range
+   * @param high The high bound, or null for none
+   * @param highInclusive true if an item equal to high is in range
+   * @param descending true to go from high to low
+   * @return an iterator over the range
+   */
+   Iterator<T> rangeIterator(T low, boolean lowInclusive, T high,
+         boolean highInclusive, boolean descending) {
+      return new RangeIterator(low, lowInclusive, high, highInclusive,
+         descending);
+   }
+
+  /**
+   * In-order iterator, items come out in ascending key order.
+   * 
+   * @return an iterator over the items in the tree
+   */
+   @Override
+   public Iterator<T> iterator() {
+      return new InOrderIterator(root);
+   }
+
+  /**
+   * Pre-order iterator, each node comes before its subtrees.
+   * 
+   * @return an iterator over the items in pre-order
+   */
+   public Iterator<T> preOrderIterator() {
+      return new PreOrderIterator(root);
+   }
+
+  /**
+   * Iterator over the items in descending key order.
+   * 
+   * @return an iterator from the largest item to the smallest
+   */
+   public Iterator<T> descendingIterator() {
+      return new RangeIterator(null, false, null, false, true);
+   }
+
+  /**
+   * Post-order iterator, each node comes after its subtrees.
+   * 
+   * @return an iterator over the items in post-order
+   */
+   public Iterator<T> postOrderIterator() {
+      return new PostOrderIterator(root);
+   }
+
+  /**
+   * Spliterator over the items in ascending key order.
+   * Splits hand the left part of a subtree to the new spliterator.
+   * 
+   * @return a sized, sorted, ordered spliterator
+   */
+   @Override
+   public Spliterator<T> spliterator() {
+      return new TreeSpliterator(null, false, root);
+   }
+
+  /**
+   * Sequential stream of the items in ascending key order.
+   * 
+   * @return a stream over the tree
+   */
+   public Stream<T> stream() {
+      return StreamSupport.stream(this.spliterator(), false);
+   }
+
+  /**
+   * Parallel stream of the items, split at subtree roots.
+   * 
+   * @return a parallel stream over the tree
+   */
+   public Stream<T> parallelStream() {
+      return StreamSupport.stream(this.spliterator(), true);
+   }
+
+  /**
+   * Subtree size below which the parallel operations stop forking.
+   * 
+   * @return the sequential cutoff
+   */
+   public int getParallelThreshold() {
+      return parallelThreshold;
+   }
+
+  /**
+   * Sets the subtree size below which the parallel operations stop forking.
+   * 
+   * @param threshold The sequential cutoff, at least 1
+   */
+   public void setParallelThreshold(int threshold) {
+      if (threshold < 1) {
+         throw new IllegalArgumentException("Threshold must be positive");
+      }
+      parallelThreshold = threshold;
+   }
+
+  /**
+   * Performs an action on every item in parallel on the common ForkJoinPool.
+   * Items are visited in no particular order, the action must be thread-safe.
+   * 
+   * @param action The action to perform on each item
+   */
+   public void parallelForEach(Consumer<? super T> action) {
+      if (root != null) {
+         ForkJoinPool.commonPool().invoke(new ForEachTask(root, action));
+      }
+   }
+
+  /**
+   * Reduces the items in parallel on the common ForkJoinPool, combining
+   * partial results in key order like Stream.reduce.
+   * 
+   * @param <R> the type of the result
+   * @param identity The identity value for the combiner
+   * @param accumulator Folds one item into a partial result
+   * @param combiner Combines two partial results, left one first
+   * @return the reduced value
+   */
+   public <R> R parallelReduce(R identity,
+         BiFunction<R, ? super T, R> accumulator, BinaryOperator<R> combiner) {
+      return ForkJoinPool.commonPool().invoke(
+         new FoldTask<R>(root, () -> identity, accumulator, combiner));
+   }
+
+  /**
+   * Collects the items in parallel into mutable containers, merging them
+   * in key order like Stream.collect.
+   * 
+   * @param <R> the type of the container
+   * @param supplier Makes a new empty container
+   * @param accumulator Adds one item to a container
+   * @param combiner Adds the contents of the right container to the left
+   * @return the container holding every item
+   */
+   public <R> R parallelCollect(Supplier<R> supplier,
+         BiConsumer<R, ? super T> accumulator, BiConsumer<R, R> combiner) {
+      return ForkJoinPool.commonPool().invoke(new FoldTask<R>(root, supplier,
+         (result, item) -> {
+            accumulator.accept(result, item);
+            return result;
+         },
+         (left, right) -> {
+            combiner.accept(left, right);
+            return left;
+         }));
+   }
+
+  /**
+   * Tells whether a subtree is small enough to process on one thread.
+   * 
+   * @param node The root of the tree/subtree
+   * @return true if the subtree is below the parallel threshold
+   */
+   private boolean belowThreshold(BinaryNode<T> node) {
+      return size(node) <= parallelThreshold;
+   }
+
+  /**
+   * Fork-join task running a set operation on two subtrees.
+   */
+   private final class SetTask extends RecursiveTask<BinaryNode<T>> {
+      private static final long serialVersionUID = 1L;
+     /** UNION, INTERSECTION or DIFFERENCE. */
+      private final int op;
+     /** The subtree of this tree. */
+      private final BinaryNode<T> mine;
+     /** The subtree of the other tree. */
+      private final BinaryNode<T> theirs;
+
+     /**
+      * Task for one pair of subtrees.
+      * 
+      * @param op UNION, INTERSECTION or DIFFERENCE
+      * @param mine The subtree of this tree
+      * @param theirs The subtree of the other tree
+      */
+      SetTask(int op, BinaryNode<T> mine, BinaryNode<T> theirs) {
+         this.op = op;
+         this.mine = mine;
+         this.theirs = theirs;
+      }
+
+      @Override
+      protected BinaryNode<T> compute() {
+         return combine(op, mine, theirs);
+      }
    }
 
   /**
-   * Adds an item to the tree.
-   * Non-recursive wrapper method
-   * 
-   * @param item The object to be added
+   * Fork-join task applying an action to a subtree.
+   * It walks down the right spine, forking the left subtrees that are
+   * above the threshold, so the task depth stays small on skewed trees.
    */
-   public void add(T item) {
-   // calls a recursive, private method
-   // cannot get direct access to the root outside the class
-      root = add(root, item);
+   private final class ForEachTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+     /** The root of the subtree to visit. */
+      private final BinaryNode<T> start;
+     /** The action to perform on each item. */
+      private final Consumer<? super T> action;
+
+     /**
+      * Task for one subtree.
+      * 
+      * @param start The root of the tree/subtree
+      * @param action The action to perform on each item
+      */
+      ForEachTask(BinaryNode<T> start, Consumer<? super T> action) {
+         this.start = start;
+         this.action = action;
+      }
+
+      @Override
+      protected void compute() {
+         ArrayList<ForEachTask> forks = new ArrayList<>();
+         BinaryNode<T> node = start;
+         while (node != null && !belowThreshold(node)) {
+            if (node.getLeftChild() != null) {
+               ForEachTask left = new ForEachTask(node.getLeftChild(), action);
+               left.fork();
+               forks.add(left);
+            }
+            action.accept(node.getData());
+            node = node.getRightChild();
+         }
+         Iterator<T> rest = new InOrderIterator(node);
+         while (rest.hasNext()) {
+            action.accept(rest.next());
+         }
+         for (int i = forks.size() - 1; i >= 0; i--) {
+            forks.get(i).join();
+         }
+      }
    }
-  
+
   /**
-   * Recusively adds an item to the tree.
+   * Fork-join task folding a subtree into a partial result.
+   * Like ForEachTask it forks the left subtrees along the right spine,
+   * then combines the pieces back in key order.
    * 
-   * @param node The root of the tree/subtree
-   * @param item The object to be added
-   * @return The current node
+   * @param <R> the type of the result
    */
-   private BinaryNode<T> add(BinaryNode<T> node, T item) {
-   // base case: empty tree or end of a leaf
-      if (node == null) {
-         return new BinaryNode<T>(item, null, null);
-      }
-      // base case: duplicate node, so throw exception
-      else if (item.compareTo(node.getData()) == 0) {
-         throw new TreeException("No duplicate items are allowed!");
-      }
-      // recursive case: if item is less than current node
-      // then move to left child node
-      else if (item.compareTo(node.getData()) < 0) {
-      // set the node's left child to the
-      // left subtree with item added
-         node.setLeftChild(this.add(node.getLeftChild(), item));
-         return node;
+   private final class FoldTask<R> extends RecursiveTask<R> {
+      private static final long serialVersionUID = 1L;
+     /** The root of the subtree to fold. */
+      private final BinaryNode<T> start;
+     /** Makes the starting value of a partial result. */
+      private final Supplier<R> supplier;
+     /** Folds one item into a partial result. */
+      private final BiFunction<R, ? super T, R> accumulator;
+     /** Combines two partial results, left one first. */
+      private final BinaryOperator<R> combiner;
+
+     /**
+      * Task for one subtree.
+      * 
+      * @param start The root of the tree/subtree
+      * @param supplier Makes the starting value of a partial result
+      * @param accumulator Folds one item into a partial result
+      * @param combiner Combines two partial results, left one first
+      */
+      FoldTask(BinaryNode<T> start, Supplier<R> supplier,
+            BiFunction<R, ? super T, R> accumulator, BinaryOperator<R> combiner) {
+         this.start = start;
+         this.supplier = supplier;
+         this.accumulator = accumulator;
+         this.combiner = combiner;
       }
-      // recursive case: if item is greater than current node
-      // then traverse to right child node
-      else {
-      // set the node's right child to the
-      // right subtree with item added
-         node.setRightChild(this.add(node.getRightChild(), item));
-         return node;
+
+      @Override
+      protected R compute() {
+         ArrayList<FoldTask<R>> forks = new ArrayList<>();
+         ArrayList<T> items = new ArrayList<>();
+         BinaryNode<T> node = start;
+         while (node != null && !belowThreshold(node)) {
+            FoldTask<R> left = new FoldTask<R>(node.getLeftChild(), supplier,
+               accumulator, combiner);
+            left.fork();
+            forks.add(left);
+            items.add(node.getData());
+            node = node.getRightChild();
+         }
+         R result = supplier.get();
+         Iterator<T> rest = new InOrderIterator(node);
+         while (rest.hasNext()) {
+            result = accumulator.apply(result, rest.next());
+         }
+         // rebuild left part, item, right part from the bottom up
+         for (int i = forks.size() - 1; i >= 0; i--) {
+            R left = accumulator.apply(forks.get(i).join(), items.get(i));
+            result = combiner.apply(left, result);
+         }
+         return result;
       }
    }
 
   /**
-   * called automatically by println/print method.
+   * Base for the traversal iterators, holds the explicit node stack.
+   * The stack never needs more slots than the height of the tree.
+   */
+   private abstract class TreeIterator implements Iterator<T> {
+     /** Nodes still to be visited or expanded, top at stack[top - 1]. */
+      protected final BinaryNode<T>[] stack;
+     /** Number of nodes on the stack. */
+      protected int top = 0;
+     /** modCount when the iterator was made, to detect changes. */
+      protected int expectedModCount = modCount;
+
+     /**
+      * Makes a stack big enough for a traversal of a subtree.
+      * 
+      * @param start The root of the tree/subtree to traverse
+      */
+      TreeIterator(BinaryNode<T> start) {
+         stack = newPath(start);
+      }
+
+      @Override
+      public boolean hasNext() {
+         return top > 0;
+      }
+
+     /**
+      * Pops the next node, failing if the tree was changed meanwhile.
+      * 
+      * @return the node on top of the stack
+      */
+      protected BinaryNode<T> pop() {
+         if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+         }
+         if (top == 0) {
+            throw new NoSuchElementException();
+         }
+         return stack[--top];
+      }
+   }
+
+  /** In-order: stack holds the nodes whose left subtree is being visited. */
+   private class InOrderIterator extends TreeIterator {
+     /**
+      * Starts at the smallest item.
+      * 
+      * @param start The root of the tree/subtree to traverse
+      */
+      InOrderIterator(BinaryNode<T> start) {
+         super(start);
+         this.pushLeft(start);
+      }
+
+     /**
+      * Pushes a node and its chain of left children.
+      * 
+      * @param node The root of the subtree to visit next
+      */
+      private void pushLeft(BinaryNode<T> node) {
+         while (node != null) {
+            stack[top++] = node;
+            node = node.getLeftChild();
+         }
+      }
+
+      @Override
+      public T next() {
+         BinaryNode<T> node = this.pop();
+         this.pushLeft(node.getRightChild());
+         return node.getData();
+      }
+   }
+
+  /** Pre-order: stack holds the roots of subtrees not yet visited. */
+   private class PreOrderIterator extends TreeIterator {
+     /**
+      * Starts at the root.
+      * 
+      * @param start The root of the tree/subtree to traverse
+      */
+      PreOrderIterator(BinaryNode<T> start) {
+         super(start);
+         if (start != null) {
+            stack[top++] = start;
+         }
+      }
+
+      @Override
+      public T next() {
+         BinaryNode<T> node = this.pop();
+         // push right first so the left subtree comes out first
+         if (node.getRightChild() != null) {
+            stack[top++] = node.getRightChild();
+         }
+         if (node.getLeftChild() != null) {
+            stack[top++] = node.getLeftChild();
+         }
+         return node.getData();
+      }
+   }
+
+  /** Post-order: stack holds the path from the root to the next node. */
+   private class PostOrderIterator extends TreeIterator {
+     /**
+      * Starts at the first leaf.
+      * 
+      * @param start The root of the tree/subtree to traverse
+      */
+      PostOrderIterator(BinaryNode<T> start) {
+         super(start);
+         this.pushToLeaf(start);
+      }
+
+     /**
+      * Pushes the path to the first leaf of a subtree in post-order,
+      * preferring left children over right ones.
+      * 
+      * @param node The root of the subtree to visit next
+      */
+      private void pushToLeaf(BinaryNode<T> node) {
+         while (node != null) {
+            stack[top++] = node;
+            node = node.getLeftChild() != null
+               ? node.getLeftChild() : node.getRightChild();
+         }
+      }
+
+      @Override
+      public T next() {
+         BinaryNode<T> node = this.pop();
+         // coming up from a left child, the right subtree is next
+         if (top > 0 && stack[top - 1].getLeftChild() == node) {
+            this.pushToLeaf(stack[top - 1].getRightChild());
+         }
+         return node.getData();
+      }
+   }
+
+  /**
+   * In-order (or reverse in-order) iterator between optional bounds.
+   * The stack holds the nodes whose near subtree is being visited, and
+   * subtrees wholly outside the bounds are never pushed.
+   */
+   private class RangeIterator extends TreeIterator {
+     /** The low bound, or null for none. */
+      private T low;
+     /** True if an item equal to low is in range. */
+      private boolean lowInclusive;
+     /** The high bound, or null for none. */
+      private T high;
+     /** True if an item equal to high is in range. */
+      private boolean highInclusive;
+     /** True to go from high to low. */
+      private final boolean descending;
+     /** Item returned by the last call to next, for remove. */
+      private T lastReturned = null;
+
+     /**
+      * Starts at the first item in range.
+      * 
+      * @param low The low bound, or null for none
+      * @param lowInclusive true if an item equal to low is in range
+      * @param high The high bound, or null for none
+      * @param highInclusive true if an item equal to high is in range
+      * @param descending true to go from high to low
+      */
+      RangeIterator(T low, boolean lowInclusive, T high,
+            boolean highInclusive, boolean descending) {
+         super(root);
+         this.low = low;
+         this.lowInclusive = lowInclusive;
+         this.high = high;
+         this.highInclusive = highInclusive;
+         this.descending = descending;
+         this.seek(root);
+      }
+
+     /**
+      * Tells whether an item lies before the low bound.
+      * 
+      * @param item The item to check
+      * @return true if the item is below the range
+      */
+      private boolean tooLow(T item) {
+         if (low == null) {
+            return false;
+         }
+         int comparison = item.compareTo(low);
+         return comparison < 0 || (comparison == 0 && !lowInclusive);
+      }
+
+     /**
+      * Tells whether an item lies past the high bound.
+      * 
+      * @param item The item to check
+      * @return true if the item is above the range
+      */
+      private boolean tooHigh(T item) {
+         if (high == null) {
+            return false;
+         }
+         int comparison = item.compareTo(high);
+         return comparison > 0 || (comparison == 0 && !highInclusive);
+      }
+
+     /**
+      * Pushes the chain of nodes towards the first item of a subtree,
+      * stepping over nodes on the wrong side of the starting bound.
+      * 
+      * @param node The root of the subtree to visit next
+      */
+      private void seek(BinaryNode<T> node) {
+         while (node != null) {
+            if (descending ? this.tooHigh(node.getData())
+                  : this.tooLow(node.getData())) {
+               node = descending ? node.getLeftChild() : node.getRightChild();
+            } 
+            else {
+               stack[top++] = node;
+               node = descending ? node.getRightChild() : node.getLeftChild();
+            }
+         }
+      }
+
+      @Override
+      public boolean hasNext() {
+         return top > 0 && !(descending ? this.tooLow(stack[top - 1].getData())
+            : this.tooHigh(stack[top - 1].getData()));
+      }
+
+      @Override
+      public T next() {
+         if (!this.hasNext()) {
+            throw new NoSuchElementException();
+         }
+         BinaryNode<T> node = this.pop();
+         this.seek(descending ? node.getLeftChild() : node.getRightChild());
+         lastReturned = node.getData();
+         return lastReturned;
+      }
+
+     /**
+      * Removes the last item returned from the tree, then finds the
+      * place after it again since removal can restructure the tree.
+      */
+      @Override
+      public void remove() {
+         if (lastReturned == null) {
+            throw new IllegalStateException();
+         }
+         BinarySearchTree.this.remove(lastReturned);
+         expectedModCount = modCount;
+         if (descending) {
+            high = lastReturned;
+            highInclusive = false;
+         } 
+         else {
+            low = lastReturned;
+            lowInclusive = false;
+         }
+         lastReturned = null;
+         top = 0;
+         this.seek(root);
+      }
+   }
+
+  /**
+   * In-order spliterator over a subtree, optionally preceded by one item.
+   * Until the first item is taken it splits by giving away the item and
+   * the left subtree, keeping the subtree root and its right subtree.
+   * Subtree sizes make every estimate exact, so it is SIZED and SUBSIZED.
+   */
+   private final class TreeSpliterator implements Spliterator<T> {
+     /** Item that comes before the subtree, valid if hasFirst. */
+      private T first;
+     /** True if first has not been taken yet. */
+      private boolean hasFirst;
+     /** Subtree still to be traversed. */
+      private BinaryNode<T> subtree;
+     /** Number of items left, from the subtree size. */
+      private long estimate;
+     /** In-order traversal of subtree, made on the first item taken. */
+      private InOrderIterator traversal = null;
+     /** modCount when the spliterator was made, to detect changes. */
+      private final int expectedModCount = modCount;
+
+     /**
+      * Spliterator over a subtree and maybe an item before it.
+      * 
+      * @param first The item before the subtree, if hasFirst
+      * @param hasFirst True if first is part of this spliterator
+      * @param subtree The root of the tree/subtree
+      */
+      TreeSpliterator(T first, boolean hasFirst, BinaryNode<T> subtree) {
+         this.first = first;
+         this.hasFirst = hasFirst;
+         this.subtree = subtree;
+         this.estimate = size(subtree) + (hasFirst ? 1 : 0);
+      }
+
+      @Override
+      public boolean tryAdvance(Consumer<? super T> action) {
+         if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+         }
+         if (hasFirst) {
+            hasFirst = false;
+            estimate--;
+            action.accept(first);
+            return true;
+         }
+         if (traversal == null) {
+            traversal = new InOrderIterator(subtree);
+         }
+         if (!traversal.hasNext()) {
+            return false;
+         }
+         estimate--;
+         action.accept(traversal.next());
+         return true;
+      }
+
+      @Override
+      public Spliterator<T> trySplit() {
+         if (traversal != null || subtree == null
+               || (subtree.getLeftChild() == null && !hasFirst)) {
+            return null;
+         }
+         TreeSpliterator prefix = new TreeSpliterator(first, hasFirst,
+            subtree.getLeftChild());
+         first = subtree.getData();
+         hasFirst = true;
+         subtree = subtree.getRightChild();
+         estimate -= prefix.estimate;
+         return prefix;
+      }
+
+      @Override
+      public long estimateSize() {
+         return estimate;
+      }
+
+      @Override
+      public int characteristics() {
+         return Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED
+            | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL;
+      }
+
+      @Override
+      public Comparator<? super T> getComparator() {
+         return null;
+      }
+   }
+
+  /**
+   * gets an item from the tree with the same search key.
    * 
-   * @return an inorder String of the tree
+   * @param searchKey1 An object containing the search key
+   * @return the data item in the tree with matching key.
+   * @throws TreeException if item not found
    */
-   public String toString() {
-      return this.inOrder(root);
+   public T get(T searchKey1) {
+      T found = this.getOrNull(searchKey1);
+      if (found == null) {
+         throw new TreeException("Item not found!");
+      }
+      return found;
    }
 
   /**
-   * inOrder display of nodes, with newline between each node.
+   * gets an item from the tree with the same search key, without
+   * throwing or allocating when there is none.
    * 
-   * @param node The root of the tree/subtree
-   * @return an inorder String of the tree
+   * @param searchKey An object containing the search key
+   * @return the data item in the tree with matching key, or null
    */
-   private String inOrder(BinaryNode<T> node) {
-      String displayNodes = "";
-      if (node != null) {
-         displayNodes = displayNodes 
-            + this.inOrder(node.getLeftChild());
-         displayNodes = displayNodes + node.toString() + ", ";
-         displayNodes = displayNodes 
-            + this.inOrder(node.getRightChild());
+   public T getOrNull(T searchKey) {
+      if (!this.mightContain(searchKey)) {
+         return null;
+      }
+      BinaryNode<T> node = root;
+      while (node != null) {
+         int comparison = searchKey.compareTo(node.getData());
+         // if the search key matches, return the item's address
+         if (comparison == 0) {
+            return node.getData();
+         }
+         // otherwise search the left or the right subtree
+         node = comparison < 0 ? node.getLeftChild() : node.getRightChild();
       }
-      return displayNodes;
+      return null;
    }
 
   /**
-   * Pre-Order traversal of tree.
+   * Tells whether an item with the same search key is in the tree.
    * 
-   * @return String representation of preOrder
+   * @param searchKey An object containing the search key
+   * @return true if a matching item is in the tree
    */
-   public String preOrder() {
-      return this.preOrder(root);
+   public boolean contains(T searchKey) {
+      return this.getOrNull(searchKey) != null;
    }
 
   /**
-   * Recursive preOrder traversal of tree.
+   * Finds the item in the tree with the same search key.
    * 
-   * @param node The root of the tree/subtree
-   * @return a preOrder String of the tree
+   * @param searchKey An object containing the search key
+   * @return the matching item, or an empty Optional
    */
-   private String preOrder(BinaryNode<T> node) {
-      String displayNodes = "";
-      if (node != null) {
-         displayNodes = displayNodes + node.toString() + ", ";
-         displayNodes = displayNodes
-            + this.preOrder(node.getLeftChild());
-         displayNodes = displayNodes 
-            + this.preOrder(node.getRightChild());
-      }
-      return displayNodes;
+   public Optional<T> find(T searchKey) {
+      return Optional.ofNullable(this.getOrNull(searchKey));
    }
 
   /**
-   * Post-Order traversal of tree.
+   * Turns the Bloom filter in front of lookups on or off. With it on,
+   * most lookups of absent keys are answered without walking the tree.
+   * The filter hashes items with hashCode, so it must only be used
+   * when items that compare equal also have equal hash codes. It is
+   * built here and kept up to date by the changes, so lookups only read
+   * it and read-only use stays safe from several threads.
    * 
-   * @return a postOrder String of the tree
+   * @param enabled true to check the filter before each lookup
    */
-   public String postOrder() {
-      return this.postOrder(root);
+   public void setBloomFilter(boolean enabled) {
+      bloomEnabled = enabled;
+      this.rebuildBloom();
    }
 
   /**
-   * Recursive postOrder traversal of tree.
-   * To display nodes, with newline between each node
+   * Tells whether lookups check a Bloom filter first.
    * 
-   * @param node The root of the tree/subtree
-   * @return a post-Order String of the tree
+   * @return true if the Bloom filter is on
    */
-   private String postOrder(BinaryNode<T> node) {
-      String displayNodes = "";
-      if (node != null) {
-         displayNodes = displayNodes + this.postOrder(node.getLeftChild());
-         displayNodes = displayNodes + this.postOrder(node.getRightChild());
-         displayNodes = displayNodes + node + ", ";
-      }
-      return displayNodes;
+   public boolean hasBloomFilter() {
+      return bloomEnabled;
    }
 
   /**
-   * gets an item from the tree with the same search key.
+   * Gives classes in this package read access to the Bloom filter.
    * 
-   * @param searchKey1 An object containing the search key
-   * @return the data item in the tree with matching key.
+   * @return the filter, null while it is off
    */
-   public T get(T searchKey1) {
-   // cannot get direct access to the root outside the class
-      return this.get(root, searchKey1);
+   BloomFilter getBloomFilter() {
+      return bloom;
    }
 
   /**
-   * Recursive method to get an item from the tree.
+   * Asks the Bloom filter, if there is one, whether a key may be in the
+   * tree.
    * 
-   * @param node The root of the tree/subtree
-   * @param searchKey2 An object storing the key to get.
-   * @return the data item in tree with matching key.
-   * @throws TreeException if item not found
+   * @param searchKey The key to check
+   * @return false only if the key is certainly not in the tree
    */
-   private T get(BinaryNode<T> node, T searchKey2) {
-   // if not found, throw exception
-      if (node == null) {
-         throw new TreeException("Item not found!");
+   private boolean mightContain(T searchKey) {
+      return bloom == null || bloom.mightContain(searchKey);
+   }
+
+  /**
+   * Builds the Bloom filter afresh from the items, with room for as many
+   * again, or drops it if the filter is off.
+   */
+   private void rebuildBloom() {
+      bloomRemoved = 0;
+      if (!bloomEnabled) {
+         bloom = null;
+         return;
+      }
+      bloom = new BloomFilter(2 * this.size());
+      for (T item : this) {
+         bloom.put(item);
+      }
+   }
+
+  /**
+   * Puts an added item in the Bloom filter, if there is one, rebuilding
+   * a bigger filter once it holds more items than it was sized for.
+   * 
+   * @param item The item just added
+   */
+   private void bloomAdded(T item) {
+      if (bloom == null) {
+         return;
+      }
+      if (this.size() > bloom.getCapacity()) {
+         this.rebuildBloom();
       } 
       else {
-      // if the search key matches, return the item's address
-         if (searchKey2.compareTo(node.getData()) == 0) {
-            return node.getData();
-         }
-         // if the search key of the searchKey is less than the node,
-         // then search the left subtree
-         else if (searchKey2.compareTo(node.getData()) < 0) {
-            return this.get(node.getLeftChild(), searchKey2);
-         }
-         // if the search key of the searchKey is greater than the node,
-         // then search the right subtree
-         else {
-            return this.get(node.getRightChild(), searchKey2);
-         }
+         bloom.put(item);
       }
    }
 
   /**
-   * Removes an item from the tree.
+   * Counts removed items, whose bits stay set in the Bloom filter, and
+   * rebuilds the filter once enough of them make it answer maybe too often.
    * 
-   * @param searchKey3 An object storing the key to remove.
+   * @param count The number of items just removed
    */
-   public void remove(T searchKey3) {
-      root = this.remove(root, searchKey3);
+   private void bloomRemoved(int count) {
+      bloomRemoved += count;
+      if (bloom != null && bloomRemoved > bloom.getCapacity() / 4) {
+         this.rebuildBloom();
+      }
    }
 
   /**
-   * Recursively removes an item from the tree.   
+   * Removes an item from the tree.
    * 
-   * @param node The root of the tree/subtree
-   * @param searchKey4 An object storing only the key to remove.
-   * @return root of current subtree.
+   * @param searchKey3 An object storing the key to remove.
    * @throws TreeException if item not found in tree.
    */
-   private BinaryNode<T> remove(BinaryNode<T> node, T searchKey4) {
-   // if item not found, throw exception
-      if (node == null) {
+   public void remove(T searchKey3) {
+      if (!this.removeIfPresent(searchKey3)) {
          throw new TreeException("Item not found!");
       }
-      // if search key is less than node's search key,
-      // continue to left subtree
-      else if (searchKey4.compareTo(node.getData()) < 0) {
-         node.setLeftChild(this.remove(node.getLeftChild(), searchKey4));
-         return node;
-      }
-      // if search key is greater than node's search key,
-      // continue to right subtree
-      else if (searchKey4.compareTo(node.getData()) > 0) {
-         node.setRightChild(this.remove(node.getRightChild(), searchKey4));
-         return node;
+   }
+
+  /**
+   * Removes an item from the tree if it is there, without throwing.
+   * Walks down comparing once per level, recording the path in arrays
+   * kept between calls, so a miss returns without allocating. On a hit
+   * the node is taken out and the path relinked and rebalanced on the
+   * way back up.
+   * 
+   * @param searchKey An object storing the key to remove.
+   * @return true if an item was removed
+   */
+   public boolean removeIfPresent(T searchKey) {
+      this.checkWritable();
+      if (!this.mightContain(searchKey)) {
+         return false;
       }
-      // found node containing object with same search key,
-      // so delete it
-      else {
-      // call private method remove
-         node = this.remove(node);
-         return node;
+      int depth = 0;
+      BinaryNode<T> node = root;
+      while (node != null) {
+         int comparison = searchKey.compareTo(node.getData());
+         if (comparison == 0) {
+            // found node containing object with same search key,
+            // so delete it
+            this.unlink(removePath, removeWentLeft, depth, node);
+            Arrays.fill(removePath, 0, depth, null);
+            return true;
+         }
+         if (depth == removePath.length) {
+            removePath = Arrays.copyOf(removePath, 2 * depth + 1);
+            removeWentLeft = Arrays.copyOf(removeWentLeft, 2 * depth + 1);
+         }
+         removePath[depth] = node;
+         removeWentLeft[depth] = comparison < 0;
+         depth++;
+         node = comparison < 0 ? node.getLeftChild() : node.getRightChild();
       }
+      Arrays.fill(removePath, 0, depth, null);
+      return false;
    }
 
   /**
@@ -259,11 +2276,12 @@ public class BinarySearchTree<T extends Comparable<T>> {
          T largestItemInLeftSubtree = this.getItemWithLargestSearchKey(node
              .getLeftChild());
       // replace the node's item with this item
+         node = this.writable(node);
          node.setData(largestItemInLeftSubtree);
       // delete the rightmost node in the left subtree
          node.setLeftChild(this.removeNodeWithLargestSearchKey(node
              .getLeftChild()));
-         return node;
+         return this.rebalance(node);
       }
    }
 
@@ -274,14 +2292,11 @@ public class BinarySearchTree<T extends Comparable<T>> {
    * @return The data item with largest key
    */
    private T getItemWithLargestSearchKey(BinaryNode<T> node) {
-   // if no right child, then this node contains the largest item
-      if (node.getRightChild() == null) {
-         return node.getData();
-      }
-      // if not, keep looking on the right
-      else {
-         return this.getItemWithLargestSearchKey(node.getRightChild());
+   // keep looking on the right until there is no right child
+      while (node.getRightChild() != null) {
+         node = node.getRightChild();
       }
+      return node.getData();
    }
 
   /**
@@ -294,17 +2309,111 @@ public class BinarySearchTree<T extends Comparable<T>> {
    * @return root of (sub)tree with node removed.
    */
    private BinaryNode<T> removeNodeWithLargestSearchKey(BinaryNode<T> node) {
-   // if no right child, then this node contains the largest item
-   // so replace it with its left child
-      if (node.getRightChild() == null) {
-         return node.getLeftChild();
+      BinaryNode<T>[] path = this.newPath(node);
+      boolean[] wentLeft = new boolean[path.length];
+      int depth = 0;
+      // walk the right spine, the rightmost node holds the largest item
+      while (node.getRightChild() != null) {
+         path[depth++] = node;
+         node = node.getRightChild();
       }
-      // if not, keep looking on the right
-      else {
-         node.setRightChild(this.removeNodeWithLargestSearchKey(node
-             .getRightChild()));
+      // replace the rightmost node with its left child
+      return this.fixPath(path, wentLeft, depth, node.getLeftChild());
+   }
+
+  /**
+   * Height of a (sub)tree that may be empty.
+   * 
+   * @param node The root of the tree/subtree, or null
+   * @return the height, 0 for null
+   */
+   private static int height(BinaryNode<?> node) {
+      return node == null ? 0 : node.getHeight();
+   }
+
+  /**
+   * Number of items in a (sub)tree that may be empty.
+   * 
+   * @param node The root of the tree/subtree, or null
+   * @return the item count, 0 for null
+   */
+   private static int size(BinaryNode<?> node) {
+      return node == null ? 0 : node.getSize();
+   }
+
+  /**
+   * Recomputes the height and subtree size of a node from its children.
+   * 
+   * @param node The node whose children are up to date
+   */
+   private static void update(BinaryNode<?> node) {
+      node.setHeight(1 + Math.max(height(node.getLeftChild()),
+         height(node.getRightChild())));
+      node.setSize(1 + size(node.getLeftChild()) + size(node.getRightChild()));
+   }
+
+  /**
+   * Updates the height of a node whose subtree just changed and, if the
+   * tree is balanced, restores the AVL property with one or two rotations.
+   * 
+   * @param node The root of the changed subtree, already writable
+   * @return the new root of the subtree
+   */
+   private BinaryNode<T> rebalance(BinaryNode<T> node) {
+      update(node);
+      if (!balanced) {
          return node;
       }
+      int balance = height(node.getLeftChild()) - height(node.getRightChild());
+      // left heavy: left-right case first rotates the left child
+      if (balance > 1) {
+         if (height(node.getLeftChild().getLeftChild())
+               < height(node.getLeftChild().getRightChild())) {
+            node.setLeftChild(
+               this.rotateLeft(this.writable(node.getLeftChild())));
+         }
+         return this.rotateRight(node);
+      }
+      // right heavy: right-left case first rotates the right child
+      if (balance < -1) {
+         if (height(node.getRightChild().getRightChild())
+               < height(node.getRightChild().getLeftChild())) {
+            node.setRightChild(
+               this.rotateRight(this.writable(node.getRightChild())));
+         }
+         return this.rotateLeft(node);
+      }
+      return node;
+   }
+
+  /**
+   * Rotates a subtree to the right, its left child becomes the root.
+   * 
+   * @param node The root of the subtree, already writable
+   * @return the new root of the subtree
+   */
+   private BinaryNode<T> rotateRight(BinaryNode<T> node) {
+      BinaryNode<T> pivot = this.writable(node.getLeftChild());
+      node.setLeftChild(pivot.getRightChild());
+      pivot.setRightChild(node);
+      update(node);
+      update(pivot);
+      return pivot;
+   }
+
+  /**
+   * Rotates a subtree to the left, its right child becomes the root.
+   * 
+   * @param node The root of the subtree, already writable
+   * @return the new root of the subtree
+   */
+   private BinaryNode<T> rotateLeft(BinaryNode<T> node) {
+      BinaryNode<T> pivot = this.writable(node.getRightChild());
+      node.setRightChild(pivot.getLeftChild());
+      pivot.setLeftChild(node);
+      update(node);
+      update(pivot);
+      return pivot;
    }
 
    /** Breadth-first traversal to display the tree 
@@ -436,6 +2545,24 @@ public class BinarySearchTree<T extends Comparable<T>> {
       System.out.println("preorder traversal:\n" + tree.preOrder());
       System.out.println("inorder traversal:\n" + tree.toString());
       System.out.println("postorder traversal:\n" + tree.postOrder());
+      System.out.println("size: " + tree.size());
+      System.out.println("rank of moilii: " + tree.rank("moilii")
+         + ", select(3): " + tree.select(3) + ", median: "
+         + tree.select(tree.size() / 2) + ", from m to p: "
+         + tree.countInRange("m", "p"));
+      System.out.println("floor(nene): " + tree.floor("nene")
+         + ", ceiling(nene): " + tree.ceiling("nene") + ", first: "
+         + tree.first() + ", last: " + tree.last());
+      System.out.println("subSet(m, p): " + tree.subSet("m", true, "p", false)
+         + ", headSet(b) descending: "
+         + tree.headSet("b", false).descendingSet());
+      System.out.print("for-each loop:");
+      for (String item : tree) {
+         System.out.print(" " + item);
+      }
+      System.out.println();
+      System.out.println("stream, first three starting with m or later: "
+         + tree.stream().filter(f -> f.compareTo("m") >= 0).limit(3).toList());
    
    // test get
       System.out.println("TEST get() method:");
@@ -453,6 +2580,10 @@ public class BinarySearchTree<T extends Comparable<T>> {
       }
       fish = tree.get("uhu");
       System.out.println("Got: " + fish);
+      System.out.println("contains(ahi): " + tree.contains("ahi")
+         + ", getOrNull(ahi): " + tree.getOrNull("ahi") + ", find(uhu): "
+         + tree.find("uhu") + ", removeIfPresent(ahi): "
+         + tree.removeIfPresent("ahi"));
       tree.breadthFirstDisplay();
    // test remove
       System.out.println("\nTEST remove() method:");
@@ -469,6 +2600,150 @@ public class BinarySearchTree<T extends Comparable<T>> {
       tree.remove("oama");
       System.out.println("After removing oama:");
       tree.breadthFirstDisplay();
+
+   // test balancing on sorted (adversarial) input
+      System.out.println("\nTEST balanced tree on sorted keys:");
+      int count = 100000;
+      BinarySearchTree<Integer> avl = new BinarySearchTree<Integer>(true);
+      for (int i = 0; i < count; i++) {
+         avl.add(i);
+      }
+      double bound = 1.4405 * (Math.log(count + 2) / Math.log(2)) - 0.3277;
+      System.out.println("Height after " + count + " sorted adds: "
+         + avl.height() + " (AVL bound " + (int) bound + ")");
+      for (int i = 0; i < count; i += 2) {
+         avl.remove(i);
+      }
+      System.out.println("Height after removing every even key: "
+         + avl.height());
+      BinarySearchTree<Integer> zigzag = new BinarySearchTree<Integer>(true);
+      for (int i = 0; i < count / 2; i++) {
+         zigzag.add(i);
+         zigzag.add(count - 1 - i);
+      }
+      System.out.println("Height after " + count + " zig-zag adds: "
+         + zigzag.height());
+
+   // the unbalanced tree degenerates into a list, but add/get/remove loop
+   // instead of recursing so they no longer overflow the stack
+      BinarySearchTree<Integer> list = new BinarySearchTree<Integer>();
+      for (int i = 0; i < count / 5; i++) {
+         list.add(i);
+      }
+      System.out.println("Unbalanced height after " + count / 5
+         + " sorted adds: " + list.height());
+      System.out.println("Got deepest key: " + list.get(count / 5 - 1));
+      list.remove(0);
+      list.remove(count / 5 - 1);
+      System.out.println("Height after removing both ends: " + list.height());
+
+   // test bulk loading, sorted input builds in one O(n) pass
+      System.out.println("\nTEST fromSorted() and addAll() methods:");
+      ArrayList<Integer> sorted = new ArrayList<Integer>();
+      for (int i = 0; i < count; i++) {
+         sorted.add(i);
+      }
+      BinarySearchTree<Integer> loaded =
+         BinarySearchTree.fromSorted(sorted, true);
+      System.out.println("Loaded " + loaded.size() + " sorted keys, height "
+         + loaded.height());
+      ArrayList<Integer> unsorted = new ArrayList<Integer>();
+      for (int i = count + 5; i >= count - 5; i--) {
+         unsorted.add(i);
+         unsorted.add(i);
+      }
+      System.out.println("addAll of 22 unsorted keys with duplicates added "
+         + loaded.addAll(unsorted) + ", size " + loaded.size()
+         + ", height " + loaded.height());
+
+   // test batches, one pass each and no exception for bad keys
+      ArrayList<Integer> batch = new ArrayList<Integer>();
+      for (int i = -10; i < 10; i++) {
+         batch.add(i * 3);
+      }
+      System.out.println("addBatch duplicates: " + loaded.addBatch(batch)
+         + ", size " + loaded.size() + ", height " + loaded.height());
+      batch.add(-30);
+      System.out.println("removeBatch missing: " + loaded.removeBatch(batch)
+         + ", size " + loaded.size() + ", height " + loaded.height());
+
+   // test set algebra, merging shards by key range and by overlap
+      System.out.println("\nTEST split(), join(), union(), intersection() "
+         + "and difference() methods:");
+      BinarySearchTree<Integer> upper = loaded.split(count / 2);
+      System.out.println("split at " + count / 2 + ": " + loaded.size()
+         + " + " + upper.size() + " items");
+      loaded.join(upper);
+      System.out.println("joined back: " + loaded.size() + " items, height "
+         + loaded.height() + ", other tree left with " + upper.size());
+      BinarySearchTree<Integer> odds = new BinarySearchTree<Integer>(true);
+      for (int i = 1; i < 2 * count; i += 2) {
+         odds.add(i);
+      }
+      loaded.union(odds);
+      System.out.println("union with " + odds.size() + " odd keys: "
+         + loaded.size() + " items, height " + loaded.height());
+      loaded.intersection(odds);
+      System.out.println("intersection with the odd keys: " + loaded.size());
+      loaded.difference(odds);
+      System.out.println("difference with the odd keys: " + loaded.size());
+
+   // test persistent tree, snapshots keep their contents
+      System.out.println("\nTEST persistent tree and snapshot() method:");
+      BinarySearchTree<String> versions =
+         new BinarySearchTree<String>(true, true);
+      versions.add("ohua");
+      versions.add("kahaha");
+      versions.add("uhu");
+      BinarySearchTree<String> before = versions.snapshot();
+      versions.remove("kahaha");
+      versions.add("wekea");
+      System.out.println("snapshot: " + before);
+      System.out.println("live tree: " + versions);
+      try {
+         before.add("ahi");
+      } 
+      catch (UnsupportedOperationException exception) {
+         System.out.println(exception.toString());
+      }
+
+   // test single-descent updates, counting words with merge
+      System.out.println("\nTEST addIfAbsent(), compute() and merge() methods:");
+      record Count(String word, int count) implements Comparable<Count> {
+         public int compareTo(Count other) {
+            return word.compareTo(other.word);
+         }
+      }
+      BinarySearchTree<Count> counts = new BinarySearchTree<Count>(true);
+      for (String word : "uhu ahi uhu oama uhu ahi".split(" ")) {
+         counts.merge(new Count(word, 1),
+            (old, one) -> new Count(old.word(), old.count() + one.count()));
+      }
+      System.out.println("merged counts: " + counts);
+      counts.compute(new Count("ahi", 0), (key, old) -> null);
+      System.out.println("addIfAbsent(uhu) " + counts.addIfAbsent(
+         new Count("uhu", 9)) + ", computeIfAbsent(moi) " + counts
+         .computeIfAbsent(new Count("moi", 0), key -> new Count("moi", 1))
+         + ", after removing ahi: " + counts);
+
+   // test the Bloom filter on a lookup mix where 7 in 10 keys miss
+      System.out.println("\nTEST contains() with and without Bloom filter:");
+      ArrayList<Integer> evens = new ArrayList<Integer>();
+      for (int i = 0; i < count; i++) {
+         evens.add(2 * i);
+      }
+      BinarySearchTree<Integer> sparse =
+         BinarySearchTree.fromSorted(evens, true);
+      for (int pass = 0; pass < 2; pass++) {
+         sparse.setBloomFilter(pass == 1);
+         int hits = 0;
+         for (int i = 0; i < 10 * count; i++) {
+            int key = (int) (i * 7919L % count) * 2 + (i % 10 < 3 ? 0 : 1);
+            hits += sparse.contains(key) ? 1 : 0;
+         }
+         System.out.println("Bloom filter " + sparse.hasBloomFilter() + ": "
+            + hits + " hits in " + 10 * count + " lookups");
+      }
    } // end of main
 } // end of class
 
@@ -0,0 +1,95 @@
+package binarysearchtree;
+
+/**
+ * Bloom filter over item hash codes, the negative cache in front of a
+ * BinarySearchTree. mightContain never answers false for an item that was
+ * put, and answers true for an absent item about 1% of the time while it
+ * holds no more items than it was sized for. Items cannot be taken out;
+ * the tree rebuilds the filter instead.
+ */
+class BloomFilter {
+
+  /** Bits per expected item, 10 gives about 1% false positives. */
+   private static final int BITS_PER_ITEM = 10;
+  /** Bit positions set per item, optimal for 10 bits per item. */
+   private static final int HASHES = 7;
+
+  /** The bit set. */
+   private final long[] bits;
+  /** Number of bits, a power of two. */
+   private final int mask;
+  /** Items the filter was sized for. */
+   private final int capacity;
+
+  /**
+   * Constructor, an empty filter.
+   *
+   * @param capacity The number of items to size the filter for
+   */
+   BloomFilter(int capacity) {
+      this.capacity = Math.max(capacity, 64);
+      long wanted = (long) this.capacity * BITS_PER_ITEM;
+      int bitCount = (int) Math.min(Long.highestOneBit(wanted - 1) << 1,
+         1L << 30);
+      bits = new long[bitCount >>> 6];
+      mask = bitCount - 1;
+   }
+
+  /**
+   * Accessor for the capacity.
+   *
+   * @return the number of items the filter was sized for
+   */
+   int getCapacity() {
+      return capacity;
+   }
+
+  /**
+   * Spreads a hash code over 64 bits, the two halves give the probes.
+   *
+   * @param item The item
+   * @return the mixed hash
+   */
+   private static long mix(Object item) {
+      long h = item.hashCode() * 0x9E3779B97F4A7C15L;
+      h ^= h >>> 32;
+      h *= 0xD6E8FEB86659FD93L;
+      return h ^ (h >>> 32);
+   }
+
+  /**
+   * Records an item.
+   *
+   * @param item The item to add
+   */
+   void put(Object item) {
+      long h = mix(item);
+      int probe = (int) h;
+      int step = (int) (h >>> 32) | 1;
+      for (int i = 0; i < HASHES; i++) {
+         int bit = probe & mask;
+         bits[bit >>> 6] |= 1L << bit;
+         probe += step;
+      }
+   }
+
+  /**
+   * Tells whether an item may have been put.
+   *
+   * @param item The item to check
+   * @return false only if the item was certainly never put
+   */
+   boolean mightContain(Object item) {
+      long h = mix(item);
+      int probe = (int) h;
+      int step = (int) (h >>> 32) | 1;
+      for (int i = 0; i < HASHES; i++) {
+         int bit = probe & mask;
+         if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+            return false;
+         }
+         probe += step;
+      }
+      return true;
+   }
+}
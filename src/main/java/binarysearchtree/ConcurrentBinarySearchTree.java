@@ -0,0 +1,196 @@
+package binarysearchtree;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe binary search tree with lock-free reads.
+ * Lookups walk the nodes under a StampedLock optimistic read and only
+ * take the read lock if a writer keeps getting in the way. Writers
+ * take the write lock for the single descent of add or remove, so
+ * readers never wait behind other readers and rarely behind writers.
+ *
+ * @param <T> the type of items held in tree.
+ */
+public class ConcurrentBinarySearchTree<T extends Comparable<T>> {
+
+  /** Optimistic tries before a reader falls back to the read lock. */
+   private static final int OPTIMISTIC_TRIES = 3;
+
+  /** Levels walked between checks that the optimistic read is still valid. */
+   private static final int VALIDATE_EVERY = 32;
+
+  /** The tree, only changed under the write lock. */
+   private final BinarySearchTree<T> tree;
+
+  /** Guards the tree. */
+   private final StampedLock lock = new StampedLock();
+
+  /** No parameter constructor, makes an AVL balanced tree. */
+   public ConcurrentBinarySearchTree() {
+      this(true);
+   }
+
+  /**
+   * Constructor choosing the balancing policy.
+   *
+   * @param balanced true to keep the tree AVL balanced on add and remove
+   */
+   public ConcurrentBinarySearchTree(boolean balanced) {
+      tree = new BinarySearchTree<T>(balanced);
+   }
+
+  /**
+   * Adds an item to the tree.
+   *
+   * @param item The object to be added
+   * @throws TreeException if an item with the same key is in the tree
+   */
+   public void add(T item) {
+      long stamp = lock.writeLock();
+      try {
+         tree.add(item);
+      }
+      finally {
+         lock.unlockWrite(stamp);
+      }
+   }
+
+  /**
+   * Removes an item from the tree.
+   *
+   * @param searchKey An object storing the key to remove.
+   * @throws TreeException if item not found in tree.
+   */
+   public void remove(T searchKey) {
+      long stamp = lock.writeLock();
+      try {
+         tree.remove(searchKey);
+      }
+      finally {
+         lock.unlockWrite(stamp);
+      }
+   }
+
+  /**
+   * gets an item from the tree with the same search key, without locking.
+   *
+   * @param searchKey An object containing the search key
+   * @return the data item in the tree with matching key.
+   * @throws TreeException if item not found
+   */
+   public T get(T searchKey) {
+      T found = this.find(searchKey);
+      if (found == null) {
+         throw new TreeException("Item not found!");
+      }
+      return found;
+   }
+
+  /**
+   * Tells whether an item with the same search key is in the tree.
+   *
+   * @param searchKey An object containing the search key
+   * @return true if a matching item is in the tree
+   */
+   public boolean contains(T searchKey) {
+      return this.find(searchKey) != null;
+   }
+
+  /**
+   * Number of items in the tree.
+   *
+   * @return the item count
+   */
+   public int size() {
+      long stamp = lock.tryOptimisticRead();
+      int size = tree.size();
+      if (!lock.validate(stamp)) {
+         stamp = lock.readLock();
+         try {
+            size = tree.size();
+         }
+         finally {
+            lock.unlockRead(stamp);
+         }
+      }
+      return size;
+   }
+
+  /**
+   * called automatically by println/print method.
+   *
+   * @return an inorder String of the tree
+   */
+   public String toString() {
+      long stamp = lock.readLock();
+      try {
+         return tree.toString();
+      }
+      finally {
+         lock.unlockRead(stamp);
+      }
+   }
+
+  /**
+   * Finds the item matching a key, optimistically first.
+   *
+   * @param searchKey An object containing the search key
+   * @return the matching item, or null if there is none
+   */
+   private T find(T searchKey) {
+      for (int i = 0; i < OPTIMISTIC_TRIES; i++) {
+         long stamp = lock.tryOptimisticRead();
+         if (stamp == 0) {
+            break; // a writer holds the lock, wait for it below
+         }
+         T found;
+         try {
+            found = this.search(searchKey, stamp);
+         }
+         catch (RuntimeException exception) {
+            // a torn read can hand compareTo a half-built node
+            if (lock.validate(stamp)) {
+               throw exception;
+            }
+            continue;
+         }
+         if (lock.validate(stamp)) {
+            return found;
+         }
+      }
+      long stamp = lock.readLock();
+      try {
+         return this.search(searchKey, 0L);
+      }
+      finally {
+         lock.unlockRead(stamp);
+      }
+   }
+
+  /**
+   * Walks down the tree comparing once per level. When reading
+   * optimistically it gives up as soon as the stamp is invalid, so a
+   * writer restructuring the nodes cannot keep it looping.
+   *
+   * @param searchKey An object containing the search key
+   * @param stamp The optimistic stamp, or 0 when holding the read lock
+   * @return the matching item, or null if not found or given up
+   */
+   private T search(T searchKey, long stamp) {
+      BinaryNode<T> node = tree.getRoot();
+      int level = 0;
+      while (node != null) {
+         if (stamp != 0 && ++level % VALIDATE_EVERY == 0
+               && !lock.validate(stamp)) {
+            return null;
+         }
+         T data = node.getData();
+         int comparison = searchKey.compareTo(data);
+         if (comparison == 0) {
+            return data;
+         }
+         node = comparison < 0 ? node.getLeftChild() : node.getRightChild();
+      }
+      return null;
+   }
+} // end of class
@@ -0,0 +1,605 @@
+package binarysearchtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * BinarySearchTree whose changes survive a crash.
+ * Every add and remove that changes the tree appends a record to a
+ * write-ahead log before changing the tree; startup loads the last
+ * snapshot and replays the log on top of it, and compact() writes a new
+ * snapshot and empties the log. Reads see a change once it is logged,
+ * which may be before its fsync.
+ * <p>
+ * Records are written in groups: whichever caller finds the log idle
+ * writes and fsyncs everything appended so far, so concurrent callers
+ * share one fsync (group commit). With syncEvery 1 each change waits
+ * until it is on disk; with syncEvery n, fsync runs once per n records
+ * and a crash may lose the last n - 1 changes.
+ * <p>
+ * A record is: length of the rest (int), operation (byte), key bytes from
+ * the KeyCodec, then a CRC32 of all of them (int). Recovery stops at the
+ * first short or damaged record, the torn tail of a crash, and cuts it
+ * off. Replay is idempotent, so a crash between writing the snapshot and
+ * emptying the log only replays changes the snapshot already holds.
+ *
+ * @param <T> the type of items held in tree.
+ */
+public class DurableBinarySearchTree<T extends Comparable<T>>
+      implements AutoCloseable {
+
+  /** Log operation adding a key. */
+   private static final byte ADD = 1;
+  /** Log operation removing a key. */
+   private static final byte REMOVE = 2;
+  /** Bytes of a record besides the key: length, operation and checksum. */
+   private static final int RECORD_OVERHEAD = 9;
+  /** Snapshot file name in the directory. */
+   private static final String SNAPSHOT = "tree.snapshot";
+  /** Log file name in the directory. */
+   private static final String LOG = "tree.wal";
+
+  /** The tree, guarded by this object's monitor. */
+   private final BinarySearchTree<T> tree;
+  /** Encodes and decodes the keys. */
+   private final KeyCodec<T> codec;
+  /** Directory holding the snapshot and the log. */
+   private final Path directory;
+  /** The log file. */
+   private final FileChannel log;
+  /** Records appended per fsync, 1 to make each change wait for its fsync. */
+   private final int syncEvery;
+  /** Checksum of the record being appended. */
+   private final CRC32 crc = new CRC32();
+
+  /** Records appended but not yet written. */
+   private ByteBuffer pending = ByteBuffer.allocate(1 << 12);
+  /** Buffer of the group being written, reused for the next group. */
+   private ByteBuffer spare = ByteBuffer.allocate(1 << 12);
+  /** Sequence number of the last record appended. */
+   private long appendedSeq = 0;
+  /** Sequence number of the last record on disk. */
+   private long syncedSeq = 0;
+  /** True while a caller writes and fsyncs a group. */
+   private boolean syncing = false;
+  /** Bytes in the log file. */
+   private long logBytes;
+  /** Log size that triggers a compaction. */
+   private long compactionThreshold = 64L << 20;
+  /** First write failure, after which every change is refused. */
+   private IOException failure = null;
+  /** True once closed. */
+   private boolean closed = false;
+  /** Number of fsyncs done, to see group commit at work. */
+   private final AtomicInteger syncCount = new AtomicInteger();
+
+  /**
+   * Constructor, for open.
+   *
+   * @param tree The recovered tree
+   * @param codec Encodes and decodes the keys
+   * @param directory Directory holding the snapshot and the log
+   * @param log The log, positioned at its end
+   * @param syncEvery Records appended per fsync
+   * @throws IOException if the log size cannot be read
+   */
+   private DurableBinarySearchTree(BinarySearchTree<T> tree,
+         KeyCodec<T> codec, Path directory, FileChannel log, int syncEvery)
+         throws IOException {
+      this.tree = tree;
+      this.codec = codec;
+      this.directory = directory;
+      this.log = log;
+      this.syncEvery = syncEvery;
+      this.logBytes = log.size();
+   }
+
+  /**
+   * Opens or creates a durable tree in a directory, recovering the last
+   * snapshot and every logged change after it.
+   *
+   * @param <T> the type of items held in tree
+   * @param directory Directory for the snapshot and the log
+   * @param codec Encodes and decodes the keys
+   * @param balanced true to keep the tree AVL balanced
+   * @param syncEvery Records appended per fsync, 1 for fully durable changes
+   * @return the recovered tree
+   * @throws IOException if the files cannot be read or the snapshot is damaged
+   * @throws IllegalArgumentException if syncEvery is below 1
+   */
+   public static <T extends Comparable<T>> DurableBinarySearchTree<T> open(
+         Path directory, KeyCodec<T> codec, boolean balanced, int syncEvery)
+         throws IOException {
+      if (syncEvery < 1) {
+         throw new IllegalArgumentException("syncEvery must be at least 1");
+      }
+      Files.createDirectories(directory);
+      Path snapshot = directory.resolve(SNAPSHOT);
+      BinarySearchTree<T> tree = Files.exists(snapshot)
+         ? BinarySearchTree.loadSnapshot(snapshot, codec, balanced)
+         : new BinarySearchTree<T>(balanced);
+      FileChannel log = FileChannel.open(directory.resolve(LOG),
+         StandardOpenOption.CREATE, StandardOpenOption.READ,
+         StandardOpenOption.WRITE);
+      try {
+         long end = replay(log, tree, codec);
+         if (end < log.size()) {
+            log.truncate(end);
+            log.force(true);
+         }
+         log.position(end);
+      }
+      catch (IOException | RuntimeException exception) {
+         log.close();
+         throw exception;
+      }
+      return new DurableBinarySearchTree<T>(tree, codec, directory, log,
+         syncEvery);
+   }
+
+  /**
+   * Applies the complete, undamaged records of a log to a tree.
+   *
+   * @param <T> the type of items held in tree
+   * @param log The log file
+   * @param tree The tree to change
+   * @param codec Decodes the keys
+   * @return the length of the good part of the log
+   * @throws IOException if the log cannot be read
+   */
+   private static <T extends Comparable<T>> long replay(FileChannel log,
+         BinarySearchTree<T> tree, KeyCodec<T> codec) throws IOException {
+      long size = log.size();
+      if (size > Integer.MAX_VALUE) {
+         throw new IOException("Log is over 2 GB, compact more often");
+      }
+      // read, not mapped: a live mapping would stop the torn tail being
+      // cut off, and later compactions emptying the log, on Windows
+      ByteBuffer records = ByteBuffer.allocate((int) size);
+      while (records.hasRemaining()) {
+         if (log.read(records, records.position()) < 0) {
+            break;
+         }
+      }
+      size = records.position();
+      CRC32 check = new CRC32();
+      int at = 0;
+      while (size - at >= RECORD_OVERHEAD) {
+         int length = records.getInt(at);
+         if (length < 1 || length > size - at - RECORD_OVERHEAD + 1) {
+            break;
+         }
+         check.reset();
+         check.update(records.slice(at, Integer.BYTES + length));
+         if ((int) check.getValue()
+               != records.getInt(at + Integer.BYTES + length)) {
+            break;
+         }
+         byte op = records.get(at + Integer.BYTES);
+         T key = codec.decode(records.slice(at + Integer.BYTES + 1,
+            length - 1));
+         if (op == ADD) {
+            tree.addIfAbsent(key);
+         }
+         else if (op == REMOVE) {
+            tree.removeIfPresent(key);
+         }
+         else {
+            break;
+         }
+         at += RECORD_OVERHEAD - 1 + length;
+      }
+      return at;
+   }
+
+  /**
+   * Adds an item to the tree and logs it.
+   *
+   * @param item The object to be added
+   * @throws TreeException if an item with the same key is in the tree
+   * @throws IOException if the log cannot be written
+   */
+   public void add(T item) throws IOException {
+      long seq;
+      synchronized (this) {
+         this.checkWritable();
+         if (tree.contains(item)) {
+            throw new TreeException("No duplicate items are allowed!");
+         }
+         seq = this.append(ADD, item);
+         tree.add(item);
+      }
+      this.commit(seq);
+   }
+
+  /**
+   * Adds an item unless an item with the same key is in the tree.
+   *
+   * @param item The object to be added
+   * @return true if the item was added
+   * @throws IOException if the log cannot be written
+   */
+   public boolean addIfAbsent(T item) throws IOException {
+      long seq;
+      synchronized (this) {
+         this.checkWritable();
+         if (tree.contains(item)) {
+            return false;
+         }
+         seq = this.append(ADD, item);
+         tree.add(item);
+      }
+      this.commit(seq);
+      return true;
+   }
+
+  /**
+   * Removes an item from the tree and logs it.
+   *
+   * @param searchKey An object storing the key to remove.
+   * @throws TreeException if item not found in tree.
+   * @throws IOException if the log cannot be written
+   */
+   public void remove(T searchKey) throws IOException {
+      if (!this.removeIfPresent(searchKey)) {
+         throw new TreeException("Item not found!");
+      }
+   }
+
+  /**
+   * Removes an item from the tree if it is there, and logs it.
+   *
+   * @param searchKey An object storing the key to remove.
+   * @return true if an item was removed
+   * @throws IOException if the log cannot be written
+   */
+   public boolean removeIfPresent(T searchKey) throws IOException {
+      long seq;
+      synchronized (this) {
+         this.checkWritable();
+         if (!tree.contains(searchKey)) {
+            return false;
+         }
+         seq = this.append(REMOVE, searchKey);
+         tree.remove(searchKey);
+      }
+      this.commit(seq);
+      return true;
+   }
+
+  /**
+   * gets an item from the tree with the same search key.
+   *
+   * @param searchKey An object containing the search key
+   * @return the data item in the tree with matching key.
+   * @throws TreeException if item not found
+   */
+   public synchronized T get(T searchKey) {
+      return tree.get(searchKey);
+   }
+
+  /**
+   * Tells whether an item with the same search key is in the tree.
+   *
+   * @param searchKey An object containing the search key
+   * @return true if a matching item is in the tree
+   */
+   public synchronized boolean contains(T searchKey) {
+      return tree.contains(searchKey);
+   }
+
+  /**
+   * Number of items in the tree.
+   *
+   * @return the item count
+   */
+   public synchronized int size() {
+      return tree.size();
+   }
+
+  /**
+   * called automatically by println/print method.
+   *
+   * @return an inorder String of the tree
+   */
+   public synchronized String toString() {
+      return tree.toString();
+   }
+
+  /**
+   * Sets the log size at which the next group commit compacts.
+   *
+   * @param bytes The threshold in bytes
+   */
+   public synchronized void setCompactionThreshold(long bytes) {
+      compactionThreshold = bytes;
+   }
+
+  /**
+   * Bytes in the log file right now.
+   *
+   * @return the log size
+   */
+   public synchronized long logSize() {
+      return logBytes;
+   }
+
+  /**
+   * Throws if changes can no longer be logged.
+   *
+   * @throws IOException if an earlier write failed
+   */
+   private void checkWritable() throws IOException {
+      if (closed) {
+         throw new IllegalStateException("Tree is closed");
+      }
+      if (failure != null) {
+         throw new IOException("Log failed earlier", failure);
+      }
+   }
+
+  /**
+   * Appends a record to the pending group. Called holding the monitor,
+   * before the tree is changed, so a key the codec cannot encode leaves
+   * the tree as it was.
+   *
+   * @param op ADD or REMOVE
+   * @param key The key changed
+   * @return the sequence number of the record
+   */
+   private long append(byte op, T key) {
+      byte[] bytes = codec.encode(key);
+      int needed = RECORD_OVERHEAD + bytes.length;
+      if (pending.remaining() < needed) {
+         ByteBuffer bigger = ByteBuffer.allocate(
+            Math.max(pending.capacity() * 2, pending.position() + needed));
+         pending.flip();
+         pending = bigger.put(pending);
+      }
+      int start = pending.position();
+      pending.putInt(1 + bytes.length).put(op).put(bytes);
+      crc.reset();
+      crc.update(pending.array(), start, pending.position() - start);
+      pending.putInt((int) crc.getValue());
+      return ++appendedSeq;
+   }
+
+  /**
+   * Makes a record durable as the sync policy asks: waits for it with
+   * syncEvery 1, otherwise fsyncs once a whole batch is pending.
+   *
+   * @param seq The sequence number of the record
+   * @throws IOException if the log cannot be written
+   */
+   private void commit(long seq) throws IOException {
+      if (syncEvery == 1 || seq - this.syncedSeq() >= syncEvery) {
+         this.sync(seq);
+      }
+   }
+
+  /**
+   * Reads the last durable sequence number.
+   *
+   * @return the sequence number of the last record on disk
+   */
+   private synchronized long syncedSeq() {
+      return syncedSeq;
+   }
+
+  /**
+   * Forces every change made so far to disk.
+   *
+   * @throws IOException if the log cannot be written
+   */
+   public void sync() throws IOException {
+      long seq;
+      synchronized (this) {
+         seq = appendedSeq;
+      }
+      this.sync(seq);
+   }
+
+  /**
+   * Waits until a record is on disk, writing it and everything appended
+   * before it if no other caller is already doing so. Appends go on
+   * while a group is written, and the next caller writes them together.
+   *
+   * @param seq The sequence number to wait for
+   * @throws IOException if the log cannot be written
+   */
+   private void sync(long seq) throws IOException {
+      ByteBuffer group;
+      long groupSeq;
+      synchronized (this) {
+         while (syncing && syncedSeq < seq && failure == null) {
+            try {
+               this.wait();
+            }
+            catch (InterruptedException exception) {
+               Thread.currentThread().interrupt();
+               throw new IOException("Interrupted waiting for the log",
+                  exception);
+            }
+         }
+         if (failure != null) {
+            throw new IOException("Log failed", failure);
+         }
+         if (syncedSeq >= seq) {
+            return;
+         }
+         syncing = true;
+         group = pending;
+         groupSeq = appendedSeq;
+         pending = spare;
+      }
+      boolean compact;
+      try {
+         group.flip();
+         int bytes = group.remaining();
+         while (group.hasRemaining()) {
+            log.write(group);
+         }
+         log.force(false);
+         syncCount.incrementAndGet();
+         group.clear();
+         synchronized (this) {
+            logBytes += bytes;
+            syncedSeq = groupSeq;
+            spare = group;
+            syncing = false;
+            compact = logBytes >= compactionThreshold;
+            this.notifyAll();
+         }
+      }
+      catch (IOException exception) {
+         synchronized (this) {
+            failure = exception;
+            syncing = false;
+            this.notifyAll();
+         }
+         throw exception;
+      }
+      if (compact) {
+         this.compact();
+      }
+   }
+
+  /**
+   * Writes a snapshot of the tree and empties the log. Changes wait
+   * meanwhile. Records not yet written are dropped, the snapshot holds them.
+   * Moving the new snapshot over the one loaded at open assumes POSIX
+   * semantics, where a file can be replaced while a mapping of it may
+   * still be waiting for garbage collection; Windows refuses that.
+   *
+   * @throws IOException if the snapshot or the log cannot be written
+   */
+   public synchronized void compact() throws IOException {
+      this.checkWritable();
+      while (syncing) {
+         try {
+            this.wait();
+         }
+         catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the log", exception);
+         }
+      }
+      try {
+         tree.writeSnapshot(directory.resolve(SNAPSHOT), codec);
+         log.truncate(0);
+         log.force(true);
+      }
+      catch (IOException exception) {
+         failure = exception;
+         this.notifyAll();
+         throw exception;
+      }
+      logBytes = 0;
+      pending.clear();
+      syncedSeq = appendedSeq;
+      this.notifyAll();
+   }
+
+  /**
+   * Forces every change to disk and closes the log.
+   *
+   * @throws IOException if the log cannot be written
+   */
+   @Override
+   public void close() throws IOException {
+      boolean failed;
+      synchronized (this) {
+         if (closed) {
+            return;
+         }
+         failed = failure != null;
+      }
+      try {
+         if (!failed) {
+            this.sync();
+         }
+      }
+      finally {
+         synchronized (this) {
+            closed = true;
+            log.close();
+         }
+      }
+   }
+
+  /**
+   * Driver code, shows group commit, recovery from a torn log and
+   * compaction.
+   *
+   * @param args are not used
+   * @throws Exception if the temporary files cannot be used
+   */
+   public static void main(String[] args) throws Exception {
+      Path directory = Files.createTempDirectory("durable-tree");
+      final int threads = 8;
+      final int perThread = 500;
+      DurableBinarySearchTree<Integer> tree = DurableBinarySearchTree.open(
+         directory, KeyCodec.integers(), true, 1);
+      ArrayList<Thread> workers = new ArrayList<Thread>();
+      for (int t = 0; t < threads; t++) {
+         final int id = t;
+         workers.add(new Thread(() -> {
+            try {
+               for (int i = 0; i < perThread; i++) {
+                  tree.add(i * threads + id);
+               }
+            }
+            catch (IOException exception) {
+               throw new RuntimeException(exception);
+            }
+         }));
+      }
+      for (Thread worker : workers) {
+         worker.start();
+      }
+      for (Thread worker : workers) {
+         worker.join();
+      }
+      tree.remove(0);
+      // concurrent adds share fsyncs, so there are fewer than adds
+      System.out.println(threads * perThread + " durable adds from " + threads
+         + " threads, " + tree.syncCount.get() + " fsyncs, log "
+         + tree.logSize() + " bytes");
+
+      // crash: no close, and a torn record at the end of the log
+      tree.log.close();
+      try (FileChannel torn = FileChannel.open(directory.resolve(LOG),
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+         torn.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 5, ADD, 0, 0}));
+      }
+      DurableBinarySearchTree<Integer> recovered = DurableBinarySearchTree
+         .open(directory, KeyCodec.integers(), true, 64);
+      System.out.println("Recovered " + recovered.size() + " keys, contains 0: "
+         + recovered.contains(0) + ", log cut back to "
+         + recovered.logSize() + " bytes");
+
+      for (int i = 0; i < 1000; i++) {
+         recovered.removeIfPresent(i);
+      }
+      recovered.compact();
+      System.out.println("After compaction: " + recovered.size()
+         + " keys, log " + recovered.logSize() + " bytes");
+      recovered.close();
+      DurableBinarySearchTree<Integer> reopened = DurableBinarySearchTree
+         .open(directory, KeyCodec.integers(), true, 1);
+      System.out.println("Reopened " + reopened.size() + " keys, first "
+         + reopened.tree.first());
+      reopened.close();
+      for (String name : new String[] {SNAPSHOT, LOG}) {
+         Files.deleteIfExists(directory.resolve(name));
+      }
+      Files.delete(directory);
+   } // end of main
+} // end of class
@@ -0,0 +1,300 @@
+package binarysearchtree;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable search index made by BinarySearchTree.freeze().
+ * The items sit in one flat array in Eytzinger (breadth-first) order:
+ * the root is at 1 and the children of slot k are at 2k and 2k + 1.
+ * A search walks down the implicit tree with no child pointers to load,
+ * the top levels share a few cache lines, and the descent always runs
+ * the full height, so the only branch left is the loop test.
+ * get, floor, ceiling, lower and higher then recover the answer from
+ * the bits of the final slot number.
+ *
+ * @param <T> the type of items held in the index.
+ */
+public class FrozenBinarySearchTree<T extends Comparable<T>>
+      implements Iterable<T> {
+
+  /** Items in Eytzinger order, slot 0 unused. */
+   private final Object[] items;
+
+  /** Number of items. */
+   private final int size;
+
+  /**
+   * Constructor, copies the items of a tree.
+   *
+   * @param tree The tree to freeze
+   */
+   FrozenBinarySearchTree(BinarySearchTree<T> tree) {
+      size = tree.size();
+      items = new Object[size + 1];
+      this.fill(tree.iterator(), 1);
+   }
+
+  /**
+   * Fills a subtree of the layout in order from the sorted items.
+   *
+   * @param sorted The items in ascending order
+   * @param slot The root slot of the subtree
+   */
+   private void fill(Iterator<T> sorted, int slot) {
+      if (slot <= size) {
+         this.fill(sorted, 2 * slot);
+         items[slot] = sorted.next();
+         this.fill(sorted, 2 * slot + 1);
+      }
+   }
+
+  /**
+   * Accessor for a slot's item.
+   *
+   * @param slot The slot, from 1 to size
+   * @return the item
+   */
+   @SuppressWarnings("unchecked")
+   private T item(int slot) {
+      return (T) items[slot];
+   }
+
+  /**
+   * Walks from the root to past a leaf, going right at every item below
+   * the key (or at or below it, when inclusive).
+   *
+   * @param key The key to search for
+   * @param inclusive true to go right at items equal to the key too
+   * @return the slot number past the leaf, its bits record every turn
+   */
+   private int descend(T key, boolean inclusive) {
+      int slot = 1;
+      int limit = inclusive ? 1 : 0;
+      while (slot <= size) {
+         slot = 2 * slot + (this.item(slot).compareTo(key) < limit ? 1 : 0);
+      }
+      return slot;
+   }
+
+  /**
+   * The last slot the walk left by going right, the greatest item it
+   * passed that is below the key: drop the trailing left turns and one
+   * right turn.
+   *
+   * @param slot The slot number returned by descend
+   * @return the slot, or 0 if the walk never went right
+   */
+   private static int lastRightTurn(int slot) {
+      return slot >>> (Integer.numberOfTrailingZeros(slot) + 1);
+   }
+
+  /**
+   * The last slot the walk left by going left, the least item it passed
+   * that is above the key: drop the trailing right turns and one left turn.
+   *
+   * @param slot The slot number returned by descend
+   * @return the slot, or 0 if the walk never went left
+   */
+   private static int lastLeftTurn(int slot) {
+      return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+   }
+
+  /**
+   * Item in a slot, or null for slot 0.
+   *
+   * @param slot The slot
+   * @return the item, or null
+   */
+   private T itemOrNull(int slot) {
+      return slot == 0 ? null : this.item(slot);
+   }
+
+  /**
+   * gets an item from the index with the same search key.
+   *
+   * @param searchKey An object containing the search key
+   * @return the data item in the index with matching key.
+   * @throws TreeException if item not found
+   */
+   public T get(T searchKey) {
+      T found = this.ceiling(searchKey);
+      if (found == null || found.compareTo(searchKey) != 0) {
+         throw new TreeException("Item not found!");
+      }
+      return found;
+   }
+
+  /**
+   * Tells whether an item with the same search key is in the index.
+   *
+   * @param searchKey An object containing the search key
+   * @return true if a matching item is in the index
+   */
+   public boolean contains(T searchKey) {
+      T found = this.ceiling(searchKey);
+      return found != null && found.compareTo(searchKey) == 0;
+   }
+
+  /**
+   * The greatest item at or below a key.
+   *
+   * @param searchKey The key to look below
+   * @return the item, or null if there is none
+   */
+   public T floor(T searchKey) {
+      return this.itemOrNull(lastRightTurn(this.descend(searchKey, true)));
+   }
+
+  /**
+   * The least item at or above a key.
+   *
+   * @param searchKey The key to look above
+   * @return the item, or null if there is none
+   */
+   public T ceiling(T searchKey) {
+      return this.itemOrNull(lastLeftTurn(this.descend(searchKey, false)));
+   }
+
+  /**
+   * The greatest item strictly below a key.
+   *
+   * @param searchKey The key to look below
+   * @return the item, or null if there is none
+   */
+   public T lower(T searchKey) {
+      return this.itemOrNull(lastRightTurn(this.descend(searchKey, false)));
+   }
+
+  /**
+   * The least item strictly above a key.
+   *
+   * @param searchKey The key to look above
+   * @return the item, or null if there is none
+   */
+   public T higher(T searchKey) {
+      return this.itemOrNull(lastLeftTurn(this.descend(searchKey, true)));
+   }
+
+  /**
+   * Number of items in the index.
+   *
+   * @return the item count
+   */
+   public int size() {
+      return size;
+   }
+
+  /**
+   * The smallest item, at the end of the leftmost path.
+   *
+   * @return the first item in ascending order
+   * @throws NoSuchElementException if the index is empty
+   */
+   public T first() {
+      if (size == 0) {
+         throw new NoSuchElementException();
+      }
+      return this.item(this.leftmost(1));
+   }
+
+  /**
+   * The largest item, at the end of the rightmost path.
+   *
+   * @return the last item in ascending order
+   * @throws NoSuchElementException if the index is empty
+   */
+   public T last() {
+      if (size == 0) {
+         throw new NoSuchElementException();
+      }
+      int slot = 1;
+      while (2 * slot + 1 <= size) {
+         slot = 2 * slot + 1;
+      }
+      return this.item(slot);
+   }
+
+  /**
+   * Leftmost slot of a subtree.
+   *
+   * @param slot The root slot of the subtree
+   * @return the slot holding the subtree's smallest item
+   */
+   private int leftmost(int slot) {
+      while (2 * slot <= size) {
+         slot = 2 * slot;
+      }
+      return slot;
+   }
+
+  /**
+   * In-order iterator, walks the implicit tree without a stack.
+   *
+   * @return an iterator over the items in ascending order
+   */
+   @Override
+   public Iterator<T> iterator() {
+      return new Iterator<T>() {
+         private int slot = size == 0 ? 0 : leftmost(1);
+
+         @Override
+         public boolean hasNext() {
+            return slot != 0;
+         }
+
+         @Override
+         public T next() {
+            if (slot == 0) {
+               throw new NoSuchElementException();
+            }
+            T current = item(slot);
+            if (2 * slot + 1 <= size) {
+               slot = leftmost(2 * slot + 1);
+            }
+            else {
+               // climb past the right turns, then one more level
+               slot = lastLeftTurn(slot);
+            }
+            return current;
+         }
+      };
+   }
+
+  /**
+   * called automatically by println/print method.
+   *
+   * @return an inorder String of the index
+   */
+   public String toString() {
+      StringBuilder displayNodes = new StringBuilder();
+      for (T item : this) {
+         displayNodes.append(item).append(", ");
+      }
+      return displayNodes.toString();
+   }
+
+  /**
+   * Driver code to test class.
+   *
+   * @param args are not used
+   */
+   public static void main(String[] args) {
+      BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(true);
+      for (int i = 0; i < 20; i += 2) {
+         tree.add(i);
+      }
+      FrozenBinarySearchTree<Integer> frozen = tree.freeze();
+      tree.add(7);
+      System.out.println("Frozen: " + frozen + " size " + frozen.size());
+      System.out.println("Tree after adding 7: " + tree);
+      System.out.println("contains 7: " + frozen.contains(7)
+         + ", get 8: " + frozen.get(8));
+      System.out.println("floor 7: " + frozen.floor(7) + ", ceiling 7: "
+         + frozen.ceiling(7) + ", lower 8: " + frozen.lower(8)
+         + ", higher 8: " + frozen.higher(8));
+      System.out.println("floor -1: " + frozen.floor(-1) + ", ceiling 19: "
+         + frozen.ceiling(19) + ", first " + frozen.first() + ", last "
+         + frozen.last());
+   } // end of main
+} // end of class
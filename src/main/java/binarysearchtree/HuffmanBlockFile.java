@@ -0,0 +1,628 @@
+package binarysearchtree;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Huffman compressed container of independent blocks. The input is cut
+ * into fixed-size blocks, each coded with a codebook of its own, so blocks
+ * are compressed and decompressed in parallel on the fork-join common pool,
+ * and any block can be decoded alone.
+ * <p>
+ * Layout: the blocks one after another, each a HuffmanTree header, a bit
+ * length (long) and the packed bits; then the index, the offset (long) of
+ * each block; then a trailer: the index offset (long), the uncompressed
+ * length (long), the block size (int) and MAGIC (int).
+ */
+public final class HuffmanBlockFile implements AutoCloseable {
+    /** Last bytes of a block file, "HUFB". */
+    static final int MAGIC = 0x48554642;
+    /** Default uncompressed bytes per block. */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    /** Bytes of the trailer. */
+    private static final int TRAILER = 2 * Long.BYTES + 2 * Integer.BYTES;
+    /** Most bytes of blocks the file compressor holds at once. */
+    private static final long BATCH_BYTES = 1L << 28;
+
+    /** The compressed bytes when held in memory, or null. */
+    private final ByteBuffer memory;
+    /** The compressed file, or null. */
+    private final FileChannel channel;
+    /** Uncompressed length. */
+    private final long length;
+    /** Uncompressed bytes per block, all but the last block are full. */
+    private final int blockSize;
+    /** Offset of each block, then of the index. */
+    private final long[] offsets;
+
+    /**
+     * Constructor, for open and wrap.
+     *
+     * @param memory the compressed bytes, or null
+     * @param channel the compressed file, or null
+     * @param length the uncompressed length
+     * @param blockSize the uncompressed bytes per block
+     * @param offsets offset of each block, then of the index
+     */
+    private HuffmanBlockFile(ByteBuffer memory, FileChannel channel, long length, int blockSize,
+            long[] offsets) {
+        this.memory = memory;
+        this.channel = channel;
+        this.length = length;
+        this.blockSize = blockSize;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Compresses bytes with blocks of DEFAULT_BLOCK_SIZE.
+     *
+     * @param data the bytes to compress
+     * @return the block file bytes
+     */
+    public static byte[] compress(byte[] data) {
+        return compress(data, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Compresses bytes, coding the blocks in parallel.
+     *
+     * @param data the bytes to compress
+     * @param blockSize uncompressed bytes per block
+     * @return the block file bytes
+     * @throws IllegalArgumentException if blockSize is out of range or the
+     *         result is over 2 GB
+     */
+    public static byte[] compress(byte[] data, int blockSize) {
+        return compress(data, blockSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compresses bytes, coding the blocks on a given pool, for example a
+     * pool of one thread to measure what the parallelism gains.
+     *
+     * @param data the bytes to compress
+     * @param blockSize uncompressed bytes per block
+     * @param pool runs the block tasks
+     * @return the block file bytes
+     */
+    public static byte[] compress(byte[] data, int blockSize, ForkJoinPool pool) {
+        checkBlockSize(blockSize);
+        int count = blockCount(data.length, blockSize);
+        ByteBuffer[] blocks = new ByteBuffer[count];
+        pool.invoke(new BlockTask(0, count, i -> {
+            int from = i * blockSize;
+            blocks[i] = HuffmanOutputStream.encodeBlock(
+                ByteBuffer.wrap(data, from, Math.min(blockSize, data.length - from)),
+                new int[256], null, 0);
+        }));
+        long size = TRAILER + (long) Long.BYTES * count;
+        for (ByteBuffer block : blocks) {
+            size += block.position();
+        }
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Compressed data is over 2 GB");
+        }
+        ByteBuffer out = ByteBuffer.allocate((int) size);
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = out.position();
+            out.put(blocks[i].array(), 0, blocks[i].position());
+        }
+        writeIndex(out, offsets, out.position(), data.length, blockSize);
+        return out.array();
+    }
+
+    /**
+     * Compresses a file into another. The source is memory mapped a batch
+     * of blocks at a time, the batch coded in parallel and written in order,
+     * so memory stays bounded whatever the file size.
+     *
+     * @param source the file to compress
+     * @param target the block file, replaced if it exists
+     * @param blockSize uncompressed bytes per block
+     * @return the size of the block file
+     * @throws IOException if a file cannot be read or written
+     * @throws IllegalArgumentException if blockSize is out of range
+     */
+    public static long compress(Path source, Path target, int blockSize) throws IOException {
+        checkBlockSize(blockSize);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long total = (size + blockSize - 1) / blockSize;
+            if (total > Integer.MAX_VALUE - 8) {
+                throw new IOException("Too many blocks, use bigger ones");
+            }
+            int count = (int) total;
+            long[] offsets = new long[count];
+            int batch = (int) Math.max(1, Math.min(count, BATCH_BYTES / blockSize));
+            ByteBuffer[] blocks = new ByteBuffer[batch];
+            long written = 0;
+            for (int first = 0; first < count; first += batch) {
+                int n = Math.min(batch, count - first);
+                long start = (long) first * blockSize;
+                ByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min((long) n * blockSize, size - start));
+                ForkJoinPool.commonPool().invoke(new BlockTask(0, n, i -> {
+                    int from = i * blockSize;
+                    blocks[i] = HuffmanOutputStream.encodeBlock(
+                        mapped.slice(from, Math.min(blockSize, mapped.limit() - from)),
+                        new int[256], null, 0);
+                }));
+                for (int i = 0; i < n; i++) {
+                    offsets[first + i] = written;
+                    blocks[i].flip();
+                    written += blocks[i].remaining();
+                    while (blocks[i].hasRemaining()) {
+                        out.write(blocks[i]);
+                    }
+                    blocks[i] = null;
+                }
+            }
+            ByteBuffer index = ByteBuffer.allocate(TRAILER + Long.BYTES * count);
+            writeIndex(index, offsets, written, size, blockSize);
+            index.flip();
+            long end = written + index.remaining();
+            while (index.hasRemaining()) {
+                out.write(index);
+            }
+            return end;
+        }
+    }
+
+    /**
+     * Appends the index and the trailer.
+     *
+     * @param out receives them
+     * @param offsets the offset of each block
+     * @param indexOffset where the index starts, the end of the last block
+     * @param length the uncompressed length
+     * @param blockSize uncompressed bytes per block
+     */
+    private static void writeIndex(ByteBuffer out, long[] offsets, long indexOffset, long length,
+            int blockSize) {
+        for (long offset : offsets) {
+            out.putLong(offset);
+        }
+        out.putLong(indexOffset).putLong(length).putInt(blockSize).putInt(MAGIC);
+    }
+
+    /**
+     * Opens a block file for reading.
+     *
+     * @param path the block file
+     * @return the reader, to be closed
+     * @throws IOException if the file cannot be read or is not a block file
+     */
+    public static HuffmanBlockFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < TRAILER) {
+                throw new IOException("Not a Huffman block file");
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+            readFully(channel, trailer, size - TRAILER);
+            trailer.flip();
+            long indexOffset = trailer.getLong();
+            long length = trailer.getLong();
+            int blockSize = trailer.getInt();
+            checkTrailer(trailer.getInt(), indexOffset, length, blockSize, size);
+            int count = blockCount(length, blockSize);
+            ByteBuffer index = ByteBuffer.allocate(Long.BYTES * count);
+            readFully(channel, index, indexOffset);
+            index.flip();
+            return new HuffmanBlockFile(null, channel, length, blockSize,
+                readOffsets(index, count, indexOffset));
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Reads block file bytes held in memory.
+     *
+     * @param compressed the block file bytes
+     * @return the reader
+     * @throws IOException if the bytes are not a block file
+     */
+    public static HuffmanBlockFile wrap(byte[] compressed) throws IOException {
+        ByteBuffer memory = ByteBuffer.wrap(compressed);
+        int size = compressed.length;
+        if (size < TRAILER) {
+            throw new IOException("Not a Huffman block file");
+        }
+        long indexOffset = memory.getLong(size - TRAILER);
+        long length = memory.getLong(size - TRAILER + Long.BYTES);
+        int blockSize = memory.getInt(size - TRAILER + 2 * Long.BYTES);
+        checkTrailer(memory.getInt(size - Integer.BYTES), indexOffset, length, blockSize, size);
+        int count = blockCount(length, blockSize);
+        return new HuffmanBlockFile(memory, null, length, blockSize,
+            readOffsets(memory.slice((int) indexOffset, Long.BYTES * count), count, indexOffset));
+    }
+
+    /**
+     * Checks the trailer fields against the file size.
+     *
+     * @param magic the last int of the file
+     * @param indexOffset where the index starts
+     * @param length the uncompressed length
+     * @param blockSize uncompressed bytes per block
+     * @param size the file size
+     * @throws IOException if they do not fit together
+     */
+    private static void checkTrailer(int magic, long indexOffset, long length, int blockSize,
+            long size) throws IOException {
+        if (magic != MAGIC) {
+            throw new IOException("Not a Huffman block file");
+        }
+        if (blockSize < 1 || blockSize > HuffmanOutputStream.MAX_CHUNK_SIZE || length < 0
+                || (length + blockSize - 1) / blockSize > Integer.MAX_VALUE - 8
+                || indexOffset < 0
+                || indexOffset + Long.BYTES * ((length + blockSize - 1) / blockSize)
+                    != size - TRAILER) {
+            throw new IOException("Damaged block file trailer");
+        }
+    }
+
+    /**
+     * Reads the block offsets and checks that they increase.
+     *
+     * @param index the index
+     * @param count the number of blocks
+     * @param indexOffset where the index starts, the end of the last block
+     * @return the offsets, then indexOffset
+     * @throws IOException if the offsets are out of order
+     */
+    private static long[] readOffsets(ByteBuffer index, int count, long indexOffset)
+            throws IOException {
+        long[] offsets = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = index.getLong();
+        }
+        offsets[count] = indexOffset;
+        long previous = 0;
+        for (long offset : offsets) {
+            if (offset < previous) {
+                throw new IOException("Damaged block file index");
+            }
+            previous = offset;
+        }
+        return offsets;
+    }
+
+    /**
+     * Uncompressed length.
+     *
+     * @return the number of bytes compressed
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Uncompressed bytes per block.
+     *
+     * @return the block size
+     */
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Number of blocks.
+     *
+     * @return the block count
+     */
+    public int blockCount() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Decodes one block.
+     *
+     * @param block the block number
+     * @return its bytes
+     * @throws IOException if the block is damaged or cannot be read
+     * @throws IndexOutOfBoundsException if there is no such block
+     */
+    public byte[] readBlock(int block) throws IOException {
+        Objects.checkIndex(block, blockCount());
+        byte[] bytes = new byte[blockLength(block)];
+        HuffmanInputStream.decodeBlock(compressedBlock(block), bytes.length, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Reads uncompressed bytes from any position, decoding only the blocks
+     * they fall in.
+     *
+     * @param position the uncompressed offset of the first byte
+     * @param b receives the bytes
+     * @param off the first index to fill
+     * @param len the most bytes to read
+     * @return the number of bytes read, or -1 if position is at or past the end
+     * @throws IOException if a block is damaged or cannot be read
+     */
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        if (position >= length) {
+            return -1;
+        }
+        int read = 0;
+        while (read < len && position < length) {
+            int block = (int) (position / blockSize);
+            int from = (int) (position % blockSize);
+            byte[] bytes = readBlock(block);
+            int n = Math.min(len - read, bytes.length - from);
+            System.arraycopy(bytes, from, b, off + read, n);
+            read += n;
+            position += n;
+        }
+        return read;
+    }
+
+    /**
+     * Decodes every block in parallel into one array.
+     *
+     * @return the uncompressed bytes
+     * @throws IOException if a block is damaged or cannot be read
+     * @throws IllegalStateException if the length is over 2 GB
+     */
+    public byte[] decompress() throws IOException {
+        return decompress(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decodes every block on a given pool into one array.
+     *
+     * @param pool runs the block tasks
+     * @return the uncompressed bytes
+     * @throws IOException if a block is damaged or cannot be read
+     * @throws IllegalStateException if the length is over 2 GB
+     */
+    public byte[] decompress(ForkJoinPool pool) throws IOException {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Over 2 GB, use decompress(Path)");
+        }
+        byte[] bytes = new byte[(int) length];
+        run(pool, i -> {
+            try {
+                HuffmanInputStream.decodeBlock(compressedBlock(i), blockLength(i),
+                    ByteBuffer.wrap(bytes, i * blockSize, blockLength(i)));
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        });
+        return bytes;
+    }
+
+    /**
+     * Decodes every block in parallel into a file, each written at its place.
+     *
+     * @param target the uncompressed file, replaced if it exists
+     * @return the uncompressed length
+     * @throws IOException if a block is damaged, or a file cannot be read or written
+     */
+    public long decompress(Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            run(ForkJoinPool.commonPool(), i -> {
+                try {
+                    ByteBuffer bytes = ByteBuffer.wrap(readBlock(i));
+                    long at = (long) i * blockSize;
+                    while (bytes.hasRemaining()) {
+                        at += out.write(bytes, at);
+                    }
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            });
+        }
+        return length;
+    }
+
+    /**
+     * Closes the file, if reading one.
+     *
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Runs a task per block, turning their IOExceptions back into checked ones.
+     *
+     * @param pool runs the tasks
+     * @param work the task for one block, by number
+     * @throws IOException if a task failed with one
+     */
+    private void run(ForkJoinPool pool, IntConsumer work) throws IOException {
+        try {
+            pool.invoke(new BlockTask(0, blockCount(), work));
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    /**
+     * Uncompressed length of a block.
+     *
+     * @param block the block number
+     * @return its length
+     */
+    private int blockLength(int block) {
+        return (int) Math.min(blockSize, length - (long) block * blockSize);
+    }
+
+    /**
+     * Gets the compressed bytes of a block, read from the file if not in memory.
+     *
+     * @param block the block number
+     * @return the block, from position to limit
+     * @throws IOException if the file cannot be read
+     */
+    private ByteBuffer compressedBlock(int block) throws IOException {
+        long start = offsets[block];
+        long size = offsets[block + 1] - start;
+        if (size > (long) blockSize * HuffmanTree.MAX_CODE_LENGTH / 8 + (1 << 12)) {
+            throw new IOException("Damaged block file index");
+        }
+        if (memory != null) {
+            return memory.slice((int) start, (int) size);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) size);
+        readFully(channel, bytes, start);
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Fills a buffer from a file position.
+     *
+     * @param channel the file
+     * @param buffer the buffer to fill
+     * @param position where to read from
+     * @throws IOException if the file ends first or cannot be read
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Block file is cut short");
+            }
+        }
+    }
+
+    /**
+     * Number of blocks for a length.
+     *
+     * @param length the uncompressed length
+     * @param blockSize uncompressed bytes per block
+     * @return the block count
+     */
+    private static int blockCount(long length, int blockSize) {
+        return (int) ((length + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * Throws if a block size is out of range.
+     *
+     * @param blockSize uncompressed bytes per block
+     */
+    private static void checkBlockSize(int blockSize) {
+        if (blockSize < 1 || blockSize > HuffmanOutputStream.MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Block size must be 1 to "
+                + HuffmanOutputStream.MAX_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Fork-join task running work for a range of blocks, halving the range
+     * until one block is left.
+     */
+    private static final class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        /** First block of the range. */
+        private final int from;
+        /** Block after the range. */
+        private final int to;
+        /** The work for one block. */
+        private final transient IntConsumer work;
+
+        /**
+         * Task for a range of blocks.
+         *
+         * @param from the first block
+         * @param to the block after the last
+         * @param work the work for one block
+         */
+        BlockTask(int from, int to, IntConsumer work) {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    work.accept(from);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BlockTask(from, middle, work), new BlockTask(middle, to, work));
+        }
+    }
+
+    /**
+     * Driver code, compresses generated data, reads a block back alone and
+     * round trips a file. HuffmanBenchmarks measures the throughput, on
+     * one thread and on the common pool.
+     *
+     * @param args the data size in MB, 16 if not given
+     * @throws IOException if the temporary files cannot be used
+     */
+    public static void main(String[] args) throws IOException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        byte[] data = new byte[megabytes << 20];
+        Random random = new Random(1);
+        for (int i = 0; i < data.length; i++) {
+            // text-like skew: a few bytes common, the rest rare
+            data[i] = (byte) ('a' + Math.min(25, (int) Math.abs(random.nextGaussian() * 6)));
+        }
+        ForkJoinPool single = new ForkJoinPool(1);
+        byte[] one = compress(data, DEFAULT_BLOCK_SIZE, single);
+        byte[] all = compress(data);
+        HuffmanBlockFile file = wrap(all);
+        byte[] oneBack = file.decompress(single);
+        byte[] allBack = file.decompress();
+        single.shutdown();
+        System.out.printf("%d MB in %d blocks to %.1f%%, same on 1 and %d threads: %b,"
+            + " round trip %b%n", megabytes, file.blockCount(), 100.0 * all.length / data.length,
+            ForkJoinPool.commonPool().getParallelism(), Arrays.equals(one, all),
+            Arrays.equals(oneBack, data) && Arrays.equals(allBack, data));
+
+        byte[] some = new byte[100];
+        long position = data.length - 1234567L;
+        file.read(position, some, 0, some.length);
+        System.out.printf("Random access: 100 bytes at %d, same %b%n", position,
+            Arrays.equals(some, 0, 100, data, (int) position, (int) position + 100));
+
+        Path source = Files.createTempFile("blocks", ".bin");
+        Path compressed = Files.createTempFile("blocks", ".hufb");
+        Path restored = Files.createTempFile("blocks", ".out");
+        Files.write(source, data);
+        long size = compress(source, compressed, DEFAULT_BLOCK_SIZE);
+        try (HuffmanBlockFile opened = open(compressed)) {
+            opened.decompress(restored);
+        }
+        System.out.println("File round trip: " + size + " bytes, same as in memory "
+            + (size == all.length) + ", restored " + Arrays.equals(Files.readAllBytes(restored), data));
+        for (Path path : new Path[] {source, compressed, restored}) {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package binarysearchtree;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * InputStream that decompresses what a HuffmanOutputStream wrote. It holds
+ * one frame at a time, so memory stays bounded by the chunk size.
+ */
+public class HuffmanInputStream extends FilterInputStream {
+    /** Reads the frame fields. */
+    private final DataInputStream data;
+    /** Packed bits of the current frame, reused and grown as needed. */
+    private byte[] packed = new byte[0];
+    /** Decoded bytes of the current frame, position at the next byte to read. */
+    private ByteBuffer chunk = ByteBuffer.allocate(0);
+    /** True once MAGIC is read. */
+    private boolean started = false;
+    /** True once closed. */
+    private boolean closed = false;
+
+    /**
+     * Constructs a stream.
+     *
+     * @param in the compressed bytes
+     */
+    public HuffmanInputStream(InputStream in) {
+        super(in);
+        this.data = new DataInputStream(in);
+    }
+
+    /**
+     * Reads one byte.
+     *
+     * @return the byte, or -1 at the end of the stream
+     * @throws IOException if the compressed bytes are damaged or cannot be read
+     */
+    @Override
+    public int read() throws IOException {
+        if (!chunk.hasRemaining() && !nextFrame()) {
+            return -1;
+        }
+        return chunk.get() & 0xff;
+    }
+
+    /**
+     * Reads bytes, at most up to the end of the current frame.
+     *
+     * @param b receives the bytes
+     * @param off the first index to fill
+     * @param len the most bytes to read
+     * @return the number of bytes read, or -1 at the end of the stream
+     * @throws IOException if the compressed bytes are damaged or cannot be read
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!chunk.hasRemaining() && !nextFrame()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.remaining());
+        chunk.get(b, off, n);
+        return n;
+    }
+
+    /**
+     * Skips decompressed bytes.
+     *
+     * @param n the number of bytes to skip
+     * @return the number of bytes skipped
+     * @throws IOException if the compressed bytes are damaged or cannot be read
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (chunk.hasRemaining() || nextFrame())) {
+            int step = (int) Math.min(n - skipped, chunk.remaining());
+            chunk.position(chunk.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    /**
+     * Bytes readable without reading another frame.
+     *
+     * @return the bytes left in the current frame
+     * @throws IOException if closed
+     */
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return chunk.remaining();
+    }
+
+    /**
+     * Tells that mark and reset are not supported.
+     *
+     * @return false
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Does nothing, mark is not supported.
+     *
+     * @param readlimit not used
+     */
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    /**
+     * Always fails, mark is not supported.
+     *
+     * @throws IOException always
+     */
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IOException if the underlying stream fails
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        chunk = ByteBuffer.allocate(0);
+        in.close();
+    }
+
+    /**
+     * Throws if the stream is closed.
+     *
+     * @throws IOException if closed
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Reads and decodes the next frame into chunk.
+     *
+     * @return false at the end of the stream
+     * @throws IOException if the compressed bytes are damaged or cannot be read
+     */
+    boolean nextFrame() throws IOException {
+        ensureOpen();
+        if (!started) {
+            if (data.readInt() != HuffmanOutputStream.MAGIC) {
+                throw new IOException("Not a Huffman stream");
+            }
+            started = true;
+        }
+        int first = data.read();
+        if (first < 0) {
+            return false;
+        }
+        int count = (first << 24) | (data.readUnsignedByte() << 16) | data.readUnsignedShort();
+        if (count < 1 || count > HuffmanOutputStream.MAX_CHUNK_SIZE) {
+            throw new IOException("Damaged frame length " + count);
+        }
+        int symbols = data.readInt();
+        if (symbols < 1 || symbols > 256) {
+            throw new IOException("Damaged frame header");
+        }
+        int headerBytes = Integer.BYTES + 3 * symbols;
+        if (packed.length < headerBytes + Long.BYTES) {
+            packed = new byte[Math.max(headerBytes + Long.BYTES, 2 * packed.length)];
+        }
+        ByteBuffer.wrap(packed).putInt(symbols);
+        data.readFully(packed, Integer.BYTES, headerBytes - Integer.BYTES + Long.BYTES);
+        long bits = ByteBuffer.wrap(packed).getLong(headerBytes);
+        if (bits < count || bits > (long) count * HuffmanTree.MAX_CODE_LENGTH) {
+            throw new IOException("Damaged frame bit length " + bits);
+        }
+        int size = headerBytes + Long.BYTES + (int) ((bits + 7) >>> 3);
+        if (packed.length < size) {
+            packed = Arrays.copyOf(packed, Math.max(size, 2 * packed.length));
+        }
+        data.readFully(packed, headerBytes + Long.BYTES, size - headerBytes - Long.BYTES);
+        if (chunk.capacity() < count) {
+            chunk = ByteBuffer.allocate(Math.max(count, 2 * chunk.capacity()));
+        }
+        chunk.clear();
+        chunk.limit(count);
+        decodeBlock(ByteBuffer.wrap(packed, 0, size), count, chunk);
+        chunk.flip();
+        return true;
+    }
+
+    /**
+     * Decodes a block written by HuffmanOutputStream.encodeBlock.
+     *
+     * @param block the block, from its position on
+     * @param count the number of bytes the block holds
+     * @param out receives the bytes, from its position on
+     * @throws IOException if the block is damaged
+     */
+    static void decodeBlock(ByteBuffer block, int count, ByteBuffer out) throws IOException {
+        try {
+            HuffmanTree tree = HuffmanTree.fromHeader(block);
+            long bits = block.getLong();
+            if (bits < count || bits > (long) count * HuffmanTree.MAX_CODE_LENGTH) {
+                throw new IOException("Damaged block bit length " + bits);
+            }
+            if (tree.decode(block, bits, out) != count) {
+                throw new IOException("Damaged block: wrong byte count");
+            }
+        } catch (IllegalArgumentException | BufferOverflowException
+                | BufferUnderflowException exception) {
+            throw new IOException("Damaged block", exception);
+        }
+    }
+
+    /**
+     * Decompresses a file written by HuffmanOutputStream into another,
+     * writing each frame straight from its buffer.
+     *
+     * @param source the compressed file
+     * @param target the decompressed file, replaced if it exists
+     * @return the size of the decompressed file
+     * @throws IOException if a file cannot be read or written, or is damaged
+     */
+    public static long decompress(Path source, Path target) throws IOException {
+        long size = 0;
+        try (HuffmanInputStream in = new HuffmanInputStream(
+                    new BufferedInputStream(Files.newInputStream(source), 1 << 16));
+                OutputStream out = Files.newOutputStream(target)) {
+            while (in.nextFrame()) {
+                out.write(in.chunk.array(), 0, in.chunk.limit());
+                size += in.chunk.limit();
+                in.chunk.position(in.chunk.limit());
+            }
+        } catch (EOFException exception) {
+            throw new IOException("Compressed file is cut short", exception);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,333 @@
+package binarysearchtree;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * OutputStream that Huffman compresses the bytes written to it. Bytes are
+ * collected into chunks and each chunk is written as a frame with its own
+ * codebook, so memory stays bounded by the chunk size whatever the length
+ * of the stream, and each chunk is coded for its own byte frequencies.
+ * <p>
+ * The stream starts with MAGIC (int); each frame is the number of bytes in
+ * the chunk (int), the HuffmanTree header of its codes, the bit length of
+ * the packed bits (long) and the packed bits. HuffmanInputStream reads it.
+ */
+public class HuffmanOutputStream extends FilterOutputStream {
+    /** First bytes of a compressed stream, "HUFS". */
+    static final int MAGIC = 0x48554653;
+    /** Default bytes per chunk. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 18;
+    /** Largest chunk, so a damaged frame cannot make a reader allocate more. */
+    static final int MAX_CHUNK_SIZE = 1 << 28;
+
+    /** Bytes collected for the next frame. */
+    private final ByteBuffer chunk;
+    /** Occurrences of each byte value in the chunk being framed. */
+    private final int[] counts = new int[256];
+    /** Frame being written, reused and grown as needed. */
+    private ByteBuffer frame = ByteBuffer.allocate(0);
+    /** True once MAGIC is written. */
+    private boolean started = false;
+    /** True once closed. */
+    private boolean closed = false;
+    /** Bytes written to the underlying stream. */
+    private long written = 0;
+
+    /**
+     * Constructs a stream with DEFAULT_CHUNK_SIZE chunks.
+     *
+     * @param out the stream receiving the compressed bytes
+     */
+    public HuffmanOutputStream(OutputStream out) {
+        this(out, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a stream.
+     *
+     * @param out the stream receiving the compressed bytes
+     * @param chunkSize bytes per frame, 1 to MAX_CHUNK_SIZE; bigger chunks
+     *        spread the codebook over more bytes
+     * @throws IllegalArgumentException if chunkSize is out of range
+     */
+    public HuffmanOutputStream(OutputStream out, int chunkSize) {
+        super(out);
+        if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be 1 to " + MAX_CHUNK_SIZE);
+        }
+        this.chunk = ByteBuffer.allocate(chunkSize);
+    }
+
+    /**
+     * Writes one byte.
+     *
+     * @param b the byte, in the low 8 bits
+     * @throws IOException if the underlying stream fails
+     */
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        chunk.put((byte) b);
+        if (!chunk.hasRemaining()) {
+            writeChunk();
+        }
+    }
+
+    /**
+     * Writes bytes. Whole chunks are framed straight from the array.
+     *
+     * @param b the bytes
+     * @param off the first byte to write
+     * @param len the number of bytes to write
+     * @throws IOException if the underlying stream fails
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+        while (len > 0) {
+            if (chunk.position() == 0 && len >= chunk.capacity()) {
+                writeFrame(ByteBuffer.wrap(b, off, chunk.capacity()));
+                off += chunk.capacity();
+                len -= chunk.capacity();
+                continue;
+            }
+            int n = Math.min(len, chunk.remaining());
+            chunk.put(b, off, n);
+            off += n;
+            len -= n;
+            if (!chunk.hasRemaining()) {
+                writeChunk();
+            }
+        }
+    }
+
+    /**
+     * Writes the bytes collected so far as a frame, even a short one, and
+     * flushes the underlying stream.
+     *
+     * @throws IOException if the underlying stream fails
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (chunk.position() > 0) {
+            writeChunk();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the last frame and closes the underlying stream.
+     *
+     * @throws IOException if the underlying stream fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            finish();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the last frame, or MAGIC alone for an empty stream, and
+     * flushes the underlying stream without closing it.
+     *
+     * @throws IOException if the underlying stream fails
+     */
+    void finish() throws IOException {
+        ensureOpen();
+        if (chunk.position() > 0) {
+            writeChunk();
+        }
+        if (!started) {
+            writeMagic();
+        }
+        out.flush();
+    }
+
+    /**
+     * Bytes written to the underlying stream so far.
+     *
+     * @return the compressed size
+     */
+    public long getCompressedSize() {
+        return written;
+    }
+
+    /**
+     * Throws if the stream is closed.
+     *
+     * @throws IOException if closed
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Frames the collected bytes and empties the chunk.
+     *
+     * @throws IOException if the underlying stream fails
+     */
+    private void writeChunk() throws IOException {
+        chunk.flip();
+        writeFrame(chunk);
+        chunk.clear();
+    }
+
+    /**
+     * Writes the stream's first bytes.
+     *
+     * @throws IOException if the underlying stream fails
+     */
+    private void writeMagic() throws IOException {
+        out.write(ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC).array());
+        written += Integer.BYTES;
+        started = true;
+    }
+
+    /**
+     * Compresses bytes as one frame with its own codebook.
+     *
+     * @param data the bytes, from position to limit, at most MAX_CHUNK_SIZE
+     * @throws IOException if the underlying stream fails
+     */
+    void writeFrame(ByteBuffer data) throws IOException {
+        if (!started) {
+            writeMagic();
+        }
+        int count = data.remaining();
+        frame = encodeBlock(data, counts, frame, Integer.BYTES);
+        frame.putInt(0, count);
+        out.write(frame.array(), 0, frame.position());
+        written += frame.position();
+    }
+
+    /**
+     * Codes bytes with a codebook built for them alone: the HuffmanTree
+     * header, the bit length (long), then the packed bits.
+     *
+     * @param data the bytes, from position to limit; consumed
+     * @param counts scratch space for the byte counts, 256 entries
+     * @param reuse a buffer to write into if big enough, or null
+     * @param reserve bytes to leave free at the start of the result
+     * @return the buffer holding the block, positioned after it
+     */
+    static ByteBuffer encodeBlock(ByteBuffer data, int[] counts, ByteBuffer reuse, int reserve) {
+        Arrays.fill(counts, 0);
+        int end = data.limit();
+        for (int i = data.position(); i < end; i++) {
+            counts[data.get(i) & 0xff]++;
+        }
+        HuffmanTree tree = HuffmanTree.fromFrequencies(counts);
+        long bits = 0;
+        for (int b = 0; b < counts.length; b++) {
+            if (counts[b] > 0) {
+                bits += (long) counts[b] * tree.codeLengths[b];
+            }
+        }
+        byte[] header = tree.header();
+        int size = reserve + header.length + Long.BYTES + (int) ((bits + 7) >>> 3);
+        ByteBuffer block = reuse;
+        if (block == null || block.capacity() < size) {
+            block = ByteBuffer.allocate(reuse == null ? size : Math.max(size, 2 * reuse.capacity()));
+        }
+        block.clear();
+        block.position(reserve);
+        block.put(header).putLong(bits);
+        tree.encode(data, block);
+        return block;
+    }
+
+    /**
+     * Compresses a file into another, reading the source through memory
+     * mapped windows so each chunk is framed straight from the mapping.
+     *
+     * @param source the file to compress
+     * @param target the compressed file, replaced if it exists
+     * @return the size of the compressed file
+     * @throws IOException if a file cannot be read or written
+     */
+    public static long compress(Path source, Path target) throws IOException {
+        final long window = (long) DEFAULT_CHUNK_SIZE << 10;
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+                HuffmanOutputStream out = new HuffmanOutputStream(Files.newOutputStream(target))) {
+            long size = channel.size();
+            for (long at = 0; at < size; at += window) {
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, at,
+                    Math.min(window, size - at));
+                for (int i = 0; i < mapped.limit(); i += DEFAULT_CHUNK_SIZE) {
+                    out.writeFrame(mapped.slice(i, Math.min(DEFAULT_CHUNK_SIZE, mapped.limit() - i)));
+                }
+            }
+            out.finish();
+            return out.getCompressedSize();
+        }
+    }
+
+    /**
+     * Driver code, compresses a generated file through the mapped path and
+     * streams it back, checking the round trip. HuffmanBenchmarks measures
+     * the throughput.
+     *
+     * @param args the file size in MB, 4 if not given
+     * @throws IOException if the temporary files cannot be used
+     */
+    public static void main(String[] args) throws IOException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        Path source = Files.createTempFile("huffman", ".txt");
+        Path compressed = Files.createTempFile("huffman", ".huf");
+        Path restored = Files.createTempFile("huffman", ".out");
+        String[] words = {"the ", "tree ", "of ", "binary ", "search ", "and ", "huffman ",
+            "codes ", "a ", "node ", "left ", "right ", "\n"};
+        Random random = new Random(1);
+        try (OutputStream out = Files.newOutputStream(source)) {
+            StringBuilder line = new StringBuilder();
+            for (long bytes = 0; bytes < (long) megabytes << 20; ) {
+                line.setLength(0);
+                while (line.length() < 1 << 16) {
+                    line.append(words[Math.min(random.nextInt(16), words.length - 1)]);
+                }
+                out.write(line.toString().getBytes("US-ASCII"));
+                bytes += line.length();
+            }
+        }
+        long size = Files.size(source);
+        long packed = compress(source, compressed);
+        HuffmanInputStream.decompress(compressed, restored);
+        boolean same = true;
+        try (InputStream a = Files.newInputStream(source); InputStream b = Files.newInputStream(restored)) {
+            byte[] x = new byte[1 << 16];
+            byte[] y = new byte[1 << 16];
+            int n;
+            while (same && (n = a.readNBytes(x, 0, x.length)) > 0) {
+                same = b.readNBytes(y, 0, n) == n && Arrays.equals(x, 0, n, y, 0, n);
+            }
+            same = same && b.read() < 0;
+        }
+        System.out.printf("%d MB compressed to %.1f%%, decompressed the same %b%n",
+            size >> 20, 100.0 * packed / size, same);
+        for (Path path : new Path[] {source, compressed, restored}) {
+            Files.delete(path);
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package binarysearchtree;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.io.FileNotFoundException;
 import java.util.PriorityQueue;
@@ -10,14 +16,39 @@ import java.util.HashMap;
  * Represents a Huffman Tree for data compression and decompression.
  * The tree is built from character frequencies and generates optimal binary codes
  * for each character based on their frequency of occurrence.
+ * Codes are canonical: they follow from the code lengths alone, so the small
+ * header written by header() is enough to rebuild the tree with fromHeader.
  * 
  * @author Lisa Miller
  * @since 11/23/25  
  */
 public class HuffmanTree {
+    /** Longest code the packed encoder handles; it keeps a code and 7 pending bits in a long. */
+    static final int MAX_CODE_LENGTH = 57;
+    /** Bits the decoder looks up at once in its first table. */
+    static final int PRIMARY_BITS = 11;
+    /** Flag of a decode table entry pointing to a further table. */
+    private static final int SUBTABLE = 1 << 6;
+    /** Mask of the bit count in a decode table entry. */
+    private static final int LENGTH_MASK = SUBTABLE - 1;
+
     File file;
     BinaryNode<HuffmanNodeData> root;
     HashMap<Character, String> huffmanCodes;
+    /** Code of each character as bits, right aligned, indexed by character. */
+    long[] codeBits;
+    /** Length in bits of each character's code, 0 for characters without one. */
+    byte[] codeLengths;
+    /** Length in bits of the shortest code. */
+    int minCodeLength;
+    /**
+     * Decode tables, the first one at offset 0. An entry is either the
+     * character shifted left 7 plus its remaining code length, or the
+     * offset of a further table shifted left 7, SUBTABLE and that table's bit count.
+     */
+    int[] decodeTable;
+    /** Bit count of the first decode table. */
+    int decodeRootBits;
 
     /**
      * Constructs a Huffman Tree from a file containing character frequencies.
@@ -31,6 +62,13 @@ public class HuffmanTree {
         this.buildTree();
     }   
 
+    /**
+     * Constructs an empty Huffman Tree, for fromHeader.
+     */
+    private HuffmanTree() {
+        this.huffmanCodes = new HashMap<>();
+    }
+
     /**
      * Gets the root node of the Huffman tree.
      * 
@@ -52,11 +90,51 @@ public class HuffmanTree {
     /**
      * Builds the Huffman tree from character frequencies.
      * Simplified: directly reads BinaryNode leaves into the priority queue.
+     * Leaves go in ordered by character and ties on frequency are broken by
+     * character, so the same frequencies always give the same code lengths;
+     * the tree is then rebuilt in canonical form from those lengths.
      */
     public void buildTree() {
-        PriorityQueue<BinaryNode<HuffmanNodeData>> nodeQueue =
-            new PriorityQueue<>((a, b) -> a.getData().compareTo(b.getData()));
-        readFrequencies(nodeQueue);
+        List<BinaryNode<HuffmanNodeData>> leaves = new ArrayList<>();
+        readFrequencies(leaves);
+        this.root = huffmanTree(leaves);
+    }
+
+    /**
+     * Builds a Huffman tree from character counts, with its codes generated.
+     *
+     * @param counts the number of occurrences of each character, indexed by
+     *        character; characters counted 0 get no code
+     * @return the tree
+     */
+    public static HuffmanTree fromFrequencies(int[] counts) {
+        List<BinaryNode<HuffmanNodeData>> leaves = new ArrayList<>();
+        for (int ch = 0; ch < counts.length && ch <= Character.MAX_VALUE; ch++) {
+            if (counts[ch] > 0) {
+                leaves.add(new BinaryNode<>(new HuffmanNodeData((char) ch, counts[ch]), null, null));
+            }
+        }
+        HuffmanTree tree = new HuffmanTree();
+        tree.root = huffmanTree(leaves);
+        tree.generateCodes();
+        return tree;
+    }
+
+    /**
+     * Merges leaves into a Huffman tree and rebuilds it in canonical form.
+     *
+     * @param leaves one leaf per character
+     * @return the root of the canonical tree, null without leaves
+     */
+    private static BinaryNode<HuffmanNodeData> huffmanTree(List<BinaryNode<HuffmanNodeData>> leaves) {
+        PriorityQueue<BinaryNode<HuffmanNodeData>> nodeQueue = new PriorityQueue<>((a, b) -> {
+            int order = a.getData().compareTo(b.getData());
+            return order != 0 ? order
+                : Character.compare(a.getData().getCharacter(), b.getData().getCharacter());
+        });
+        leaves.sort((a, b) -> Character.compare(a.getData().getCharacter(),
+            b.getData().getCharacter()));
+        nodeQueue.addAll(leaves);
         while (nodeQueue.size() > 1) {
             BinaryNode<HuffmanNodeData> left = nodeQueue.poll();
             BinaryNode<HuffmanNodeData> right = nodeQueue.poll();
@@ -64,7 +142,182 @@ public class HuffmanTree {
                 left.getData().getFrequency() + right.getData().getFrequency());
             nodeQueue.add(new BinaryNode<>(merged, left, right));
         }
-        this.root = nodeQueue.poll();
+        BinaryNode<HuffmanNodeData> huffman = nodeQueue.poll();
+        List<HuffmanNodeData> symbols = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        collectLengths(huffman, 0, symbols, lengths);
+        return canonicalTree(symbols, lengths);
+    }
+
+    /**
+     * Collects the leaves of a tree with their depths.
+     *
+     * @param node the current node being visited
+     * @param depth the depth of node
+     * @param symbols receives the data of each leaf
+     * @param lengths receives the depth of each leaf, at least 1
+     */
+    private static void collectLengths(BinaryNode<HuffmanNodeData> node, int depth,
+            List<HuffmanNodeData> symbols, List<Integer> lengths) {
+        if (node == null) {
+            return;
+        }
+        if (isLeaf(node)) {
+            symbols.add(node.getData());
+            // a lone character still needs one bit per occurrence
+            lengths.add(Math.max(depth, 1));
+            return;
+        }
+        collectLengths(node.getLeftChild(), depth + 1, symbols, lengths);
+        collectLengths(node.getRightChild(), depth + 1, symbols, lengths);
+    }
+
+    /**
+     * Builds the tree of the canonical code for some code lengths: going
+     * through the characters by length, then by character, each code is
+     * the previous one plus 1, shifted left to the new length.
+     *
+     * @param symbols the leaf data of each character
+     * @param lengths the code length of each character, 1 to MAX_CODE_LENGTH
+     * @return the root, null if there are no characters
+     * @throws IllegalStateException if a length is out of range
+     */
+    private static BinaryNode<HuffmanNodeData> canonicalTree(List<HuffmanNodeData> symbols,
+            List<Integer> lengths) {
+        Integer[] order = new Integer[symbols.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            if (lengths.get(i) < 1 || lengths.get(i) > MAX_CODE_LENGTH) {
+                throw new IllegalStateException("Code for " + symbols.get(i).getCharacter()
+                    + " is " + lengths.get(i) + " bits, not 1 to " + MAX_CODE_LENGTH);
+            }
+        }
+        Arrays.sort(order, (a, b) -> lengths.get(a).equals(lengths.get(b))
+            ? Character.compare(symbols.get(a).getCharacter(), symbols.get(b).getCharacter())
+            : Integer.compare(lengths.get(a), lengths.get(b)));
+        if (order.length == 0) {
+            return null;
+        }
+        BinaryNode<HuffmanNodeData> top = new BinaryNode<>(new HuffmanNodeData('\0', 0), null, null);
+        long code = 0;
+        int length = lengths.get(order[0]);
+        for (int index : order) {
+            code <<= lengths.get(index) - length;
+            length = lengths.get(index);
+            HuffmanNodeData data = symbols.get(index);
+            BinaryNode<HuffmanNodeData> node = top;
+            for (int bit = length - 1; bit >= 0; bit--) {
+                node.getData().setFrequency(node.getData().getFrequency() + data.getFrequency());
+                boolean right = ((code >>> bit) & 1) != 0;
+                BinaryNode<HuffmanNodeData> child = right ? node.getRightChild() : node.getLeftChild();
+                if (child == null) {
+                    child = new BinaryNode<>(bit == 0 ? data : new HuffmanNodeData('\0', 0),
+                        null, null);
+                    if (right) {
+                        node.setRightChild(child);
+                    } else {
+                        node.setLeftChild(child);
+                    }
+                }
+                node = child;
+            }
+            code++;
+        }
+        return top;
+    }
+
+    /**
+     * Writes the codebook as a header: the number of characters (int), then
+     * for each character in order the character (2 bytes) and its code
+     * length (1 byte). The canonical codes follow from these alone.
+     *
+     * @return the header bytes
+     */
+    public byte[] header() {
+        if (codeLengths == null) {
+            generateCodes();
+        }
+        List<Character> characters = new ArrayList<>(huffmanCodes.keySet());
+        characters.sort(null);
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + 3 * characters.size());
+        header.putInt(characters.size());
+        for (char ch : characters) {
+            header.putChar(ch).put(codeLengths[ch]);
+        }
+        return header.array();
+    }
+
+    /**
+     * Rebuilds a tree, its codes and its decode tables from a header written
+     * by header(), leaving the buffer's position after the header.
+     *
+     * @param header the header, from its position on
+     * @return the tree, with codes generated; its frequencies are all 0
+     * @throws IllegalArgumentException if the header does not describe a prefix code
+     * @throws java.nio.BufferUnderflowException if the header is cut short
+     */
+    public static HuffmanTree fromHeader(ByteBuffer header) {
+        int count = header.getInt();
+        if (count < 0 || count > Character.MAX_VALUE + 1 || count * 3L > header.remaining()) {
+            throw new IllegalArgumentException("Header has a bad character count " + count);
+        }
+        List<HuffmanNodeData> symbols = new ArrayList<>(count);
+        List<Integer> lengths = new ArrayList<>(count);
+        // Kraft sum, in units of the longest allowed code
+        long kraft = 0;
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            char ch = header.getChar();
+            int length = header.get();
+            if (ch <= previous || length < 1 || length > MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("Header entry " + i + " is damaged");
+            }
+            previous = ch;
+            kraft += 1L << (MAX_CODE_LENGTH - length);
+            symbols.add(new HuffmanNodeData(ch, 0));
+            lengths.add(length);
+        }
+        // a lone character takes half of the code space, anything else all of it
+        if (count > 1 ? kraft != 1L << MAX_CODE_LENGTH : count == 1 && lengths.get(0) != 1) {
+            throw new IllegalArgumentException("Header code lengths do not form a complete code");
+        }
+        HuffmanTree tree = new HuffmanTree();
+        tree.root = canonicalTree(symbols, lengths);
+        tree.generateCodes();
+        return tree;
+    }
+
+    /**
+     * Compresses a string into a self-describing byte array: the header,
+     * the bit length (long) and the packed bits.
+     *
+     * @param data the string to compress
+     * @return the compressed bytes, readable by decompress
+     * @throws IllegalArgumentException if a character has no code
+     */
+    public byte[] compress(CharSequence data) {
+        byte[] header = header();
+        long bits = encodedLength(data);
+        if (bits > 8L * (Integer.MAX_VALUE - header.length - Long.BYTES - 7)) {
+            throw new IllegalArgumentException("Encoding is over 2 GB");
+        }
+        ByteBuffer out = ByteBuffer.allocate(header.length + Long.BYTES + (int) ((bits + 7) >>> 3));
+        out.put(header).putLong(bits);
+        encode(data, out);
+        return out.array();
+    }
+
+    /**
+     * Decompresses bytes written by compress, leaving the buffer's
+     * position after them.
+     *
+     * @param compressed the compressed bytes, from the position on
+     * @return the decompressed string
+     * @throws IllegalArgumentException if the bytes are damaged
+     */
+    public static String decompress(ByteBuffer compressed) {
+        HuffmanTree tree = fromHeader(compressed);
+        return tree.decode(compressed, compressed.getLong());
     }
 
     /**
@@ -73,7 +326,126 @@ public class HuffmanTree {
      */
     public void generateCodes() {
         huffmanCodes.clear();
-        generateCodes(this.root, "");
+        if (isLeaf(this.root)) {
+            // a lone character still needs one bit per occurrence
+            huffmanCodes.put(this.root.getData().getCharacter(), "0");
+        } else {
+            generateCodes(this.root, "");
+        }
+        generatePackedCodes();
+        buildDecodeTable();
+    }
+
+    /**
+     * Fills the code arrays used by the packed encoder from the String codes.
+     *
+     * @throws IllegalStateException if a code is longer than MAX_CODE_LENGTH bits
+     */
+    private void generatePackedCodes() {
+        int maxChar = 0;
+        for (char ch : huffmanCodes.keySet()) {
+            maxChar = Math.max(maxChar, ch);
+        }
+        codeBits = new long[maxChar + 1];
+        codeLengths = new byte[maxChar + 1];
+        minCodeLength = MAX_CODE_LENGTH;
+        for (Map.Entry<Character, String> entry : huffmanCodes.entrySet()) {
+            String code = entry.getValue();
+            if (code.length() > MAX_CODE_LENGTH) {
+                throw new IllegalStateException("Code for " + entry.getKey()
+                    + " is " + code.length() + " bits, over " + MAX_CODE_LENGTH);
+            }
+            codeBits[entry.getKey()] = Long.parseLong(code, 2);
+            codeLengths[entry.getKey()] = (byte) code.length();
+            minCodeLength = Math.min(minCodeLength, code.length());
+        }
+    }
+
+    /**
+     * Builds the decode tables: the first indexed by the next PRIMARY_BITS
+     * bits, and for each longer code prefix a further table indexed by the
+     * bits after it, so one lookup per PRIMARY_BITS bits finds a character.
+     */
+    private void buildDecodeTable() {
+        if (this.root == null) {
+            decodeTable = new int[0];
+            return;
+        }
+        if (isLeaf(this.root)) {
+            int entry = (this.root.getData().getCharacter() << 7) | 1;
+            decodeTable = new int[] {entry, entry};
+            decodeRootBits = 1;
+            return;
+        }
+        decodeRootBits = Math.min(PRIMARY_BITS, height(this.root));
+        decodeTable = new int[1 << decodeRootBits];
+        int end = fillTable(this.root, 0, 0, 0, decodeRootBits, decodeTable.length);
+        decodeTable = Arrays.copyOf(decodeTable, end);
+    }
+
+    /**
+     * Fills the entries of a decode table that a subtree covers, adding
+     * further tables for the subtrees below the table's depth.
+     *
+     * @param node the subtree
+     * @param depth the depth of node below the table's node
+     * @param prefix the bits leading from the table's node to node
+     * @param offset the start of the table
+     * @param bits the bit count of the table
+     * @param end the first unused table entry
+     * @return the first unused table entry after any tables added
+     */
+    private int fillTable(BinaryNode<HuffmanNodeData> node, int depth, int prefix,
+            int offset, int bits, int end) {
+        if (node == null) {
+            // no code starts this way, the entries stay 0
+            return end;
+        }
+        if (isLeaf(node)) {
+            int entry = (node.getData().getCharacter() << 7) | depth;
+            int shift = bits - depth;
+            Arrays.fill(decodeTable, offset + (prefix << shift),
+                offset + ((prefix + 1) << shift), entry);
+            return end;
+        }
+        if (depth == bits) {
+            int subBits = Math.min(PRIMARY_BITS, height(node));
+            if (end >= 1 << 24) {
+                throw new IllegalStateException("Decode tables are too large");
+            }
+            decodeTable[offset + prefix] = (end << 7) | SUBTABLE | subBits;
+            int subtable = end;
+            end += 1 << subBits;
+            if (end > decodeTable.length) {
+                decodeTable = Arrays.copyOf(decodeTable, Math.max(end, 2 * decodeTable.length));
+            }
+            return fillTable(node, 0, 0, subtable, subBits, end);
+        }
+        end = fillTable(node.getLeftChild(), depth + 1, prefix << 1, offset, bits, end);
+        return fillTable(node.getRightChild(), depth + 1, (prefix << 1) | 1, offset, bits, end);
+    }
+
+    /**
+     * Finds the length of the longest path from a node down to a leaf.
+     *
+     * @param node the node
+     * @return the height, 0 for a leaf
+     */
+    private static int height(BinaryNode<HuffmanNodeData> node) {
+        if (node == null || isLeaf(node)) {
+            return 0;
+        }
+        return 1 + Math.max(height(node.getLeftChild()), height(node.getRightChild()));
+    }
+
+    /**
+     * Tells whether a node is a leaf, holding a character.
+     *
+     * @param node the node to check
+     * @return true if the node has no children
+     */
+    private static boolean isLeaf(BinaryNode<HuffmanNodeData> node) {
+        return node != null && node.getLeftChild() == null && node.getRightChild() == null;
     }
     
     /**
@@ -87,11 +459,10 @@ public class HuffmanTree {
             return;
         }
         
-        // If this is a leaf node (has a character), store the code
+        // If this is a leaf node (has a character), store the code;
+        // '\0' marks inner nodes, but a leaf holding it is a real character
         if (node.getLeftChild() == null && node.getRightChild() == null) {
-            if (node.getData().getCharacter() != '\0') {
-                huffmanCodes.put(node.getData().getCharacter(), code);
-            }
+            huffmanCodes.put(node.getData().getCharacter(), code);
         }
         
         // Traverse left with '0' and right with '1'
@@ -192,12 +563,275 @@ public class HuffmanTree {
     }
     
     /**
-     * Reads character-frequency pairs from the file and inserts each as a leaf BinaryNode
-     * into the provided priority queue.
+     * Counts the bits the packed encoding of a string takes.
+     *
+     * @param data the string to measure
+     * @return the exact number of bits encode(data, out) writes
+     * @throws IllegalArgumentException if a character has no code
+     */
+    public long encodedLength(CharSequence data) {
+        if (codeLengths == null) {
+            generateCodes();
+        }
+        long bits = 0;
+        for (int i = 0; i < data.length(); i++) {
+            bits += codeLength(data.charAt(i));
+        }
+        return bits;
+    }
+
+    /**
+     * Encodes a string into packed bits, first code bit in the high bit of
+     * the first byte. The last byte is padded with zero bits, so the bit
+     * count returned must be kept for decoding.
+     *
+     * @param data the string to encode
+     * @param out receives the bytes, from its position on
+     * @return the number of bits written
+     * @throws IllegalArgumentException if a character has no code
+     * @throws java.nio.BufferOverflowException if out is too small
+     */
+    public long encode(CharSequence data, ByteBuffer out) {
+        if (codeLengths == null) {
+            generateCodes();
+        }
+        long accumulator = 0;
+        int pending = 0;
+        long total = 0;
+        for (int i = 0; i < data.length(); i++) {
+            char ch = data.charAt(i);
+            int length = codeLength(ch);
+            // pending stays below 8, so the code always fits beside it
+            accumulator = (accumulator << length) | codeBits[ch];
+            pending += length;
+            total += length;
+            while (pending >= 8) {
+                pending -= 8;
+                out.put((byte) (accumulator >>> pending));
+            }
+        }
+        if (pending > 0) {
+            out.put((byte) (accumulator << (8 - pending)));
+        }
+        return total;
+    }
+
+    /**
+     * Encodes a string into a byte array of packed bits.
+     *
+     * @param data the string to encode
+     * @return the packed bits; encodedLength(data) tells how many are used
+     * @throws IllegalArgumentException if a character has no code
+     */
+    public byte[] encodeToBytes(CharSequence data) {
+        long bits = encodedLength(data);
+        if (bits > 8L * Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Encoding is over 2 GB");
+        }
+        byte[] packed = new byte[(int) ((bits + 7) >>> 3)];
+        encode(data, ByteBuffer.wrap(packed));
+        return packed;
+    }
+
+    /**
+     * Encodes bytes into packed bits, each byte standing for the character
+     * of the same unsigned value. Reads data from its position to its limit.
+     *
+     * @param data the bytes to encode
+     * @param out receives the packed bits, from its position on
+     * @return the number of bits written
+     * @throws IllegalArgumentException if a byte value has no code
+     * @throws java.nio.BufferOverflowException if out is too small
+     */
+    public long encode(ByteBuffer data, ByteBuffer out) {
+        if (codeLengths == null) {
+            generateCodes();
+        }
+        long accumulator = 0;
+        int pending = 0;
+        long total = 0;
+        int end = data.limit();
+        for (int i = data.position(); i < end; i++) {
+            char ch = (char) (data.get(i) & 0xff);
+            int length = codeLength(ch);
+            accumulator = (accumulator << length) | codeBits[ch];
+            pending += length;
+            total += length;
+            while (pending >= 8) {
+                pending -= 8;
+                out.put((byte) (accumulator >>> pending));
+            }
+        }
+        if (pending > 0) {
+            out.put((byte) (accumulator << (8 - pending)));
+        }
+        data.position(end);
+        return total;
+    }
+
+    /**
+     * Looks up the code length of a character.
      *
-     * @param nodeQueue priority queue that will receive leaf nodes
+     * @param ch the character
+     * @return its code length in bits
+     * @throws IllegalArgumentException if the character has no code
      */
-    private void readFrequencies(PriorityQueue<BinaryNode<HuffmanNodeData>> nodeQueue) {
+    private int codeLength(char ch) {
+        if (ch >= codeLengths.length || codeLengths[ch] == 0) {
+            throw new IllegalArgumentException("Character " + ch + " not found in Huffman codes.");
+        }
+        return codeLengths[ch];
+    }
+
+    /**
+     * Decodes packed bits written by encode.
+     *
+     * @param packed the packed bits
+     * @param bitLength the number of bits used, as returned by encode
+     * @return the decoded string
+     * @throws IllegalArgumentException if the bits are not a whole number of codes
+     */
+    public String decode(byte[] packed, long bitLength) {
+        return decode(ByteBuffer.wrap(packed), bitLength);
+    }
+
+    /**
+     * Decodes packed bits written by encode, reading from the buffer's
+     * position and leaving it after the last byte used.
+     *
+     * @param packed the packed bits
+     * @param bitLength the number of bits used, as returned by encode
+     * @return the decoded string
+     * @throws IllegalArgumentException if the buffer is too short or the bits
+     *         are not a whole number of codes
+     */
+    public String decode(ByteBuffer packed, long bitLength) {
+        checkBitLength(packed, bitLength);
+        if (decodeTable == null) {
+            generateCodes();
+        }
+        long most = bitLength / Math.max(minCodeLength, 1);
+        if (most > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many bits to decode into a String");
+        }
+        char[] decoded = new char[(int) most];
+        int count = decodeSymbols(packed, bitLength, decoded, null);
+        return new String(decoded, 0, count);
+    }
+
+    /**
+     * Decodes packed bits written by encode(ByteBuffer, ByteBuffer) back
+     * into bytes, reading from the packed buffer's position and leaving it
+     * after the last byte used.
+     *
+     * @param packed the packed bits
+     * @param bitLength the number of bits used, as returned by encode
+     * @param out receives the decoded bytes, from its position on
+     * @return the number of bytes decoded
+     * @throws IllegalArgumentException if the buffer is too short, the bits are
+     *         not a whole number of codes or a character is not a byte value
+     * @throws java.nio.BufferOverflowException if out is too small
+     */
+    public int decode(ByteBuffer packed, long bitLength, ByteBuffer out) {
+        if (decodeTable == null) {
+            generateCodes();
+        }
+        return decodeSymbols(packed, bitLength, null, out);
+    }
+
+    /**
+     * Throws if a bit length does not fit in the bytes left in a buffer, so
+     * a damaged length is caught before anything is sized from it.
+     *
+     * @param packed the packed bits, from the position on
+     * @param bitLength the number of bits used
+     * @throws IllegalArgumentException if the bits do not fit
+     */
+    private static void checkBitLength(ByteBuffer packed, long bitLength) {
+        if (bitLength < 0 || bitLength > 8L * packed.remaining()) {
+            throw new IllegalArgumentException("Bit length " + bitLength + " does not fit in "
+                + packed.remaining() + " bytes");
+        }
+    }
+
+    /**
+     * Decodes packed bits with the decode tables into characters or bytes.
+     *
+     * @param packed the packed bits, from the position on
+     * @param bitLength the number of bits used
+     * @param chars receives the characters, if not null; must be big enough
+     * @param bytes receives the characters as bytes, if chars is null
+     * @return the number of characters decoded
+     * @throws IllegalArgumentException if the buffer is too short, the bits are
+     *         not a whole number of codes or a character is not a byte value
+     */
+    private int decodeSymbols(ByteBuffer packed, long bitLength, char[] chars, ByteBuffer bytes) {
+        checkBitLength(packed, bitLength);
+        int[] table = decodeTable;
+        int rootBits = decodeRootBits;
+        boolean bigEndian = packed.order() == ByteOrder.BIG_ENDIAN;
+        int count = 0;
+        int at = packed.position();
+        int limit = at + (int) ((bitLength + 7) >>> 3);
+        long remaining = bitLength;
+        // next bits at the top of window, available of them valid
+        long window = 0;
+        int available = 0;
+        while (remaining > 0) {
+            if (available <= 56) {
+                if (limit - at >= 8) {
+                    // the bits past the whole bytes taken are read again next time
+                    long word = packed.getLong(at);
+                    window |= (bigEndian ? word : Long.reverseBytes(word)) >>> available;
+                    int taken = (64 - available) >>> 3;
+                    at += taken;
+                    available += taken << 3;
+                } else {
+                    while (available <= 56 && at < limit) {
+                        window |= (packed.get(at++) & 0xffL) << (56 - available);
+                        available += 8;
+                    }
+                }
+            }
+            int bits = rootBits;
+            int entry = table[(int) (window >>> (64 - bits))];
+            int consumed = 0;
+            while ((entry & SUBTABLE) != 0) {
+                window <<= bits;
+                consumed += bits;
+                bits = entry & LENGTH_MASK;
+                entry = table[(entry >>> 7) + (int) (window >>> (64 - bits))];
+            }
+            int length = entry & LENGTH_MASK;
+            window <<= length;
+            consumed += length;
+            if (consumed > remaining || length == 0) {
+                throw new IllegalArgumentException(length == 0 ? "Bits match no code"
+                    : "Bits end inside a code");
+            }
+            available -= consumed;
+            remaining -= consumed;
+            char ch = (char) (entry >>> 7);
+            if (chars != null) {
+                chars[count] = ch;
+            } else if (ch > 0xff) {
+                throw new IllegalArgumentException("Character " + ch + " is not a byte");
+            } else {
+                bytes.put((byte) ch);
+            }
+            count++;
+        }
+        packed.position(limit);
+        return count;
+    }
+
+    /**
+     * Reads character-frequency pairs from the file and adds each as a leaf BinaryNode
+     * to the provided list.
+     *
+     * @param nodes list that will receive leaf nodes
+     */
+    private void readFrequencies(List<BinaryNode<HuffmanNodeData>> nodes) {
         try (Scanner scanner = new Scanner(this.file)) {
             while (scanner.hasNextLine()) {
                 String line = scanner.nextLine().trim();
@@ -207,7 +841,7 @@ public class HuffmanTree {
                         try {
                             char character = parts[0].charAt(0);
                             int frequency = Integer.parseInt(parts[1]);
-                            nodeQueue.add(new BinaryNode<>(new HuffmanNodeData(character, frequency), null, null));
+                            nodes.add(new BinaryNode<>(new HuffmanNodeData(character, frequency), null, null));
                         } catch (NumberFormatException e) {
                             System.out.println("Invalid frequency format in line: " + line);
                         }
@@ -258,5 +892,29 @@ public class HuffmanTree {
         String decoded = huffmanTree.decode(encoded);
         System.out.println(encoded + " decoded from HuffmanTree: " + decoded);
 
+        // packed bits against one char per bit
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            text.append((char) ('a' + (i * 7919 % 26)));
+        }
+        String sample = text.toString();
+        String bitString = huffmanTree.encode(sample);
+        byte[] packed = huffmanTree.encodeToBytes(sample);
+        long bits = huffmanTree.encodedLength(sample);
+        String unpacked = huffmanTree.decode(packed, bits);
+        System.out.println(sample.length() + " chars: String encoding " + 2L * bitString.length()
+            + " bytes, packed " + packed.length + " bytes (" + bits + " bits), round trip "
+            + unpacked.equals(sample) + ", same as tree walk "
+            + huffmanTree.decode(bitString).equals(unpacked));
+
+        // the header alone rebuilds the codes
+        byte[] compressed = huffmanTree.compress(sample);
+        byte[] header = huffmanTree.header();
+        HuffmanTree rebuilt = HuffmanTree.fromHeader(ByteBuffer.wrap(header));
+        System.out.println("Header " + header.length + " bytes for " + huffmanTree.huffmanCodes.size()
+            + " characters, same codes " + rebuilt.huffmanCodes.equals(huffmanTree.huffmanCodes)
+            + ", compressed " + compressed.length + " bytes, decompressed "
+            + HuffmanTree.decompress(ByteBuffer.wrap(compressed)).equals(sample));
+
        }
     }
\ No newline at end of file
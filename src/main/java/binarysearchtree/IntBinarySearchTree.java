@@ -0,0 +1,564 @@
+package binarysearchtree;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Binary search tree of int keys that never boxes them.
+ * Nodes are slots in parallel arrays: the key, the left and right child
+ * slots and the subtree height, 16 bytes per entry with no object
+ * headers. Removed slots go on a free list and are reused, so once the
+ * arrays have grown add, get and remove allocate nothing.
+ * Like BinarySearchTree it can keep itself AVL balanced.
+ */
+public class IntBinarySearchTree {
+
+  /** Slot number standing for "no node". */
+   private static final int NIL = -1;
+
+  /** Key held in each slot. */
+   private int[] keys;
+  /** Left child slot of each slot, or the next free slot. */
+   private int[] left;
+  /** Right child slot of each slot. */
+   private int[] right;
+  /** Height of the subtree rooted at each slot. */
+   private int[] heights;
+
+  /** Slot of the root, NIL when empty. */
+   private int root = NIL;
+  /** Head of the free list, chained through left. */
+   private int free = NIL;
+  /** Slots ever handed out, the rest of the arrays is untouched. */
+   private int used = 0;
+  /** Number of keys in the tree. */
+   private int size = 0;
+  /** Count of structural changes, lets iterators fail fast. */
+   private int modCount = 0;
+
+  /** True if add and remove rebalance the tree (AVL). */
+   private final boolean balanced;
+
+  /** Slots on the current root-to-node path, reused between calls. */
+   private int[] path = new int[64];
+  /** wentLeft[i] is true if the walk went left from path[i]. */
+   private boolean[] wentLeft = new boolean[64];
+
+  /** No parameter constructor, makes an unbalanced tree. */
+   public IntBinarySearchTree() {
+      this(false);
+   }
+
+  /**
+   * Constructor choosing the balancing policy.
+   *
+   * @param balanced true to keep the tree AVL balanced on add and remove
+   */
+   public IntBinarySearchTree(boolean balanced) {
+      this(balanced, 16);
+   }
+
+  /**
+   * Constructor choosing the balancing policy and the starting capacity.
+   *
+   * @param balanced true to keep the tree AVL balanced on add and remove
+   * @param capacity Number of keys the arrays hold before growing
+   */
+   public IntBinarySearchTree(boolean balanced, int capacity) {
+      this.balanced = balanced;
+      capacity = Math.max(capacity, 1);
+      keys = new int[capacity];
+      left = new int[capacity];
+      right = new int[capacity];
+      heights = new int[capacity];
+   }
+
+  /**
+   * Adds a key to the tree.
+   *
+   * @param key The key to be added
+   * @throws TreeException if the key is already in the tree
+   */
+   public void add(int key) {
+      int depth = 0;
+      int node = root;
+      while (node != NIL) {
+         int nodeKey = keys[node];
+         if (key == nodeKey) {
+            throw new TreeException("No duplicate items are allowed!");
+         }
+         this.push(depth++, node, key < nodeKey);
+         node = key < nodeKey ? left[node] : right[node];
+      }
+      root = this.fixPath(depth, this.newNode(key));
+      size++;
+      modCount++;
+   }
+
+  /**
+   * gets a key from the tree.
+   *
+   * @param key The key to look for
+   * @return the key, when it is in the tree
+   * @throws TreeException if the key is not found
+   */
+   public int get(int key) {
+      if (!this.contains(key)) {
+         throw new TreeException("Item not found!");
+      }
+      return key;
+   }
+
+  /**
+   * Tells whether a key is in the tree.
+   *
+   * @param key The key to look for
+   * @return true if the key is in the tree
+   */
+   public boolean contains(int key) {
+      int node = root;
+      while (node != NIL) {
+         int nodeKey = keys[node];
+         if (key == nodeKey) {
+            return true;
+         }
+         node = key < nodeKey ? left[node] : right[node];
+      }
+      return false;
+   }
+
+  /**
+   * Removes a key from the tree.
+   *
+   * @param key The key to remove
+   * @throws TreeException if the key is not found
+   */
+   public void remove(int key) {
+      int depth = 0;
+      int node = root;
+      while (node != NIL && keys[node] != key) {
+         this.push(depth++, node, key < keys[node]);
+         node = key < keys[node] ? left[node] : right[node];
+      }
+      if (node == NIL) {
+         throw new TreeException("Item not found!");
+      }
+      int replacement;
+      if (left[node] == NIL || right[node] == NIL) {
+         // zero or one child: the child takes the node's place
+         replacement = left[node] == NIL ? right[node] : left[node];
+         this.freeNode(node);
+      }
+      else {
+         // two children: move the largest key of the left subtree up,
+         // then unlink its slot, the rest of the path gets fixed below
+         this.push(depth++, node, true);
+         int largest = left[node];
+         while (right[largest] != NIL) {
+            this.push(depth++, largest, false);
+            largest = right[largest];
+         }
+         keys[node] = keys[largest];
+         replacement = left[largest];
+         this.freeNode(largest);
+      }
+      root = this.fixPath(depth, replacement);
+      size--;
+      modCount++;
+   }
+
+  /**
+   * Number of keys in the tree.
+   *
+   * @return the key count
+   */
+   public int size() {
+      return size;
+   }
+
+  /**
+   * Height of the tree, the number of nodes on the longest root-to-leaf path.
+   *
+   * @return the height, 0 for an empty tree
+   */
+   public int height() {
+      return this.height(root);
+   }
+
+  /**
+   * Tells whether this tree rebalances itself.
+   *
+   * @return true if the tree keeps the AVL property
+   */
+   public boolean isBalanced() {
+      return balanced;
+   }
+
+  /**
+   * Bytes of array storage per key, counting the spare capacity.
+   *
+   * @return the storage cost of one key, 0 for an empty tree
+   */
+   public double bytesPerKey() {
+      return size == 0 ? 0 : 4.0 * 4 * keys.length / size;
+   }
+
+  /**
+   * The smallest key in the tree.
+   *
+   * @return the first key in ascending order
+   * @throws NoSuchElementException if the tree is empty
+   */
+   public int first() {
+      if (root == NIL) {
+         throw new NoSuchElementException();
+      }
+      int node = root;
+      while (left[node] != NIL) {
+         node = left[node];
+      }
+      return keys[node];
+   }
+
+  /**
+   * The largest key in the tree.
+   *
+   * @return the last key in ascending order
+   * @throws NoSuchElementException if the tree is empty
+   */
+   public int last() {
+      if (root == NIL) {
+         throw new NoSuchElementException();
+      }
+      int node = root;
+      while (right[node] != NIL) {
+         node = right[node];
+      }
+      return keys[node];
+   }
+
+  /**
+   * In-order iterator, keys come out in ascending order without boxing.
+   *
+   * @return an iterator over the keys
+   */
+   public PrimitiveIterator.OfInt iterator() {
+      return new PrimitiveIterator.OfInt() {
+         private final int[] stack = new int[height()];
+         private int top = this.pushLeft(root);
+         private final int expectedModCount = modCount;
+
+         private int pushLeft(int node) {
+            int at = top;
+            while (node != NIL) {
+               stack[at++] = node;
+               node = left[node];
+            }
+            return at;
+         }
+
+         @Override
+         public boolean hasNext() {
+            return top > 0;
+         }
+
+         @Override
+         public int nextInt() {
+            if (modCount != expectedModCount) {
+               throw new ConcurrentModificationException();
+            }
+            if (top == 0) {
+               throw new NoSuchElementException();
+            }
+            int node = stack[--top];
+            top = this.pushLeft(right[node]);
+            return keys[node];
+         }
+      };
+   }
+
+  /**
+   * Sequential stream of the keys in ascending order.
+   *
+   * @return an IntStream over the tree
+   */
+   public IntStream stream() {
+      return StreamSupport.intStream(Spliterators.spliterator(this.iterator(),
+         size, Spliterator.ORDERED | Spliterator.SORTED
+         | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+   }
+
+  /**
+   * called automatically by println/print method.
+   *
+   * @return an inorder String of the tree
+   */
+   public String toString() {
+      StringBuilder displayNodes = new StringBuilder();
+      PrimitiveIterator.OfInt items = this.iterator();
+      while (items.hasNext()) {
+         displayNodes.append(items.nextInt()).append(", ");
+      }
+      return displayNodes.toString();
+   }
+
+  /**
+   * Pre-Order traversal of tree.
+   *
+   * @return String representation of preOrder
+   */
+   public String preOrder() {
+      StringBuilder displayNodes = new StringBuilder();
+      int[] stack = new int[this.height() + 1];
+      int top = 0;
+      if (root != NIL) {
+         stack[top++] = root;
+      }
+      while (top > 0) {
+         int node = stack[--top];
+         displayNodes.append(keys[node]).append(", ");
+         if (right[node] != NIL) {
+            stack[top++] = right[node];
+         }
+         if (left[node] != NIL) {
+            stack[top++] = left[node];
+         }
+      }
+      return displayNodes.toString();
+   }
+
+  /**
+   * Post-Order traversal of tree.
+   *
+   * @return a postOrder String of the tree
+   */
+   public String postOrder() {
+      StringBuilder displayNodes = new StringBuilder();
+      int[] stack = new int[this.height() + 1];
+      int top = 0;
+      int last = NIL;
+      int node = root;
+      while (node != NIL || top > 0) {
+         if (node != NIL) {
+            stack[top++] = node;
+            node = left[node];
+         }
+         else {
+            int peek = stack[top - 1];
+            if (right[peek] != NIL && right[peek] != last) {
+               node = right[peek];
+            }
+            else {
+               displayNodes.append(keys[peek]).append(", ");
+               last = stack[--top];
+            }
+         }
+      }
+      return displayNodes.toString();
+   }
+
+  /**
+   * Records one step of a walk down the tree, growing the path arrays
+   * the first time the tree gets deeper than they are.
+   *
+   * @param depth The position on the path
+   * @param node The slot at that position
+   * @param goingLeft true if the walk goes left from the slot
+   */
+   private void push(int depth, int node, boolean goingLeft) {
+      if (depth == path.length) {
+         path = Arrays.copyOf(path, depth * 2);
+         wentLeft = Arrays.copyOf(wentLeft, depth * 2);
+      }
+      path[depth] = node;
+      wentLeft[depth] = goingLeft;
+   }
+
+  /**
+   * Relinks a changed subtree into its ancestors, bottom up, updating
+   * heights and rebalancing each ancestor in turn.
+   *
+   * @param depth The number of ancestors on the path
+   * @param child The new root of the subtree below path[depth - 1]
+   * @return the new root of the tree
+   */
+   private int fixPath(int depth, int child) {
+      for (int i = depth - 1; i >= 0; i--) {
+         int parent = path[i];
+         if (wentLeft[i]) {
+            left[parent] = child;
+         }
+         else {
+            right[parent] = child;
+         }
+         child = this.rebalance(parent);
+      }
+      return child;
+   }
+
+  /**
+   * Height of a subtree that may be empty.
+   *
+   * @param node The slot of the subtree root, or NIL
+   * @return the height, 0 for NIL
+   */
+   private int height(int node) {
+      return node == NIL ? 0 : heights[node];
+   }
+
+  /**
+   * Recomputes the height of a slot from its children.
+   *
+   * @param node The slot whose children are up to date
+   */
+   private void updateHeight(int node) {
+      heights[node] = 1 + Math.max(this.height(left[node]),
+         this.height(right[node]));
+   }
+
+  /**
+   * Updates the height of a slot whose subtree just changed and, if the
+   * tree is balanced, restores the AVL property with one or two rotations.
+   *
+   * @param node The root of the changed subtree
+   * @return the new root of the subtree
+   */
+   private int rebalance(int node) {
+      this.updateHeight(node);
+      if (!balanced) {
+         return node;
+      }
+      int balance = this.height(left[node]) - this.height(right[node]);
+      if (balance > 1) {
+         if (this.height(left[left[node]]) < this.height(right[left[node]])) {
+            left[node] = this.rotateLeft(left[node]);
+         }
+         return this.rotateRight(node);
+      }
+      if (balance < -1) {
+         if (this.height(right[right[node]]) < this.height(left[right[node]])) {
+            right[node] = this.rotateRight(right[node]);
+         }
+         return this.rotateLeft(node);
+      }
+      return node;
+   }
+
+  /**
+   * Rotates a subtree to the right, its left child becomes the root.
+   *
+   * @param node The slot of the subtree root
+   * @return the new root of the subtree
+   */
+   private int rotateRight(int node) {
+      int pivot = left[node];
+      left[node] = right[pivot];
+      right[pivot] = node;
+      this.updateHeight(node);
+      this.updateHeight(pivot);
+      return pivot;
+   }
+
+  /**
+   * Rotates a subtree to the left, its right child becomes the root.
+   *
+   * @param node The slot of the subtree root
+   * @return the new root of the subtree
+   */
+   private int rotateLeft(int node) {
+      int pivot = right[node];
+      right[node] = left[pivot];
+      left[pivot] = node;
+      this.updateHeight(node);
+      this.updateHeight(pivot);
+      return pivot;
+   }
+
+  /**
+   * Takes a slot from the free list, or a fresh one, for a new leaf.
+   *
+   * @param key The key for the new leaf
+   * @return the slot of the new leaf
+   */
+   private int newNode(int key) {
+      int node;
+      if (free != NIL) {
+         node = free;
+         free = left[node];
+      }
+      else {
+         if (used == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            heights = Arrays.copyOf(heights, capacity);
+         }
+         node = used++;
+      }
+      keys[node] = key;
+      left[node] = NIL;
+      right[node] = NIL;
+      heights[node] = 1;
+      return node;
+   }
+
+  /**
+   * Puts a slot on the free list.
+   *
+   * @param node The slot no longer in the tree
+   */
+   private void freeNode(int node) {
+      left[node] = free;
+      free = node;
+   }
+
+  /**
+   * Driver code to test class.
+   *
+   * @param args are not used
+   */
+   public static void main(String[] args) {
+      IntBinarySearchTree tree = new IntBinarySearchTree();
+      int[] fish = {50, 70, 30, 40, 20, 60, 80, 10, 45};
+      for (int key : fish) {
+         tree.add(key);
+      }
+      System.out.println("preorder traversal:\n" + tree.preOrder());
+      System.out.println("inorder traversal:\n" + tree);
+      System.out.println("postorder traversal:\n" + tree.postOrder());
+      System.out.println("Got: " + tree.get(45));
+      try {
+         tree.add(45);
+      }
+      catch (TreeException exception) {
+         System.out.println(exception.toString());
+      }
+      tree.remove(30);
+      tree.remove(50);
+      System.out.println("After removing 30 and 50: " + tree
+         + "first " + tree.first() + ", last " + tree.last());
+
+      int count = 1000000;
+      IntBinarySearchTree balanced = new IntBinarySearchTree(true, count);
+      for (int i = 0; i < count; i++) {
+         balanced.add(i);
+      }
+      for (int i = 0; i < count; i += 2) {
+         balanced.remove(i);
+      }
+      for (int i = 0; i < count; i += 2) {
+         balanced.add(i);
+      }
+      System.out.println("Balanced tree of " + balanced.size()
+         + " sorted keys: height " + balanced.height() + ", "
+         + balanced.bytesPerKey() + " bytes per key, sum "
+         + balanced.stream().asLongStream().sum());
+   } // end of main
+} // end of class
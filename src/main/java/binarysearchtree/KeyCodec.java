@@ -0,0 +1,86 @@
+package binarysearchtree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns tree items into bytes and back, for the binary snapshot format.
+ * decode(encode(item)) must compare equal to item.
+ *
+ * @param <T> the type of items encoded.
+ */
+public interface KeyCodec<T> {
+
+  /**
+   * Encodes an item.
+   *
+   * @param item The item to encode
+   * @return its bytes
+   */
+   byte[] encode(T item);
+
+  /**
+   * Decodes an item from all the remaining bytes of a buffer.
+   *
+   * @param bytes The encoded item, from position to limit
+   * @return the item
+   */
+   T decode(ByteBuffer bytes);
+
+  /**
+   * Codec for strings as UTF-8.
+   *
+   * @return the codec
+   */
+   static KeyCodec<String> strings() {
+      return new KeyCodec<String>() {
+         @Override
+         public byte[] encode(String item) {
+            return item.getBytes(StandardCharsets.UTF_8);
+         }
+
+         @Override
+         public String decode(ByteBuffer bytes) {
+            return StandardCharsets.UTF_8.decode(bytes).toString();
+         }
+      };
+   }
+
+  /**
+   * Codec for integers as 4 big-endian bytes.
+   *
+   * @return the codec
+   */
+   static KeyCodec<Integer> integers() {
+      return new KeyCodec<Integer>() {
+         @Override
+         public byte[] encode(Integer item) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(item).array();
+         }
+
+         @Override
+         public Integer decode(ByteBuffer bytes) {
+            return bytes.getInt();
+         }
+      };
+   }
+
+  /**
+   * Codec for longs as 8 big-endian bytes.
+   *
+   * @return the codec
+   */
+   static KeyCodec<Long> longs() {
+      return new KeyCodec<Long>() {
+         @Override
+         public byte[] encode(Long item) {
+            return ByteBuffer.allocate(Long.BYTES).putLong(item).array();
+         }
+
+         @Override
+         public Long decode(ByteBuffer bytes) {
+            return bytes.getLong();
+         }
+      };
+   }
+}
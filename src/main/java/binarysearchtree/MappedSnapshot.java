@@ -0,0 +1,457 @@
+package binarysearchtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a BinarySearchTree, read through a memory mapping.
+ * The file holds, in big-endian order:
+ * <pre>
+ *   header   magic "BSTS", format version, item count  (3 ints)
+ *   items    per item: byte length (int), bytes from the KeyCodec,
+ *            in ascending order
+ *   index    per item: file offset of its record (int)
+ *   trailer  CRC32 of everything above (int)
+ * </pre>
+ * Sorted order makes the tree shape unnecessary: toTree rebuilds a
+ * minimum-height tree in O(n), and the index lets get, floor and ceiling
+ * binary search the mapped file directly without building a tree at all.
+ * A single mapping limits a snapshot to 2 GB.
+ *
+ * @param <T> the type of items held in the snapshot.
+ */
+public class MappedSnapshot<T extends Comparable<T>> {
+
+  /** First four bytes of every snapshot, "BSTS". */
+   private static final int MAGIC = 0x42535453;
+  /** Format version written by this class. */
+   private static final int VERSION = 1;
+  /** Bytes before the first item record. */
+   private static final int HEADER_BYTES = 12;
+  /** Size of the write buffer. */
+   private static final int BUFFER_BYTES = 1 << 16;
+
+  /** The mapped file. */
+   private final ByteBuffer mapped;
+  /** Decodes the items. */
+   private final KeyCodec<T> codec;
+  /** Number of items. */
+   private final int size;
+  /** File offset of the index. */
+   private final int indexStart;
+
+  /**
+   * Constructor, for open.
+   *
+   * @param mapped The mapped and checked file
+   * @param codec Decodes the items
+   * @param size The number of items
+   * @param indexStart The file offset of the index
+   */
+   private MappedSnapshot(ByteBuffer mapped, KeyCodec<T> codec, int size,
+         int indexStart) {
+      this.mapped = mapped;
+      this.codec = codec;
+      this.size = size;
+      this.indexStart = indexStart;
+   }
+
+  /**
+   * Writes the items of a tree to a snapshot file through a FileChannel.
+   * The file is written beside the target, forced to disk and then
+   * moved over it, so a crash never leaves a half-written snapshot; the
+   * directory is forced after the move where the platform allows it,
+   * and the temporary file deleted if anything fails.
+   *
+   * @param <T> the type of items held in tree
+   * @param tree The tree to save
+   * @param file The snapshot file
+   * @param codec Encodes the items
+   * @throws IOException if the file cannot be written, or is over 2 GB
+   */
+   public static <T extends Comparable<T>> void write(BinarySearchTree<T> tree,
+         Path file, KeyCodec<T> codec) throws IOException {
+      Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+      try {
+         writeItems(tree, temporary, codec);
+         Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException | RuntimeException | Error exception) {
+         try {
+            Files.deleteIfExists(temporary);
+         }
+         catch (IOException suppressed) {
+            exception.addSuppressed(suppressed);
+         }
+         throw exception;
+      }
+      // the rename is only durable once the directory entry is on disk
+      force(file.toAbsolutePath().getParent());
+   }
+
+  /**
+   * Writes the snapshot records, index and checksum to a file and
+   * forces it to disk.
+   *
+   * @param <T> the type of items held in tree
+   * @param tree The tree to save
+   * @param temporary The file to write
+   * @param codec Encodes the items
+   * @throws IOException if the file cannot be written, or is over 2 GB
+   */
+   private static <T extends Comparable<T>> void writeItems(
+         BinarySearchTree<T> tree, Path temporary, KeyCodec<T> codec)
+         throws IOException {
+      int count = tree.size();
+      int[] offsets = new int[count];
+      CRC32 crc = new CRC32();
+      try (FileChannel channel = FileChannel.open(temporary,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+         ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+         buffer.putInt(MAGIC).putInt(VERSION).putInt(count);
+         long offset = HEADER_BYTES;
+         int i = 0;
+         for (T item : tree) {
+            byte[] bytes = codec.encode(item);
+            // record, index and checksum must all fit in one mapping
+            if (offset + Integer.BYTES + bytes.length
+                  + (count + 1L) * Integer.BYTES > Integer.MAX_VALUE) {
+               throw new IOException("Snapshot would be over 2 GB");
+            }
+            offsets[i++] = (int) offset;
+            offset += Integer.BYTES + bytes.length;
+            ensure(channel, buffer, crc, Integer.BYTES);
+            buffer.putInt(bytes.length);
+            if (bytes.length > buffer.remaining()) {
+               // a record bigger than the room left goes out on its own
+               flush(channel, buffer, crc);
+               ByteBuffer large = ByteBuffer.wrap(bytes);
+               crc.update(large.duplicate());
+               writeFully(channel, large);
+            }
+            else {
+               buffer.put(bytes);
+            }
+         }
+         for (int recordOffset : offsets) {
+            ensure(channel, buffer, crc, Integer.BYTES);
+            buffer.putInt(recordOffset);
+         }
+         flush(channel, buffer, crc);
+         buffer.putInt((int) crc.getValue());
+         buffer.flip();
+         writeFully(channel, buffer);
+         channel.force(true);
+      }
+   }
+
+  /**
+   * Forces a directory to disk, so entries just renamed into it survive
+   * a crash. This is best effort: some platforms, Windows among them,
+   * cannot open a directory as a channel, and the snapshot is already in
+   * place by now, so failing here would report a write that happened.
+   *
+   * @param directory The directory
+   */
+   private static void force(Path directory) {
+      try (FileChannel channel = FileChannel.open(directory,
+            StandardOpenOption.READ)) {
+         channel.force(true);
+      }
+      catch (IOException unsupported) {
+         // no way to force a directory here, the rename stands as it is
+      }
+   }
+
+  /**
+   * Flushes the write buffer if it has less room than needed.
+   *
+   * @param channel The file
+   * @param buffer The write buffer
+   * @param crc The running checksum
+   * @param needed The bytes about to be put
+   * @throws IOException if the write fails
+   */
+   private static void ensure(FileChannel channel, ByteBuffer buffer,
+         CRC32 crc, int needed) throws IOException {
+      if (buffer.remaining() < needed) {
+         flush(channel, buffer, crc);
+      }
+   }
+
+  /**
+   * Writes out the write buffer, adding its bytes to the checksum.
+   *
+   * @param channel The file
+   * @param buffer The write buffer, left empty
+   * @param crc The running checksum
+   * @throws IOException if the write fails
+   */
+   private static void flush(FileChannel channel, ByteBuffer buffer,
+         CRC32 crc) throws IOException {
+      buffer.flip();
+      crc.update(buffer.duplicate());
+      writeFully(channel, buffer);
+      buffer.clear();
+   }
+
+  /**
+   * Writes all remaining bytes of a buffer.
+   *
+   * @param channel The file
+   * @param buffer The bytes to write
+   * @throws IOException if the write fails
+   */
+   private static void writeFully(FileChannel channel, ByteBuffer buffer)
+         throws IOException {
+      while (buffer.hasRemaining()) {
+         channel.write(buffer);
+      }
+   }
+
+  /**
+   * Maps a snapshot file and checks its header, its checksum and that
+   * every record lies between the header and the index, so later reads
+   * cannot run outside the items however the file was made.
+   *
+   * @param <T> the type of items held in the snapshot
+   * @param file The snapshot file
+   * @param codec Decodes the items
+   * @return the mapped snapshot
+   * @throws IOException if the file cannot be read, is not a snapshot,
+   *         has another version, fails its checksum or is inconsistent
+   */
+   public static <T extends Comparable<T>> MappedSnapshot<T> open(Path file,
+         KeyCodec<T> codec) throws IOException {
+      MappedByteBuffer mapped;
+      try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.READ)) {
+         long length = channel.size();
+         if (length < HEADER_BYTES + Integer.BYTES) {
+            throw new IOException("Not a tree snapshot: " + file);
+         }
+         if (length > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot is over 2 GB: " + file);
+         }
+         mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+      }
+      int length = mapped.capacity();
+      if (mapped.getInt(0) != MAGIC) {
+         throw new IOException("Not a tree snapshot: " + file);
+      }
+      int version = mapped.getInt(4);
+      if (version != VERSION) {
+         throw new IOException("Unsupported snapshot version " + version);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(mapped.slice(0, length - Integer.BYTES));
+      if ((int) crc.getValue() != mapped.getInt(length - Integer.BYTES)) {
+         throw new IOException("Snapshot checksum mismatch: " + file);
+      }
+      int size = mapped.getInt(8);
+      // in long, a huge count must not wrap around to a plausible offset
+      long index = length - Integer.BYTES - (long) size * Integer.BYTES;
+      if (size < 0 || index < HEADER_BYTES) {
+         throw new IOException("Corrupt snapshot: " + file);
+      }
+      int indexStart = (int) index;
+      for (int i = 0; i < size; i++) {
+         int offset = mapped.getInt(indexStart + i * Integer.BYTES);
+         if (offset < HEADER_BYTES || offset > indexStart - Integer.BYTES) {
+            throw new IOException("Corrupt snapshot, record " + i
+               + " at offset " + offset + ": " + file);
+         }
+         int bytes = mapped.getInt(offset);
+         if (bytes < 0
+               || (long) offset + Integer.BYTES + bytes > indexStart) {
+            throw new IOException("Corrupt snapshot, record " + i
+               + " of length " + bytes + ": " + file);
+         }
+      }
+      return new MappedSnapshot<T>(mapped, codec, size, indexStart);
+   }
+
+  /**
+   * Number of items in the snapshot.
+   *
+   * @return the item count
+   */
+   public int size() {
+      return size;
+   }
+
+  /**
+   * Decodes the item at a position in ascending order.
+   *
+   * @param index The position, from 0 to size - 1
+   * @return the item
+   */
+   private T itemAt(int index) {
+      int offset = mapped.getInt(indexStart + index * Integer.BYTES);
+      int length = mapped.getInt(offset);
+      return codec.decode(mapped.slice(offset + Integer.BYTES, length));
+   }
+
+  /**
+   * Binary search of the mapped items.
+   *
+   * @param searchKey The key to search for
+   * @return its position, or -(insertion point) - 1 if it is absent
+   */
+   private int search(T searchKey) {
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+         int mid = (low + high) >>> 1;
+         int comparison = this.itemAt(mid).compareTo(searchKey);
+         if (comparison < 0) {
+            low = mid + 1;
+         }
+         else if (comparison > 0) {
+            high = mid - 1;
+         }
+         else {
+            return mid;
+         }
+      }
+      return -(low + 1);
+   }
+
+  /**
+   * gets an item from the snapshot with the same search key.
+   *
+   * @param searchKey An object containing the search key
+   * @return the data item in the snapshot with matching key.
+   * @throws TreeException if item not found
+   */
+   public T get(T searchKey) {
+      int index = this.search(searchKey);
+      if (index < 0) {
+         throw new TreeException("Item not found!");
+      }
+      return this.itemAt(index);
+   }
+
+  /**
+   * Tells whether an item with the same search key is in the snapshot.
+   *
+   * @param searchKey An object containing the search key
+   * @return true if a matching item is in the snapshot
+   */
+   public boolean contains(T searchKey) {
+      return this.search(searchKey) >= 0;
+   }
+
+  /**
+   * The greatest item at or below a key.
+   *
+   * @param searchKey The key to look below
+   * @return the item, or null if there is none
+   */
+   public T floor(T searchKey) {
+      int index = this.search(searchKey);
+      index = index >= 0 ? index : -index - 2;
+      return index < 0 ? null : this.itemAt(index);
+   }
+
+  /**
+   * The least item at or above a key.
+   *
+   * @param searchKey The key to look above
+   * @return the item, or null if there is none
+   */
+   public T ceiling(T searchKey) {
+      int index = this.search(searchKey);
+      index = index >= 0 ? index : -index - 1;
+      return index >= size ? null : this.itemAt(index);
+   }
+
+  /**
+   * The items in ascending order, decoded as they are read.
+   *
+   * @return a read-only list view of the snapshot
+   */
+   public List<T> asList() {
+      return new AbstractList<T>() {
+         @Override
+         public T get(int index) {
+            if (index < 0 || index >= size) {
+               throw new IndexOutOfBoundsException(index);
+            }
+            return itemAt(index);
+         }
+
+         @Override
+         public int size() {
+            return size;
+         }
+      };
+   }
+
+  /**
+   * Builds a minimum-height tree of the items in one O(n) pass.
+   *
+   * @param balanced true if the tree should stay AVL balanced afterwards
+   * @return a new tree holding the items
+   */
+   public BinarySearchTree<T> toTree(boolean balanced) {
+      return BinarySearchTree.fromSorted(this.asList(), balanced);
+   }
+
+  /**
+   * Driver code to test class.
+   *
+   * @param args optional number of keys
+   * @throws IOException if the temporary file cannot be used
+   */
+   public static void main(String[] args) throws IOException {
+      int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+      BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(true);
+      for (int i = 0; i < count; i++) {
+         tree.add((int) (i * 2654435761L % count) * 2);
+      }
+      Path file = Files.createTempFile("tree", ".bsts");
+      try {
+         tree.writeSnapshot(file, KeyCodec.integers());
+         System.out.println("Wrote " + count + " keys, " + Files.size(file)
+            + " bytes");
+
+         BinarySearchTree<Integer> loaded =
+            BinarySearchTree.loadSnapshot(file, KeyCodec.integers(), true);
+         System.out.println("Reloaded " + loaded.size() + " keys, height "
+            + loaded.height() + ", same contents: "
+            + loaded.toString().equals(tree.toString()));
+
+         MappedSnapshot<Integer> mapped = open(file, KeyCodec.integers());
+         System.out.println("Mapped reads: get 10 " + mapped.get(10)
+            + ", contains 11 " + mapped.contains(11) + ", floor 11 "
+            + mapped.floor(11) + ", ceiling 11 " + mapped.ceiling(11));
+
+         try (FileChannel channel = FileChannel.open(file,
+               StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {42}), 20);
+         }
+         try {
+            open(file, KeyCodec.integers());
+         }
+         catch (IOException exception) {
+            System.out.println("After flipping a byte: " + exception.getMessage()
+               .replace(file.toString(), "file"));
+         }
+      }
+      finally {
+         Files.deleteIfExists(file);
+      }
+   } // end of main
+} // end of class
@@ -0,0 +1,380 @@
+package binarysearchtree;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * Live java.util.NavigableSet view of a BinarySearchTree, or of the part
+ * of it between two optional bounds, in ascending or descending order.
+ * Nothing is copied: queries go to the tree, size uses the subtree
+ * sizes and iteration skips the subtrees outside the bounds.
+ *
+ * @param <T> the type of items held in tree.
+ */
+class NavigableTreeSet<T extends Comparable<T>> extends AbstractSet<T>
+      implements NavigableSet<T> {
+
+  /** The tree behind the view. */
+   private final BinarySearchTree<T> tree;
+  /** The low bound in natural order, or null for none. */
+   private final T low;
+  /** True if an item equal to low is in the view. */
+   private final boolean lowInclusive;
+  /** The high bound in natural order, or null for none. */
+   private final T high;
+  /** True if an item equal to high is in the view. */
+   private final boolean highInclusive;
+  /** True if the view runs from high to low. */
+   private final boolean descending;
+
+  /**
+   * Constructor, bounds are given in natural order whatever the direction.
+   *
+   * @param tree The tree behind the view
+   * @param low The low bound, or null for none
+   * @param lowInclusive true if an item equal to low is in the view
+   * @param high The high bound, or null for none
+   * @param highInclusive true if an item equal to high is in the view
+   * @param descending true if the view runs from high to low
+   */
+   NavigableTreeSet(BinarySearchTree<T> tree, T low, boolean lowInclusive,
+         T high, boolean highInclusive, boolean descending) {
+      if (low != null && high != null && low.compareTo(high) > 0) {
+         throw new IllegalArgumentException("fromKey > toKey");
+      }
+      this.tree = tree;
+      this.low = low;
+      this.lowInclusive = lowInclusive;
+      this.high = high;
+      this.highInclusive = highInclusive;
+      this.descending = descending;
+   }
+
+  /**
+   * Tells whether an item is past the low bound.
+   *
+   * @param item The item to check
+   * @return true if the item is below the view
+   */
+   private boolean tooLow(T item) {
+      if (low == null) {
+         return false;
+      }
+      int comparison = item.compareTo(low);
+      return comparison < 0 || (comparison == 0 && !lowInclusive);
+   }
+
+  /**
+   * Tells whether an item is past the high bound.
+   *
+   * @param item The item to check
+   * @return true if the item is above the view
+   */
+   private boolean tooHigh(T item) {
+      if (high == null) {
+         return false;
+      }
+      int comparison = item.compareTo(high);
+      return comparison > 0 || (comparison == 0 && !highInclusive);
+   }
+
+  /**
+   * Tells whether an item lies within the bounds.
+   *
+   * @param item The item to check
+   * @return true if the item is in range
+   */
+   private boolean inRange(T item) {
+      return !this.tooLow(item) && !this.tooHigh(item);
+   }
+
+  /**
+   * Tells whether a key can bound a narrower view. An inclusive bound
+   * must be in range; an exclusive one may also sit on either end.
+   *
+   * @param key The new bound
+   * @param inclusive true if the new bound is inclusive
+   * @return true if the narrower view stays within this one
+   */
+   private boolean allowsBound(T key, boolean inclusive) {
+      if (inclusive) {
+         return this.inRange(key);
+      }
+      return (low == null || key.compareTo(low) >= 0)
+         && (high == null || key.compareTo(high) <= 0);
+   }
+
+  /**
+   * Returns an item if it lies within the bounds.
+   *
+   * @param item The item to check, may be null
+   * @return the item, or null if it is null or out of range
+   */
+   private T inRangeOrNull(T item) {
+      return item != null && this.inRange(item) ? item : null;
+   }
+
+  /**
+   * Smallest item of the view in natural order.
+   *
+   * @return the item, or null if the view is empty
+   */
+   private T lowest() {
+      T item;
+      if (low == null) {
+         item = tree.size() == 0 ? null : tree.first();
+      }
+      else {
+         item = lowInclusive ? tree.ceiling(low) : tree.higher(low);
+      }
+      return this.inRangeOrNull(item);
+   }
+
+  /**
+   * Largest item of the view in natural order.
+   *
+   * @return the item, or null if the view is empty
+   */
+   private T highest() {
+      T item;
+      if (high == null) {
+         item = tree.size() == 0 ? null : tree.last();
+      }
+      else {
+         item = highInclusive ? tree.floor(high) : tree.lower(high);
+      }
+      return this.inRangeOrNull(item);
+   }
+
+  /**
+   * Closest item of the view below a key in natural order.
+   *
+   * @param key The key to look below
+   * @param inclusive true if an item equal to key matches
+   * @return the item, or null if there is none
+   */
+   private T below(T key, boolean inclusive) {
+      if (this.tooHigh(key)) {
+         return this.highest();
+      }
+      return this.inRangeOrNull(inclusive ? tree.floor(key) : tree.lower(key));
+   }
+
+  /**
+   * Closest item of the view above a key in natural order.
+   *
+   * @param key The key to look above
+   * @param inclusive true if an item equal to key matches
+   * @return the item, or null if there is none
+   */
+   private T above(T key, boolean inclusive) {
+      if (this.tooLow(key)) {
+         return this.lowest();
+      }
+      return this.inRangeOrNull(inclusive ? tree.ceiling(key)
+         : tree.higher(key));
+   }
+
+  /**
+   * Makes a narrower view, bounds in natural order.
+   * The new bounds must lie within this view's bounds.
+   *
+   * @param from The new low bound, or null to keep this one
+   * @param fromInclusive true if an item equal to from is in the view
+   * @param to The new high bound, or null to keep this one
+   * @param toInclusive true if an item equal to to is in the view
+   * @param reverse true if the new view runs from high to low
+   * @return the new view
+   */
+   private NavigableTreeSet<T> narrow(T from, boolean fromInclusive, T to,
+         boolean toInclusive, boolean reverse) {
+      if (from == null) {
+         from = low;
+         fromInclusive = lowInclusive;
+      }
+      else if (!this.allowsBound(from, fromInclusive)) {
+         throw new IllegalArgumentException("fromKey out of range");
+      }
+      if (to == null) {
+         to = high;
+         toInclusive = highInclusive;
+      }
+      else if (!this.allowsBound(to, toInclusive)) {
+         throw new IllegalArgumentException("toKey out of range");
+      }
+      return new NavigableTreeSet<T>(tree, from, fromInclusive, to,
+         toInclusive, reverse);
+   }
+
+   @Override
+   public int size() {
+      int below = high == null ? tree.size()
+         : tree.countBelow(high, highInclusive);
+      int under = low == null ? 0 : tree.countBelow(low, !lowInclusive);
+      return Math.max(below - under, 0);
+   }
+
+   @Override
+   public boolean isEmpty() {
+      return this.lowest() == null;
+   }
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public boolean contains(Object o) {
+      T key = (T) o;
+      if (!this.inRange(key)) {
+         return false;
+      }
+      T match = tree.floor(key);
+      return match != null && match.compareTo(key) == 0;
+   }
+
+   @Override
+   public boolean add(T item) {
+      if (!this.inRange(item)) {
+         throw new IllegalArgumentException("Item out of range");
+      }
+      if (this.contains(item)) {
+         return false;
+      }
+      tree.add(item);
+      return true;
+   }
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public boolean remove(Object o) {
+      if (!this.contains(o)) {
+         return false;
+      }
+      tree.remove((T) o);
+      return true;
+   }
+
+   @Override
+   public Iterator<T> iterator() {
+      return tree.rangeIterator(low, lowInclusive, high, highInclusive,
+         descending);
+   }
+
+   @Override
+   public Iterator<T> descendingIterator() {
+      return tree.rangeIterator(low, lowInclusive, high, highInclusive,
+         !descending);
+   }
+
+   @Override
+   public Comparator<? super T> comparator() {
+      return descending ? Collections.reverseOrder() : null;
+   }
+
+   @Override
+   public T first() {
+      T item = descending ? this.highest() : this.lowest();
+      if (item == null) {
+         throw new NoSuchElementException();
+      }
+      return item;
+   }
+
+   @Override
+   public T last() {
+      T item = descending ? this.lowest() : this.highest();
+      if (item == null) {
+         throw new NoSuchElementException();
+      }
+      return item;
+   }
+
+   @Override
+   public T lower(T key) {
+      return descending ? this.above(key, false) : this.below(key, false);
+   }
+
+   @Override
+   public T floor(T key) {
+      return descending ? this.above(key, true) : this.below(key, true);
+   }
+
+   @Override
+   public T ceiling(T key) {
+      return descending ? this.below(key, true) : this.above(key, true);
+   }
+
+   @Override
+   public T higher(T key) {
+      return descending ? this.below(key, false) : this.above(key, false);
+   }
+
+   @Override
+   public T pollFirst() {
+      T item = descending ? this.highest() : this.lowest();
+      if (item != null) {
+         tree.remove(item);
+      }
+      return item;
+   }
+
+   @Override
+   public T pollLast() {
+      T item = descending ? this.lowest() : this.highest();
+      if (item != null) {
+         tree.remove(item);
+      }
+      return item;
+   }
+
+   @Override
+   public NavigableSet<T> descendingSet() {
+      return new NavigableTreeSet<T>(tree, low, lowInclusive, high,
+         highInclusive, !descending);
+   }
+
+   @Override
+   public NavigableSet<T> subSet(T fromElement, boolean fromInclusive,
+         T toElement, boolean toInclusive) {
+      if (descending) {
+         return this.narrow(toElement, toInclusive, fromElement,
+            fromInclusive, true);
+      }
+      return this.narrow(fromElement, fromInclusive, toElement,
+         toInclusive, false);
+   }
+
+   @Override
+   public NavigableSet<T> headSet(T toElement, boolean inclusive) {
+      if (descending) {
+         return this.narrow(toElement, inclusive, null, false, true);
+      }
+      return this.narrow(null, false, toElement, inclusive, false);
+   }
+
+   @Override
+   public NavigableSet<T> tailSet(T fromElement, boolean inclusive) {
+      if (descending) {
+         return this.narrow(null, false, fromElement, inclusive, true);
+      }
+      return this.narrow(fromElement, inclusive, null, false, false);
+   }
+
+   @Override
+   public SortedSet<T> subSet(T fromElement, T toElement) {
+      return this.subSet(fromElement, true, toElement, false);
+   }
+
+   @Override
+   public SortedSet<T> headSet(T toElement) {
+      return this.headSet(toElement, false);
+   }
+
+   @Override
+   public SortedSet<T> tailSet(T fromElement) {
+      return this.tailSet(fromElement, true);
+   }
+}
@@ -0,0 +1,659 @@
+package binarysearchtree;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Binary search tree of long keys whose nodes live outside the Java heap.
+ * Each node is a fixed 20-byte record (key, left and right child slots,
+ * subtree height) in direct ByteBuffer chunks, so hundreds of millions of
+ * nodes add almost nothing for the garbage collector to trace.
+ * It follows LongBinarySearchTree: the same operations, optional AVL
+ * balancing and a free list of removed slots. Unlike the heap trees, the
+ * no parameter constructor makes a balanced tree, since a tree this large
+ * cannot afford a degenerate height. close() releases the memory right
+ * away instead of waiting for the buffers to be collected.
+ */
+public class OffHeapLongBinarySearchTree implements AutoCloseable {
+
+  /** Slot number standing for "no node". */
+   private static final int NIL = -1;
+  /** Bytes in one node record. */
+   private static final int NODE_BYTES = 20;
+  /** Offset of the key in a record. */
+   private static final int KEY = 0;
+  /** Offset of the left child slot, or next free slot, in a record. */
+   private static final int LEFT = 8;
+  /** Offset of the right child slot in a record. */
+   private static final int RIGHT = 12;
+  /** Offset of the subtree height in a record. */
+   private static final int HEIGHT = 16;
+  /** log2 of the number of records per chunk. */
+   private static final int CHUNK_SHIFT = 16;
+  /** Mask giving a slot's record number within its chunk. */
+   private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+  /** Unsafe.invokeCleaner bound to the Unsafe instance, or null. */
+   private static final MethodHandle INVOKE_CLEANER = findCleaner();
+
+  /** Chunks of node records, allocated as the tree grows. */
+   private ByteBuffer[] chunks = new ByteBuffer[8];
+  /** Number of chunks allocated. */
+   private int chunkCount = 0;
+
+  /** Slot of the root, NIL when empty. */
+   private int root = NIL;
+  /** Head of the free list, chained through the left slots. */
+   private int free = NIL;
+  /** Slots ever handed out. */
+   private int used = 0;
+  /** Number of keys in the tree. */
+   private int size = 0;
+  /** Count of structural changes, lets iterators fail fast. */
+   private int modCount = 0;
+  /** True once close() has released the memory. */
+   private boolean closed = false;
+
+  /** True if add and remove rebalance the tree (AVL). */
+   private final boolean balanced;
+
+  /** Slots on the current root-to-node path, reused between calls. */
+   private int[] path = new int[64];
+  /** wentLeft[i] is true if the walk went left from path[i]. */
+   private boolean[] wentLeft = new boolean[64];
+
+  /** No parameter constructor, makes an AVL balanced tree. */
+   public OffHeapLongBinarySearchTree() {
+      this(true);
+   }
+
+  /**
+   * Constructor choosing the balancing policy.
+   *
+   * @param balanced true to keep the tree AVL balanced on add and remove
+   */
+   public OffHeapLongBinarySearchTree(boolean balanced) {
+      this.balanced = balanced;
+   }
+
+  /**
+   * Adds a key to the tree.
+   *
+   * @param key The key to be added
+   * @throws TreeException if the key is already in the tree
+   */
+   public void add(long key) {
+      this.checkOpen();
+      int depth = 0;
+      int node = root;
+      while (node != NIL) {
+         long nodeKey = this.key(node);
+         if (key == nodeKey) {
+            throw new TreeException("No duplicate items are allowed!");
+         }
+         this.push(depth++, node, key < nodeKey);
+         node = key < nodeKey ? this.left(node) : this.right(node);
+      }
+      root = this.fixPath(depth, this.newNode(key));
+      size++;
+      modCount++;
+   }
+
+  /**
+   * gets a key from the tree.
+   *
+   * @param key The key to look for
+   * @return the key, when it is in the tree
+   * @throws TreeException if the key is not found
+   */
+   public long get(long key) {
+      if (!this.contains(key)) {
+         throw new TreeException("Item not found!");
+      }
+      return key;
+   }
+
+  /**
+   * Tells whether a key is in the tree.
+   *
+   * @param key The key to look for
+   * @return true if the key is in the tree
+   */
+   public boolean contains(long key) {
+      this.checkOpen();
+      int node = root;
+      while (node != NIL) {
+         long nodeKey = this.key(node);
+         if (key == nodeKey) {
+            return true;
+         }
+         node = key < nodeKey ? this.left(node) : this.right(node);
+      }
+      return false;
+   }
+
+  /**
+   * Removes a key from the tree.
+   *
+   * @param key The key to remove
+   * @throws TreeException if the key is not found
+   */
+   public void remove(long key) {
+      this.checkOpen();
+      int depth = 0;
+      int node = root;
+      while (node != NIL && this.key(node) != key) {
+         boolean goingLeft = key < this.key(node);
+         this.push(depth++, node, goingLeft);
+         node = goingLeft ? this.left(node) : this.right(node);
+      }
+      if (node == NIL) {
+         throw new TreeException("Item not found!");
+      }
+      int replacement;
+      if (this.left(node) == NIL || this.right(node) == NIL) {
+         // zero or one child: the child takes the node's place
+         replacement = this.left(node) == NIL ? this.right(node)
+            : this.left(node);
+         this.freeNode(node);
+      }
+      else {
+         // two children: move the largest key of the left subtree up,
+         // then unlink its slot, the rest of the path gets fixed below
+         this.push(depth++, node, true);
+         int largest = this.left(node);
+         while (this.right(largest) != NIL) {
+            this.push(depth++, largest, false);
+            largest = this.right(largest);
+         }
+         this.setKey(node, this.key(largest));
+         replacement = this.left(largest);
+         this.freeNode(largest);
+      }
+      root = this.fixPath(depth, replacement);
+      size--;
+      modCount++;
+   }
+
+  /**
+   * Number of keys in the tree.
+   *
+   * @return the key count
+   */
+   public int size() {
+      return size;
+   }
+
+  /**
+   * Height of the tree, the number of nodes on the longest root-to-leaf path.
+   *
+   * @return the height, 0 for an empty tree
+   */
+   public int height() {
+      this.checkOpen();
+      return this.height(root);
+   }
+
+  /**
+   * Off-heap bytes held by the tree, including unused record space.
+   *
+   * @return the number of bytes allocated outside the heap
+   */
+   public long offHeapBytes() {
+      return (long) chunkCount * NODE_BYTES << CHUNK_SHIFT;
+   }
+
+  /**
+   * The smallest key in the tree.
+   *
+   * @return the first key in ascending order
+   * @throws NoSuchElementException if the tree is empty
+   */
+   public long first() {
+      this.checkOpen();
+      if (root == NIL) {
+         throw new NoSuchElementException();
+      }
+      int node = root;
+      while (this.left(node) != NIL) {
+         node = this.left(node);
+      }
+      return this.key(node);
+   }
+
+  /**
+   * The largest key in the tree.
+   *
+   * @return the last key in ascending order
+   * @throws NoSuchElementException if the tree is empty
+   */
+   public long last() {
+      this.checkOpen();
+      if (root == NIL) {
+         throw new NoSuchElementException();
+      }
+      int node = root;
+      while (this.right(node) != NIL) {
+         node = this.right(node);
+      }
+      return this.key(node);
+   }
+
+  /**
+   * In-order iterator, keys come out in ascending order without boxing.
+   *
+   * @return an iterator over the keys
+   */
+   public PrimitiveIterator.OfLong iterator() {
+      this.checkOpen();
+      return new PrimitiveIterator.OfLong() {
+         private final int[] stack = new int[height()];
+         private int top = this.pushLeft(root);
+         private final int expectedModCount = modCount;
+
+         private int pushLeft(int node) {
+            int at = top;
+            while (node != NIL) {
+               stack[at++] = node;
+               node = left(node);
+            }
+            return at;
+         }
+
+         @Override
+         public boolean hasNext() {
+            return top > 0;
+         }
+
+         @Override
+         public long nextLong() {
+            checkOpen();
+            if (modCount != expectedModCount) {
+               throw new ConcurrentModificationException();
+            }
+            if (top == 0) {
+               throw new NoSuchElementException();
+            }
+            int node = stack[--top];
+            top = this.pushLeft(right(node));
+            return key(node);
+         }
+      };
+   }
+
+  /**
+   * Sequential stream of the keys in ascending order.
+   *
+   * @return a LongStream over the tree
+   */
+   public LongStream stream() {
+      return StreamSupport.longStream(Spliterators.spliterator(this.iterator(),
+         size, Spliterator.ORDERED | Spliterator.SORTED
+         | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+   }
+
+  /**
+   * called automatically by println/print method.
+   *
+   * @return an inorder String of the tree
+   */
+   public String toString() {
+      StringBuilder displayNodes = new StringBuilder();
+      PrimitiveIterator.OfLong items = this.iterator();
+      while (items.hasNext()) {
+         displayNodes.append(items.nextLong()).append(", ");
+      }
+      return displayNodes.toString();
+   }
+
+  /**
+   * Releases the off-heap memory. The tree cannot be used afterwards;
+   * closing it again does nothing.
+   */
+   @Override
+   public void close() {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      for (int i = 0; i < chunkCount; i++) {
+         release(chunks[i]);
+         chunks[i] = null;
+      }
+      chunkCount = 0;
+      root = NIL;
+      free = NIL;
+      used = 0;
+      size = 0;
+   }
+
+  /**
+   * Throws if the memory has been released.
+   */
+   private void checkOpen() {
+      if (closed) {
+         throw new IllegalStateException("Tree is closed");
+      }
+   }
+
+  /**
+   * Chunk holding a slot's record.
+   *
+   * @param node The slot
+   * @return the chunk
+   */
+   private ByteBuffer chunk(int node) {
+      return chunks[node >>> CHUNK_SHIFT];
+   }
+
+  /**
+   * Byte offset of a slot's record within its chunk.
+   *
+   * @param node The slot
+   * @return the offset of the record
+   */
+   private static int offset(int node) {
+      return (node & CHUNK_MASK) * NODE_BYTES;
+   }
+
+  /**
+   * Accessor for a slot's key.
+   *
+   * @param node The slot
+   * @return the key
+   */
+   private long key(int node) {
+      return this.chunk(node).getLong(offset(node) + KEY);
+   }
+
+  /**
+   * Mutator for a slot's key.
+   *
+   * @param node The slot
+   * @param key The new key
+   */
+   private void setKey(int node, long key) {
+      this.chunk(node).putLong(offset(node) + KEY, key);
+   }
+
+  /**
+   * Accessor for a slot's left child.
+   *
+   * @param node The slot
+   * @return the left child slot, or NIL
+   */
+   private int left(int node) {
+      return this.chunk(node).getInt(offset(node) + LEFT);
+   }
+
+  /**
+   * Mutator for a slot's left child.
+   *
+   * @param node The slot
+   * @param child The new left child slot, or NIL
+   */
+   private void setLeft(int node, int child) {
+      this.chunk(node).putInt(offset(node) + LEFT, child);
+   }
+
+  /**
+   * Accessor for a slot's right child.
+   *
+   * @param node The slot
+   * @return the right child slot, or NIL
+   */
+   private int right(int node) {
+      return this.chunk(node).getInt(offset(node) + RIGHT);
+   }
+
+  /**
+   * Mutator for a slot's right child.
+   *
+   * @param node The slot
+   * @param child The new right child slot, or NIL
+   */
+   private void setRight(int node, int child) {
+      this.chunk(node).putInt(offset(node) + RIGHT, child);
+   }
+
+  /**
+   * Height of a subtree that may be empty.
+   *
+   * @param node The slot of the subtree root, or NIL
+   * @return the height, 0 for NIL
+   */
+   private int height(int node) {
+      return node == NIL ? 0 : this.chunk(node).getInt(offset(node) + HEIGHT);
+   }
+
+  /**
+   * Recomputes the height of a slot from its children.
+   *
+   * @param node The slot whose children are up to date
+   */
+   private void updateHeight(int node) {
+      this.chunk(node).putInt(offset(node) + HEIGHT, 1
+         + Math.max(this.height(this.left(node)), this.height(this.right(node))));
+   }
+
+  /**
+   * Records one step of a walk down the tree, growing the path arrays
+   * the first time the tree gets deeper than they are.
+   *
+   * @param depth The position on the path
+   * @param node The slot at that position
+   * @param goingLeft true if the walk goes left from the slot
+   */
+   private void push(int depth, int node, boolean goingLeft) {
+      if (depth == path.length) {
+         path = Arrays.copyOf(path, depth * 2);
+         wentLeft = Arrays.copyOf(wentLeft, depth * 2);
+      }
+      path[depth] = node;
+      wentLeft[depth] = goingLeft;
+   }
+
+  /**
+   * Relinks a changed subtree into its ancestors, bottom up, updating
+   * heights and rebalancing each ancestor in turn.
+   *
+   * @param depth The number of ancestors on the path
+   * @param child The new root of the subtree below path[depth - 1]
+   * @return the new root of the tree
+   */
+   private int fixPath(int depth, int child) {
+      for (int i = depth - 1; i >= 0; i--) {
+         int parent = path[i];
+         if (wentLeft[i]) {
+            this.setLeft(parent, child);
+         }
+         else {
+            this.setRight(parent, child);
+         }
+         child = this.rebalance(parent);
+      }
+      return child;
+   }
+
+  /**
+   * Updates the height of a slot whose subtree just changed and, if the
+   * tree is balanced, restores the AVL property with one or two rotations.
+   *
+   * @param node The root of the changed subtree
+   * @return the new root of the subtree
+   */
+   private int rebalance(int node) {
+      this.updateHeight(node);
+      if (!balanced) {
+         return node;
+      }
+      int leftChild = this.left(node);
+      int rightChild = this.right(node);
+      int balance = this.height(leftChild) - this.height(rightChild);
+      if (balance > 1) {
+         if (this.height(this.left(leftChild))
+               < this.height(this.right(leftChild))) {
+            this.setLeft(node, this.rotateLeft(leftChild));
+         }
+         return this.rotateRight(node);
+      }
+      if (balance < -1) {
+         if (this.height(this.right(rightChild))
+               < this.height(this.left(rightChild))) {
+            this.setRight(node, this.rotateRight(rightChild));
+         }
+         return this.rotateLeft(node);
+      }
+      return node;
+   }
+
+  /**
+   * Rotates a subtree to the right, its left child becomes the root.
+   *
+   * @param node The slot of the subtree root
+   * @return the new root of the subtree
+   */
+   private int rotateRight(int node) {
+      int pivot = this.left(node);
+      this.setLeft(node, this.right(pivot));
+      this.setRight(pivot, node);
+      this.updateHeight(node);
+      this.updateHeight(pivot);
+      return pivot;
+   }
+
+  /**
+   * Rotates a subtree to the left, its right child becomes the root.
+   *
+   * @param node The slot of the subtree root
+   * @return the new root of the subtree
+   */
+   private int rotateLeft(int node) {
+      int pivot = this.right(node);
+      this.setRight(node, this.left(pivot));
+      this.setLeft(pivot, node);
+      this.updateHeight(node);
+      this.updateHeight(pivot);
+      return pivot;
+   }
+
+  /**
+   * Takes a slot from the free list, or a fresh one, for a new leaf.
+   * A new chunk is allocated when the last one is full.
+   *
+   * @param key The key for the new leaf
+   * @return the slot of the new leaf
+   */
+   private int newNode(long key) {
+      int node;
+      if (free != NIL) {
+         node = free;
+         free = this.left(node);
+      }
+      else {
+         if (used == Integer.MAX_VALUE) {
+            throw new TreeException("Tree is full!");
+         }
+         if (used >>> CHUNK_SHIFT == chunkCount) {
+            if (chunkCount == chunks.length) {
+               chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount++] = ByteBuffer.allocateDirect(
+               NODE_BYTES << CHUNK_SHIFT).order(ByteOrder.nativeOrder());
+         }
+         node = used++;
+      }
+      this.setKey(node, key);
+      this.setLeft(node, NIL);
+      this.setRight(node, NIL);
+      this.chunk(node).putInt(offset(node) + HEIGHT, 1);
+      return node;
+   }
+
+  /**
+   * Puts a slot on the free list.
+   *
+   * @param node The slot no longer in the tree
+   */
+   private void freeNode(int node) {
+      this.setLeft(node, free);
+      free = node;
+   }
+
+  /**
+   * Looks up Unsafe.invokeCleaner, which frees a direct buffer at once.
+   *
+   * @return the bound method handle, or null where it is not available
+   */
+   private static MethodHandle findCleaner() {
+      try {
+         Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+         Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+         theUnsafe.setAccessible(true);
+         return MethodHandles.lookup().findVirtual(unsafeClass,
+            "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+            .bindTo(theUnsafe.get(null));
+      }
+      catch (ReflectiveOperationException | RuntimeException exception) {
+         return null;
+      }
+   }
+
+  /**
+   * Frees a direct buffer now if the JVM allows it; otherwise its memory
+   * goes back when the buffer is garbage collected.
+   *
+   * @param buffer The buffer to free
+   */
+   private static void release(ByteBuffer buffer) {
+      if (INVOKE_CLEANER == null) {
+         return;
+      }
+      try {
+         INVOKE_CLEANER.invokeExact(buffer);
+      }
+      catch (Throwable exception) {
+         // leave it to the garbage collector
+      }
+   }
+
+  /**
+   * Driver code to test class.
+   *
+   * @param args optional number of keys
+   */
+   public static void main(String[] args) {
+      int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+      Runtime runtime = Runtime.getRuntime();
+      try (OffHeapLongBinarySearchTree tree = new OffHeapLongBinarySearchTree()) {
+         for (int i = 0; i < count; i++) {
+            // a fixed odd multiplier spreads the keys out of order
+            tree.add(i * 0x9E3779B97F4A7C15L);
+         }
+         for (int i = 0; i < count; i += 2) {
+            tree.remove(i * 0x9E3779B97F4A7C15L);
+         }
+         System.gc();
+         System.out.println(tree.size() + " keys, height " + tree.height()
+            + ", contains key 1: " + tree.contains(0x9E3779B97F4A7C15L)
+            + ", contains key 2: " + tree.contains(2 * 0x9E3779B97F4A7C15L));
+         System.out.println("Off-heap: " + tree.offHeapBytes() / 1048576
+            + " MB, Java heap in use: "
+            + (runtime.totalMemory() - runtime.freeMemory()) / 1048576 + " MB");
+         System.out.println("First " + tree.first() + ", last " + tree.last()
+            + ", in-order count " + tree.stream().count());
+      }
+   } // end of main
+} // end of class
@@ -0,0 +1,143 @@
+package binarysearchtree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Differential tests of BPlusTree against a TreeSet. Small widths make
+ * every add and remove split, borrow or merge nodes, and after each change
+ * every node but the root must still be at least half full.
+ */
+class BPlusTreeTest {
+
+  /** Keys are drawn from 0 to KEYS - 1. */
+   private static final int KEYS = 3000;
+  /** Random adds and removes per run. */
+   private static final int OPERATIONS = 20000;
+
+  /**
+   * Runs random adds and removes, growing the tree and then shrinking it
+   * back to empty, and compares it with a TreeSet after every change.
+   *
+   * @param width The most keys a node holds
+   */
+   @ParameterizedTest
+   @ValueSource(ints = {3, 4, 16})
+   void randomChangesMatchTreeSet(int width) {
+      Random random = new Random(width);
+      BPlusTree<Integer> tree = new BPlusTree<Integer>(width);
+      TreeSet<Integer> reference = new TreeSet<Integer>();
+      for (int i = 0; i < OPERATIONS; i++) {
+         int key = random.nextInt(KEYS);
+         // lean towards adds in the first half and removes in the second
+         boolean add = random.nextInt(OPERATIONS) > i;
+         if (add) {
+            if (reference.add(key)) {
+               tree.add(key);
+            }
+            else {
+               assertThrows(TreeException.class, () -> tree.add(key));
+            }
+         }
+         else if (reference.remove(key)) {
+            tree.remove(key);
+         }
+         else {
+            assertThrows(TreeException.class, () -> tree.remove(key));
+         }
+         assertEquals(reference.size(), tree.size());
+         assertTrue(tree.fewestKeys() >= width / 2,
+            () -> "node under half full at width " + width);
+         if (i % 500 == 0) {
+            check(tree, reference, random);
+         }
+      }
+      for (int key : new ArrayList<Integer>(reference)) {
+         tree.remove(key);
+         reference.remove(key);
+         assertTrue(tree.fewestKeys() >= width / 2);
+      }
+      assertEquals(0, tree.size());
+      assertEquals(1, tree.height());
+      assertFalse(tree.iterator().hasNext());
+      check(tree, reference, random);
+   }
+
+  /**
+   * Sorted inserts and removes from either end, the orders that
+   * exercise only the rightmost or leftmost nodes.
+   *
+   * @param width The most keys a node holds
+   */
+   @ParameterizedTest
+   @ValueSource(ints = {3, 4, 16})
+   void sortedChangesKeepNodesHalfFull(int width) {
+      BPlusTree<Integer> tree = new BPlusTree<Integer>(width);
+      TreeSet<Integer> reference = new TreeSet<Integer>();
+      for (int key = 0; key < KEYS; key++) {
+         tree.add(key);
+         reference.add(key);
+         assertTrue(tree.fewestKeys() >= width / 2);
+      }
+      double levels = Math.log(KEYS) / Math.log(width / 2 + 1) + 1;
+      assertTrue(tree.height() <= levels, () -> "height " + tree.height());
+      for (int i = 0; i < KEYS / 2; i++) {
+         int key = i % 2 == 0 ? reference.pollFirst() : reference.pollLast();
+         tree.remove(key);
+         assertTrue(tree.fewestKeys() >= width / 2);
+      }
+      check(tree, reference, new Random(width));
+   }
+
+  /**
+   * Asserts the tree holds the reference's keys, in order, and answers
+   * get, contains and range queries like it.
+   *
+   * @param tree The tree
+   * @param reference The expected keys
+   * @param random Source of the range bounds
+   */
+   private static void check(BPlusTree<Integer> tree,
+         TreeSet<Integer> reference, Random random) {
+      List<Integer> items = new ArrayList<Integer>();
+      tree.forEach(items::add);
+      assertEquals(new ArrayList<Integer>(reference), items);
+      for (int key = -1; key <= KEYS; key += 7) {
+         assertEquals(reference.contains(key), tree.contains(key));
+         if (reference.contains(key)) {
+            assertEquals(key, tree.get(key));
+         }
+         else {
+            int missing = key;
+            assertThrows(TreeException.class, () -> tree.get(missing));
+         }
+      }
+      for (int r = 0; r < 20; r++) {
+         int low = random.nextInt(KEYS + 20) - 10;
+         int high = random.nextInt(KEYS + 20) - 10;
+         List<Integer> range = new ArrayList<Integer>();
+         tree.rangeIterator(low, high).forEachRemaining(range::add);
+         List<Integer> expected = low > high ? List.of()
+            : new ArrayList<Integer>(reference.subSet(low, true, high, true));
+         assertEquals(expected, range, "range " + low + " to " + high);
+      }
+      if (!reference.isEmpty()) {
+         Iterator<Integer> stale = tree.iterator();
+         int key = reference.first();
+         tree.remove(key);
+         assertThrows(ConcurrentModificationException.class, stale::next);
+         tree.add(key);
+      }
+   }
+}
@@ -0,0 +1,843 @@
+package binarysearchtree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests of BinarySearchTree. The AVL balancing policy is checked on insert
+ * orders that turn an unbalanced tree into a list: the height must stay
+ * within the AVL bound 1.4405 log2(n + 2) - 0.3277, and still after bulk
+ * removes. The bulk and set operations are checked against a TreeSet.
+ */
+class BinarySearchTreeTest {
+
+  /** Keys in the larger trees. */
+   private static final int LARGE = 100000;
+  /** Keys in the trees checked after every single change. */
+   private static final int SMALL = 1000;
+
+  /**
+   * An item whose key is only part of it, so that the single-descent
+   * updates can replace it with an equal but different item.
+   *
+   * @param key The key
+   * @param count The value
+   */
+   private record Count(int key, int count) implements Comparable<Count> {
+      @Override
+      public int compareTo(Count other) {
+         return Integer.compare(key, other.key);
+      }
+   }
+
+  /** The kinds of tree the bulk operations must all handle. */
+   enum Kind {
+      /** An AVL tree. */
+      BALANCED,
+      /** A plain binary search tree. */
+      UNBALANCED,
+      /** An AVL tree that copies paths instead of changing nodes. */
+      PERSISTENT;
+
+     /**
+      * Makes an empty tree of this kind.
+      *
+      * @return the tree
+      */
+      BinarySearchTree<Integer> tree() {
+         return new BinarySearchTree<Integer>(this != UNBALANCED,
+            this == PERSISTENT);
+      }
+   }
+
+  /** Insert orders that degrade an unbalanced tree. */
+   enum Order {
+      /** 0, 1, 2, ... */
+      SORTED,
+      /** n - 1, n - 2, ... */
+      REVERSE_SORTED,
+      /** 0, n - 1, 1, n - 2, ..., closing in on the middle. */
+      ZIG_ZAG
+   }
+
+  /**
+   * Checks the bound after every add and every remove of a small tree.
+   *
+   * @param order The insert order
+   */
+   @ParameterizedTest
+   @EnumSource(Order.class)
+   void heightBoundHoldsAfterEveryChange(Order order) {
+      BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(true);
+      for (int key : keys(order, SMALL)) {
+         tree.add(key);
+         checkAvl(tree);
+      }
+      for (int key : keys(order, SMALL)) {
+         tree.remove(key);
+         checkAvl(tree);
+      }
+      assertEquals(0, tree.height());
+   }
+
+  /**
+   * Checks the bound on a large tree, then after bulk removes of every
+   * other key, of the lower half of the rest and of all but a few keys.
+   *
+   * @param order The insert order
+   */
+   @ParameterizedTest
+   @EnumSource(Order.class)
+   void heightBoundHoldsAfterBulkRemoves(Order order) {
+      BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(true);
+      for (int key : keys(order, LARGE)) {
+         tree.add(key);
+      }
+      checkAvl(tree);
+      for (int key = 0; key < LARGE; key += 2) {
+         tree.remove(key);
+      }
+      checkAvl(tree);
+      for (int key = 1; key < LARGE / 2; key += 2) {
+         tree.remove(key);
+      }
+      checkAvl(tree);
+      for (int key = LARGE / 2 + 1; key < LARGE - 20; key += 2) {
+         tree.remove(key);
+      }
+      checkAvl(tree);
+      assertEquals(10, tree.size());
+   }
+
+  /** addAll counts only the items it added, rebuilding or one at a time. */
+   @Test
+   void addAllCountsSkippedDuplicates() {
+      BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(true);
+      assertEquals(5, tree.addAll(List.of(4, 2, 2, 0, 8, 6, 4)));
+      assertEquals(4, tree.addAll(List.of(1, 2, 3, 4, 5, 9, 9)));
+      assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 8, 9), items(tree));
+      checkAvl(tree);
+
+      TreeSet<Integer> expected = new TreeSet<Integer>();
+      for (int i = 0; i < SMALL; i += 2) {
+         expected.add(i);
+      }
+      tree = BinarySearchTree.fromSorted(expected, true);
+      // few enough items to go in one at a time
+      List<Integer> few = List.of(7, 7, 8, 11, 500, 999, SMALL + 1);
+      int added = 0;
+      for (int key : few) {
+         added += expected.add(key) ? 1 : 0;
+      }
+      assertEquals(added, tree.addAll(few));
+      assertEquals(new ArrayList<Integer>(expected), items(tree));
+      checkAvl(tree);
+   }
+
+  /**
+   * A snapshot keeps its items and shape whatever is done to the tree
+   * afterwards, and refuses every change itself.
+   *
+   * @param persistent true to snapshot a path-copying tree in O(1)
+   */
+   @ParameterizedTest
+   @ValueSource(booleans = {false, true})
+   void snapshotNeverSeesLaterChanges(boolean persistent) {
+      BinarySearchTree<Integer> tree =
+         new BinarySearchTree<Integer>(true, persistent);
+      for (int key : keys(Order.ZIG_ZAG, SMALL)) {
+         tree.add(key);
+      }
+      BinarySearchTree<Integer> snapshot = tree.snapshot();
+      assertTrue(snapshot.isReadOnly());
+      String shape = snapshot.preOrder();
+      List<Integer> items = items(snapshot);
+
+      tree.add(SMALL);
+      tree.remove(0);
+      tree.removeIfPresent(1);
+      tree.compute(2, (key, old) -> null);
+      // a new Integer outside the cache replaces the item in place
+      tree.compute(300, (key, old) -> Integer.valueOf(300));
+      tree.merge(SMALL + 1, (old, item) -> item);
+      tree.addBatch(List.of(-3, -2, -1, 5));
+      tree.removeBatch(List.of(10, 11, 12, SMALL + 5));
+      tree.addAll(keys(Order.SORTED, 2 * SMALL));
+      tree.difference(BinarySearchTree.fromSorted(List.of(20, 21), true));
+      tree.split(SMALL / 2);
+
+      assertEquals(shape, snapshot.preOrder());
+      assertEquals(items, items(snapshot));
+      checkAvl(snapshot);
+
+      assertThrows(UnsupportedOperationException.class, () -> snapshot.add(-5));
+      assertThrows(UnsupportedOperationException.class,
+         () -> snapshot.remove(5));
+      assertThrows(UnsupportedOperationException.class,
+         () -> snapshot.removeIfPresent(5));
+      assertThrows(UnsupportedOperationException.class,
+         () -> snapshot.compute(5, (key, old) -> null));
+      assertThrows(UnsupportedOperationException.class,
+         () -> snapshot.addAll(List.of(-5)));
+      assertThrows(UnsupportedOperationException.class,
+         () -> snapshot.addBatch(List.of(-5)));
+      assertThrows(UnsupportedOperationException.class,
+         () -> snapshot.removeBatch(List.of(5)));
+      assertThrows(UnsupportedOperationException.class,
+         () -> snapshot.split(5));
+      assertThrows(UnsupportedOperationException.class,
+         () -> snapshot.union(tree));
+      assertEquals(items, items(snapshot));
+   }
+
+  /**
+   * rank, select and countInRange agree with a sorted list, for keys in
+   * the tree, between them and outside them.
+   *
+   * @param balanced true for an AVL tree
+   */
+   @ParameterizedTest
+   @ValueSource(booleans = {false, true})
+   void orderStatisticsMatchASortedList(boolean balanced) {
+      BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(balanced);
+      for (int key : keys(Order.ZIG_ZAG, SMALL)) {
+         tree.add(3 * key);
+      }
+      for (int key = 0; key < SMALL; key += 4) {
+         tree.remove(3 * key);
+      }
+      checkTree(tree);
+      List<Integer> sorted = items(tree);
+      assertEquals(sorted.size(), tree.size());
+      for (int i = 0; i < sorted.size(); i++) {
+         assertEquals(sorted.get(i), tree.select(i));
+         assertEquals(i, tree.rank(sorted.get(i)));
+      }
+      for (int key = -2; key < 3 * SMALL + 2; key++) {
+         int below = 0;
+         while (below < sorted.size() && sorted.get(below) < key) {
+            below++;
+         }
+         assertEquals(below, tree.rank(key), "rank of " + key);
+      }
+      int[][] ranges = {{-5, -1}, {-5, 0}, {0, 3 * SMALL}, {7, 7}, {9, 9},
+         {100, 1234}, {1234, 100}, {3 * SMALL - 3, 5 * SMALL}};
+      for (int[] range : ranges) {
+         long count = sorted.stream()
+            .filter(key -> range[0] <= key && key <= range[1]).count();
+         assertEquals(count, tree.countInRange(range[0], range[1]),
+            () -> "count from " + range[0] + " to " + range[1]);
+      }
+      assertThrows(TreeException.class, () -> tree.select(-1));
+      assertThrows(TreeException.class, () -> tree.select(sorted.size()));
+      assertThrows(TreeException.class,
+         () -> new BinarySearchTree<Integer>().select(0));
+   }
+
+  /**
+   * Random add and remove batches, with keys repeated inside a batch and
+   * keys already in or missing from the tree, skip exactly the items a
+   * TreeSet would refuse, keep the tree valid and leave a snapshot taken
+   * before them alone.
+   *
+   * @param kind The kind of tree
+   */
+   @ParameterizedTest
+   @EnumSource(Kind.class)
+   void batchesMatchTreeSet(Kind kind) {
+      Random random = new Random(kind.ordinal());
+      BinarySearchTree<Integer> tree = kind.tree();
+      TreeSet<Integer> reference = new TreeSet<Integer>();
+      for (int round = 0; round < 40; round++) {
+         List<Integer> batch = new ArrayList<Integer>();
+         int count = random.nextInt(SMALL / 2);
+         for (int i = 0; i < count; i++) {
+            batch.add(random.nextInt(2 * SMALL));
+         }
+         // mostly adds in the first half, mostly removes in the second
+         boolean add = round < 20 ? round % 3 != 2 : round % 3 == 2;
+         checkBatch(tree, reference, batch, add);
+      }
+      checkBatch(tree, reference, List.of(), true);
+      checkBatch(tree, reference, new ArrayList<Integer>(reference), false);
+      assertEquals(0, tree.size());
+   }
+
+  /**
+   * An unbalanced tree deeper than the batch recursion allows takes
+   * batches item by item instead, with the same results.
+   *
+   * @param persistent true for a path-copying tree
+   */
+   @ParameterizedTest
+   @ValueSource(booleans = {false, true})
+   void batchesOnADeepTreeMatchTreeSet(boolean persistent) {
+      BinarySearchTree<Integer> tree =
+         new BinarySearchTree<Integer>(false, persistent);
+      TreeSet<Integer> reference = new TreeSet<Integer>();
+      for (int key = 0; key < 3 * SMALL; key += 2) {
+         tree.add(key);
+         reference.add(key);
+      }
+      // past the 1000 levels the recursive batch code allows
+      assertTrue(tree.height() > SMALL);
+      checkBatch(tree, reference,
+         List.of(-1, 1, 2, 3, 3, 3 * SMALL - 2, 3 * SMALL, 3 * SMALL), true);
+      checkBatch(tree, reference,
+         List.of(-1, -2, 4, 4, 5, 7, 3 * SMALL - 1, 3 * SMALL), false);
+      checkBatch(tree, reference, keys(Order.ZIG_ZAG, 3 * SMALL), false);
+      assertEquals(0, tree.size());
+   }
+
+  /**
+   * Applies one batch to the tree and the reference and compares them,
+   * the skipped items, the tree's structure and a snapshot taken before.
+   *
+   * @param tree The tree
+   * @param reference The expected keys
+   * @param batch The keys to add or remove
+   * @param add true for addBatch, false for removeBatch
+   */
+   private static void checkBatch(BinarySearchTree<Integer> tree,
+         TreeSet<Integer> reference, List<Integer> batch, boolean add) {
+      BinarySearchTree<Integer> snapshot = tree.snapshot();
+      List<Integer> before = items(tree);
+      List<Integer> expected = new ArrayList<Integer>();
+      for (int key : batch) {
+         if (add ? !reference.add(key) : !reference.remove(key)) {
+            expected.add(key);
+         }
+      }
+      List<Integer> skipped = add ? tree.addBatch(batch)
+         : tree.removeBatch(batch);
+      expected.sort(null);
+      skipped.sort(null);
+      assertEquals(expected, skipped);
+      assertEquals(new ArrayList<Integer>(reference), items(tree));
+      assertEquals(reference.size(), tree.size());
+      checkTree(tree);
+      assertEquals(before, items(snapshot));
+   }
+
+  /**
+   * union, intersection and difference give what the TreeSet methods
+   * give, sequentially and forking below a small parallel threshold,
+   * with an operand of each kind. Neither a snapshot of the changed tree
+   * nor the other tree may see the result or later changes to it.
+   *
+   * @param kind The kind of the tree changed
+   */
+   @ParameterizedTest
+   @EnumSource(Kind.class)
+   void setOperationsMatchTreeSet(Kind kind) {
+      Random random = new Random(kind.ordinal());
+      for (int threshold : new int[] {Integer.MAX_VALUE, 16}) {
+         for (Kind otherKind : Kind.values()) {
+            for (int op = 0; op < 3; op++) {
+               TreeSet<Integer> expected = new TreeSet<Integer>();
+               TreeSet<Integer> theirs = new TreeSet<Integer>();
+               BinarySearchTree<Integer> tree =
+                  randomTree(kind, random, SMALL, expected);
+               BinarySearchTree<Integer> other =
+                  randomTree(otherKind, random, SMALL / 2, theirs);
+               tree.setParallelThreshold(threshold);
+               BinarySearchTree<Integer> snapshot = tree.snapshot();
+               List<Integer> before = items(tree);
+               if (op == 0) {
+                  tree.union(other);
+                  expected.addAll(theirs);
+               }
+               else if (op == 1) {
+                  tree.intersection(other);
+                  expected.retainAll(theirs);
+               }
+               else {
+                  tree.difference(other);
+                  expected.removeAll(theirs);
+               }
+               assertEquals(new ArrayList<Integer>(expected), items(tree));
+               assertEquals(expected.size(), tree.size());
+               checkTree(tree);
+               // the result may share nodes with the other tree
+               for (int key = 0; key < 2 * SMALL; key += 3) {
+                  tree.removeIfPresent(key);
+               }
+               tree.addBatch(keys(Order.SORTED, 2 * SMALL));
+               checkTree(tree);
+               assertEquals(new ArrayList<Integer>(theirs), items(other));
+               checkTree(other);
+               assertEquals(before, items(snapshot));
+            }
+         }
+      }
+   }
+
+  /**
+   * split at keys in, between and around the items leaves the smaller
+   * items and moves the rest, and join puts them back, each leaving a
+   * valid tree and an unchanged snapshot.
+   *
+   * @param kind The kind of tree
+   */
+   @ParameterizedTest
+   @EnumSource(Kind.class)
+   void splitAndJoinMatchTreeSet(Kind kind) {
+      Random random = new Random(kind.ordinal());
+      TreeSet<Integer> reference = new TreeSet<Integer>();
+      BinarySearchTree<Integer> tree =
+         randomTree(kind, random, SMALL, reference);
+      tree.setParallelThreshold(16);
+      int[] at = {-1, reference.first(), reference.first() + 1, SMALL,
+         reference.last(), reference.last() + 1};
+      for (int key : at) {
+         BinarySearchTree<Integer> snapshot = tree.snapshot();
+         List<Integer> before = items(tree);
+         BinarySearchTree<Integer> upper = tree.split(key);
+         assertEquals(new ArrayList<Integer>(reference.headSet(key)),
+            items(tree));
+         assertEquals(new ArrayList<Integer>(reference.tailSet(key)),
+            items(upper));
+         assertEquals(tree.isBalanced(), upper.isBalanced());
+         checkTree(tree);
+         checkTree(upper);
+         if (tree.size() > 0 && upper.size() > 0) {
+            assertThrows(IllegalArgumentException.class,
+               () -> upper.join(tree));
+         }
+         tree.join(upper);
+         assertEquals(0, upper.size());
+         assertEquals(new ArrayList<Integer>(reference), items(tree));
+         checkTree(tree);
+         assertEquals(before, items(snapshot));
+      }
+      assertThrows(IllegalArgumentException.class, () -> tree.join(tree));
+   }
+
+  /**
+   * join copies the nodes it takes from a persistent tree into a tree
+   * that changes nodes in place, and from an unbalanced tree into an AVL
+   * tree, so a snapshot of the other tree keeps its items and the joined
+   * tree stays within the AVL bound.
+   *
+   * @param kind The kind of the tree joined onto
+   */
+   @ParameterizedTest
+   @EnumSource(Kind.class)
+   void joinCopiesSharedAndUnbalancedNodes(Kind kind) {
+      for (Kind otherKind : Kind.values()) {
+         BinarySearchTree<Integer> tree = kind.tree();
+         BinarySearchTree<Integer> other = otherKind.tree();
+         for (int key = 0; key < SMALL; key++) {
+            tree.add(key);
+            // sorted, so the unbalanced one is a list
+            other.add(SMALL + key);
+         }
+         BinarySearchTree<Integer> snapshot = other.snapshot();
+         List<Integer> theirs = items(other);
+         tree.join(other);
+         assertEquals(0, other.size());
+         assertEquals(keys(Order.SORTED, 2 * SMALL), items(tree));
+         checkTree(tree);
+         for (int key = SMALL; key < 2 * SMALL; key += 2) {
+            tree.remove(key);
+         }
+         tree.compute(SMALL + 1, (key, old) -> null);
+         checkTree(tree);
+         assertEquals(theirs, items(snapshot));
+      }
+   }
+
+  /**
+   * Trees deeper than the recursion allows fall back to the batch and
+   * single-item code in split, join and the set operations, with the
+   * same results.
+   *
+   * @param persistent true for path-copying trees
+   */
+   @ParameterizedTest
+   @ValueSource(booleans = {false, true})
+   void deepTreeSetOperationsMatchTreeSet(boolean persistent) {
+      BinarySearchTree<Integer> tree =
+         new BinarySearchTree<Integer>(false, persistent);
+      BinarySearchTree<Integer> other =
+         new BinarySearchTree<Integer>(false, persistent);
+      TreeSet<Integer> reference = new TreeSet<Integer>();
+      TreeSet<Integer> theirs = new TreeSet<Integer>();
+      for (int key = 0; key < 3 * SMALL; key += 2) {
+         tree.add(key);
+         reference.add(key);
+      }
+      for (int key = 0; key < 4 * SMALL; key += 3) {
+         other.add(key);
+         theirs.add(key);
+      }
+      // past the 1000 levels the recursive code allows
+      assertTrue(tree.height() > SMALL && other.height() > SMALL);
+      BinarySearchTree<Integer> snapshot = tree.snapshot();
+      List<Integer> before = items(tree);
+
+      BinarySearchTree<Integer> upper = tree.split(SMALL + 1);
+      assertEquals(new ArrayList<Integer>(reference.headSet(SMALL + 1)),
+         items(tree));
+      assertEquals(new ArrayList<Integer>(reference.tailSet(SMALL + 1)),
+         items(upper));
+      checkTree(tree);
+      checkTree(upper);
+      tree.join(upper);
+      assertEquals(new ArrayList<Integer>(reference), items(tree));
+
+      tree.union(other);
+      reference.addAll(theirs);
+      assertEquals(new ArrayList<Integer>(reference), items(tree));
+      checkTree(tree);
+      tree.difference(other);
+      reference.removeAll(theirs);
+      assertEquals(new ArrayList<Integer>(reference), items(tree));
+      checkTree(tree);
+      tree.addBatch(keys(Order.SORTED, 3 * SMALL));
+      reference.addAll(keys(Order.SORTED, 3 * SMALL));
+      tree.intersection(other);
+      reference.retainAll(theirs);
+      assertEquals(new ArrayList<Integer>(reference), items(tree));
+      checkTree(tree);
+
+      assertEquals(new ArrayList<Integer>(theirs), items(other));
+      assertEquals(before, items(snapshot));
+   }
+
+  /**
+   * compute, computeIfAbsent, merge and addIfAbsent add, replace and
+   * remove like the Map methods of the same names, reject items with
+   * another key without changing the tree, and replace an item in its
+   * node, or in a copy of the path when the tree is persistent.
+   *
+   * @param persistent true for a path-copying tree
+   */
+   @ParameterizedTest
+   @ValueSource(booleans = {false, true})
+   void singleDescentUpdatesMatchMapSemantics(boolean persistent) {
+      BinarySearchTree<Count> tree =
+         new BinarySearchTree<Count>(true, persistent);
+      for (int key = 0; key < SMALL; key += 2) {
+         tree.add(new Count(key, 1));
+      }
+      int size = tree.size();
+
+      // a null result removes the key, or leaves it absent
+      assertEquals(null, tree.compute(new Count(10, 0), (key, old) -> null));
+      assertEquals(null, tree.getOrNull(new Count(10, 0)));
+      assertEquals(null, tree.compute(new Count(11, 0), (key, old) -> null));
+      assertEquals(null, tree.merge(new Count(12, 5), (old, item) -> null));
+      assertEquals(null, tree.getOrNull(new Count(12, 0)));
+      assertEquals(size - 2, tree.size());
+
+      // absent keys are added, present ones kept or combined
+      assertEquals(new Count(11, 7),
+         tree.compute(new Count(11, 0), (key, old) -> new Count(11, 7)));
+      assertTrue(tree.addIfAbsent(new Count(13, 3)));
+      assertFalse(tree.addIfAbsent(new Count(13, 4)));
+      assertEquals(3, tree.getOrNull(new Count(13, 0)).count());
+      assertEquals(new Count(15, 2),
+         tree.computeIfAbsent(new Count(15, 0), key -> new Count(15, 2)));
+      assertEquals(new Count(14, 1), tree.computeIfAbsent(new Count(14, 0),
+         key -> { throw new AssertionError("factory called for " + key); }));
+      assertEquals(null, tree.computeIfAbsent(new Count(17, 0), key -> null));
+      assertEquals(new Count(16, 6), tree.merge(new Count(16, 5),
+         (old, item) -> new Count(old.key(), old.count() + item.count())));
+      assertEquals(new Count(19, 5),
+         tree.merge(new Count(19, 5), (old, item) -> null));
+      assertEquals(size + 2, tree.size());
+
+      // a result with another key throws and changes nothing
+      List<Count> before = new ArrayList<Count>();
+      tree.forEach(before::add);
+      assertThrows(IllegalArgumentException.class,
+         () -> tree.compute(new Count(20, 0), (key, old) -> new Count(21, 0)));
+      assertThrows(IllegalArgumentException.class,
+         () -> tree.compute(new Count(23, 0), (key, old) -> new Count(22, 0)));
+      assertThrows(IllegalArgumentException.class,
+         () -> tree.computeIfAbsent(new Count(25, 0), key -> new Count(24, 0)));
+      assertThrows(IllegalArgumentException.class, () -> tree.merge(
+         new Count(26, 1), (old, item) -> new Count(27, 0)));
+      List<Count> after = new ArrayList<Count>();
+      tree.forEach(after::add);
+      assertEquals(before, after);
+
+      // replacing an item with another of the same key
+      Count key = new Count(SMALL / 2, 0);
+      BinaryNode<Count> node = find(tree.getRoot(), key);
+      BinarySearchTree<Count> snapshot = tree.snapshot();
+      BinaryNode<Count> root = tree.getRoot();
+      Count replacement = new Count(SMALL / 2, 42);
+      assertEquals(replacement, tree.compute(key, (k, old) -> replacement));
+      assertTrue(replacement == tree.getOrNull(key));
+      assertEquals(1, snapshot.getOrNull(key).count());
+      assertEquals(size + 2, tree.size());
+      if (persistent) {
+         // the old nodes are shared with the snapshot, so the path is copied
+         assertEquals(1, node.getData().count());
+         assertTrue(node != find(tree.getRoot(), key));
+         assertTrue(root != tree.getRoot());
+      }
+      else {
+         assertTrue(replacement == node.getData());
+         assertTrue(node == find(tree.getRoot(), key));
+         assertTrue(root == tree.getRoot());
+      }
+   }
+
+  /**
+   * getOrNull, find, contains and removeIfPresent answer like a TreeSet,
+   * with the Bloom filter on or off, while adds, removes, batches and set
+   * operations change the tree. The filter must never miss a key, and
+   * must be rebuilt once removed keys pile up in it.
+   *
+   * @param bloomFilter true to check the Bloom filter before each lookup
+   */
+   @ParameterizedTest
+   @ValueSource(booleans = {false, true})
+   void lookupsMatchTreeSet(boolean bloomFilter) {
+      Random random = new Random(bloomFilter ? 1 : 2);
+      BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(true);
+      tree.setBloomFilter(bloomFilter);
+      assertEquals(bloomFilter, tree.hasBloomFilter());
+      TreeSet<Integer> reference = new TreeSet<Integer>();
+      // grow well past the capacity of the first filter
+      for (int i = 0; i < 4 * SMALL; i++) {
+         int key = random.nextInt(8 * SMALL);
+         assertEquals(reference.add(key), tree.addIfAbsent(key));
+      }
+      checkLookups(tree, reference);
+
+      // remove nine keys in ten, absent ones included
+      List<Integer> removed = new ArrayList<Integer>();
+      for (int key = 0; key < 8 * SMALL; key++) {
+         if (key % 10 != 0) {
+            boolean present = reference.remove(key);
+            assertEquals(present, tree.removeIfPresent(key));
+            if (present) {
+               removed.add(key);
+            }
+         }
+      }
+      checkLookups(tree, reference);
+      if (bloomFilter) {
+         // without rebuilds every removed key would still answer maybe,
+         // with them at most a quarter of the capacity plus false positives
+         int stale = 0;
+         for (int key : removed) {
+            stale += tree.getBloomFilter().mightContain(key) ? 1 : 0;
+         }
+         int allowed = tree.getBloomFilter().getCapacity() / 4
+            + removed.size() / 20;
+         assertTrue(stale <= allowed,
+            stale + " of " + removed.size() + " removed keys still in filter");
+      }
+
+      List<Integer> batch = keys(Order.ZIG_ZAG, SMALL);
+      tree.addBatch(batch);
+      reference.addAll(batch);
+      checkLookups(tree, reference);
+      tree.removeBatch(batch.subList(0, SMALL / 2));
+      reference.removeAll(batch.subList(0, SMALL / 2));
+      checkLookups(tree, reference);
+
+      BinarySearchTree<Integer> other = new BinarySearchTree<Integer>(true);
+      for (int key = 10 * SMALL; key < 12 * SMALL; key += 3) {
+         other.add(key);
+      }
+      tree.union(other);
+      reference.addAll(items(other));
+      checkLookups(tree, reference);
+      tree.difference(BinarySearchTree.fromSorted(
+         new ArrayList<Integer>(reference.headSet(SMALL)), true));
+      reference.removeAll(new ArrayList<Integer>(reference.headSet(SMALL)));
+      checkLookups(tree, reference);
+      BinarySearchTree<Integer> upper = tree.split(6 * SMALL);
+      TreeSet<Integer> upperReference =
+         new TreeSet<Integer>(reference.tailSet(6 * SMALL));
+      reference.removeAll(upperReference);
+      checkLookups(tree, reference);
+      tree.join(upper);
+      reference.addAll(upperReference);
+      checkLookups(tree, reference);
+
+      tree.setBloomFilter(!bloomFilter);
+      assertEquals(!bloomFilter, tree.hasBloomFilter());
+      assertEquals(!bloomFilter, tree.getBloomFilter() != null);
+      checkLookups(tree, reference);
+   }
+
+  /**
+   * Asserts that every lookup agrees with the reference, for the keys it
+   * holds and for the keys between and around them.
+   *
+   * @param tree The tree
+   * @param reference The expected keys
+   */
+   private static void checkLookups(BinarySearchTree<Integer> tree,
+         TreeSet<Integer> reference) {
+      assertEquals(new ArrayList<Integer>(reference), items(tree));
+      checkAvl(tree);
+      int high = reference.isEmpty() ? 0 : reference.last() + 2;
+      for (int key = -2; key < high; key++) {
+         Integer expected = reference.contains(key) ? key : null;
+         assertEquals(expected, tree.getOrNull(key));
+         assertEquals(Optional.ofNullable(expected), tree.find(key));
+         assertEquals(expected != null, tree.contains(key));
+      }
+      // a miss leaves the tree alone
+      assertFalse(tree.removeIfPresent(-1));
+      assertEquals(reference.size(), tree.size());
+   }
+
+  /**
+   * Makes a tree of random keys from 0 to 2 * SMALL - 1, added in random
+   * order.
+   *
+   * @param kind The kind of tree
+   * @param random The random source
+   * @param count The number of adds, repeated keys are skipped
+   * @param reference Gets the same keys
+   * @return the tree
+   */
+   private static BinarySearchTree<Integer> randomTree(Kind kind,
+         Random random, int count, TreeSet<Integer> reference) {
+      BinarySearchTree<Integer> tree = kind.tree();
+      for (int i = 0; i < count; i++) {
+         int key = random.nextInt(2 * SMALL);
+         assertEquals(reference.add(key), tree.addIfAbsent(key));
+      }
+      return tree;
+   }
+
+  /**
+   * Finds the node holding a key.
+   *
+   * @param node The subtree root
+   * @param key The key
+   * @return the node, or null if the key is not in the subtree
+   */
+   private static BinaryNode<Count> find(BinaryNode<Count> node, Count key) {
+      while (node != null && node.getData().compareTo(key) != 0) {
+         node = key.compareTo(node.getData()) < 0 ? node.getLeftChild()
+            : node.getRightChild();
+      }
+      return node;
+   }
+
+  /**
+   * Makes keys 0 to count - 1 in an insert order.
+   *
+   * @param order The order
+   * @param count The number of keys
+   * @return the keys
+   */
+   private static List<Integer> keys(Order order, int count) {
+      List<Integer> keys = new ArrayList<Integer>(count);
+      for (int i = 0; i < count; i++) {
+         keys.add(switch (order) {
+            case SORTED -> i;
+            case REVERSE_SORTED -> count - 1 - i;
+            case ZIG_ZAG -> i % 2 == 0 ? i / 2 : count - 1 - i / 2;
+         });
+      }
+      return keys;
+   }
+
+  /**
+   * Lists the items of a tree in ascending order.
+   *
+   * @param tree The tree
+   * @return its items
+   */
+   private static List<Integer> items(Iterable<Integer> tree) {
+      List<Integer> items = new ArrayList<Integer>();
+      for (int item : tree) {
+         items.add(item);
+      }
+      return items;
+   }
+
+  /**
+   * Asserts that the tree is ordered, AVL balanced at every node, that
+   * height() matches the measured height, and that the height is within
+   * the AVL bound for its size.
+   *
+   * @param tree The tree to check
+   */
+   private static void checkAvl(BinarySearchTree<Integer> tree) {
+      int n = tree.size();
+      int measured = measure(tree.getRoot(), Integer.MIN_VALUE,
+         Integer.MAX_VALUE, true);
+      assertEquals(measured, tree.height(), "stored height");
+      double bound = 1.4405 * Math.log(n + 2) / Math.log(2) - 0.3277;
+      assertTrue(measured <= bound, () -> "height " + measured + " of " + n
+         + " keys is over the AVL bound " + bound);
+   }
+
+  /**
+   * Asserts that a tree is ordered and that its stored sizes and height
+   * are right, and if it is balanced that it is within the AVL bound.
+   *
+   * @param tree The tree to check
+   */
+   private static void checkTree(BinarySearchTree<Integer> tree) {
+      if (tree.isBalanced()) {
+         checkAvl(tree);
+      }
+      else {
+         assertEquals(measure(tree.getRoot(), Integer.MIN_VALUE,
+            Integer.MAX_VALUE, false), tree.height(), "stored height");
+      }
+   }
+
+  /**
+   * Measures a subtree's height, asserting the key order, the stored
+   * subtree sizes and, if asked, the AVL property on the way.
+   *
+   * @param node The subtree root, or null
+   * @param low The least key allowed
+   * @param high The greatest key allowed
+   * @param avl true to assert the AVL property at every node
+   * @return the number of nodes on the longest path down
+   */
+   private static int measure(BinaryNode<Integer> node, int low, int high,
+         boolean avl) {
+      if (node == null) {
+         return 0;
+      }
+      int key = node.getData();
+      assertTrue(low <= key && key <= high,
+         () -> "key " + key + " out of order");
+      int left = measure(node.getLeftChild(), low, key - 1, avl);
+      int right = measure(node.getRightChild(), key + 1, high, avl);
+      int size = 1 + size(node.getLeftChild()) + size(node.getRightChild());
+      assertEquals(size, node.getSize(), () -> "size of node " + key);
+      assertTrue(!avl || Math.abs(left - right) <= 1, () -> "node " + key
+         + " is unbalanced: " + left + " vs " + right);
+      return 1 + Math.max(left, right);
+   }
+
+  /**
+   * Stored size of a subtree.
+   *
+   * @param node The subtree root, or null
+   * @return its size, 0 for null
+   */
+   private static int size(BinaryNode<Integer> node) {
+      return node == null ? 0 : node.getSize();
+   }
+}
@@ -0,0 +1,244 @@
+package binarysearchtree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Linearizability test of ConcurrentBinarySearchTree. Writers and
+ * lock-free readers work on a small shared key range in rounds; after
+ * each round, every key's history must have an order that respects real
+ * time and explains every answer, starting from the state held by a
+ * ConcurrentSkipListSet reference. Set operations on different keys
+ * commute, so checking each key on its own checks the whole history.
+ */
+class ConcurrentBinarySearchTreeTest {
+
+  /** Operation kinds. */
+   private enum Kind { ADD, REMOVE, CONTAINS }
+
+  /**
+   * One completed call.
+   *
+   * @param kind The operation
+   * @param key The key
+   * @param result true if add added, remove removed or contains found
+   * @param start nanoTime before the call
+   * @param end nanoTime after the call
+   */
+   private record Operation(Kind kind, int key, boolean result, long start,
+         long end) {
+   }
+
+  /** Writer threads. */
+   private static final int WRITERS = 4;
+  /** Reader threads, using the lock-free lookups. */
+   private static final int READERS = 2;
+  /** Keys shared by all threads, few so that threads collide. */
+   private static final int KEYS = 8;
+  /** Operations per thread per round, small so histories stay checkable. */
+   private static final int OPS_PER_ROUND = 6;
+  /** Rounds, each ended by a check at a quiescent point. */
+   private static final int ROUNDS = 1500;
+
+  /** Checks every round of a contended run against the reference. */
+   @Test
+   void overlappingWritersAndReadersAreLinearizable() throws Exception {
+      ConcurrentBinarySearchTree<Integer> tree =
+         new ConcurrentBinarySearchTree<Integer>();
+      ConcurrentSkipListSet<Integer> reference =
+         new ConcurrentSkipListSet<Integer>();
+      ConcurrentLinkedQueue<Operation> history =
+         new ConcurrentLinkedQueue<Operation>();
+      ConcurrentLinkedQueue<Throwable> errors =
+         new ConcurrentLinkedQueue<Throwable>();
+      int threads = WRITERS + READERS;
+      CyclicBarrier roundStart = new CyclicBarrier(threads + 1);
+      CyclicBarrier roundEnd = new CyclicBarrier(threads + 1);
+      List<Thread> workers = new ArrayList<Thread>();
+      for (int t = 0; t < threads; t++) {
+         final boolean writer = t < WRITERS;
+         final Random random = new Random(t);
+         workers.add(new Thread(() -> {
+            try {
+               for (int round = 0; round < ROUNDS; round++) {
+                  roundStart.await(10, TimeUnit.SECONDS);
+                  for (int op = 0; op < OPS_PER_ROUND; op++) {
+                     history.add(call(tree, writer, random));
+                  }
+                  roundEnd.await(10, TimeUnit.SECONDS);
+               }
+            }
+            catch (InterruptedException | BrokenBarrierException
+                  | TimeoutException exception) {
+               errors.add(exception);
+            }
+            catch (RuntimeException | Error exception) {
+               errors.add(exception);
+               roundStart.reset();
+               roundEnd.reset();
+            }
+         }));
+      }
+      for (Thread worker : workers) {
+         worker.start();
+      }
+      try {
+         for (int round = 0; round < ROUNDS; round++) {
+            roundStart.await(10, TimeUnit.SECONDS);
+            roundEnd.await(10, TimeUnit.SECONDS);
+            List<Operation> ops = new ArrayList<Operation>(history);
+            history.clear();
+            for (int key = 0; key < KEYS; key++) {
+               checkKey(key, ops, reference, tree.contains(key), round);
+            }
+            assertEquals(reference.size(), tree.size(), "size after round "
+               + round);
+         }
+      }
+      finally {
+         // after a failed check, break the barriers so the workers stop
+         roundStart.reset();
+         roundEnd.reset();
+         for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+         }
+      }
+      assertTrue(errors.isEmpty(), () -> "worker failed: " + errors);
+   }
+
+  /**
+   * Makes one random call and times it.
+   *
+   * @param tree The tree
+   * @param writer true to add or remove, false to look up
+   * @param random Picks the call
+   * @return the completed operation
+   */
+   private static Operation call(ConcurrentBinarySearchTree<Integer> tree,
+         boolean writer, Random random) {
+      int key = random.nextInt(KEYS);
+      Kind kind = !writer ? Kind.CONTAINS
+         : random.nextBoolean() ? Kind.ADD : Kind.REMOVE;
+      boolean result = true;
+      long start = System.nanoTime();
+      try {
+         switch (kind) {
+            case ADD -> tree.add(key);
+            case REMOVE -> tree.remove(key);
+            default -> result = random.nextBoolean() ? tree.contains(key)
+               : tree.get(key) != null;
+         }
+      }
+      catch (TreeException exception) {
+         // duplicate add, missing remove or missing get
+         result = false;
+      }
+      return new Operation(kind, key, result, start, System.nanoTime());
+   }
+
+  /**
+   * Fails unless the round's operations on a key can be put in an order
+   * that respects real time, explains every result and ends in the state
+   * the tree shows now; then moves the reference to that state.
+   *
+   * @param key The key
+   * @param all The round's operations on every key
+   * @param reference Holds the state of the key before the round
+   * @param present Whether the tree holds the key now
+   * @param round The round, for the message
+   */
+   private static void checkKey(int key, List<Operation> all,
+         Set<Integer> reference, boolean present, int round) {
+      List<Operation> ops = new ArrayList<Operation>();
+      for (Operation op : all) {
+         if (op.key() == key) {
+            ops.add(op);
+         }
+      }
+      boolean before = reference.contains(key);
+      if (!linearizable(ops, 0L, before, present, new HashSet<Long>())) {
+         fail("Round " + round + ", key " + key + ": no valid order for "
+            + ops + " from " + (before ? "present" : "absent") + " to "
+            + (present ? "present" : "absent"));
+      }
+      if (present) {
+         reference.add(key);
+      }
+      else {
+         reference.remove(key);
+      }
+   }
+
+  /**
+   * Depth-first search for a linearization of the operations not yet
+   * placed. An operation may go next if no other unplaced operation
+   * ended before it started.
+   *
+   * @param ops The operations on one key, at most 63
+   * @param done Bit i set once ops[i] is placed
+   * @param present The key's state after the placed operations
+   * @param last The state the order must end in
+   * @param seen Search states already tried, done bits and state
+   * @return true if an order exists
+   */
+   private static boolean linearizable(List<Operation> ops, long done,
+         boolean present, boolean last, Set<Long> seen) {
+      if (Long.bitCount(done) == ops.size()) {
+         return present == last;
+      }
+      if (!seen.add(done << 1 | (present ? 1 : 0))) {
+         return false;
+      }
+      long firstEnd = Long.MAX_VALUE;
+      for (int i = 0; i < ops.size(); i++) {
+         if ((done & 1L << i) == 0) {
+            firstEnd = Math.min(firstEnd, ops.get(i).end());
+         }
+      }
+      for (int i = 0; i < ops.size(); i++) {
+         Operation op = ops.get(i);
+         if ((done & 1L << i) != 0 || op.start() > firstEnd) {
+            continue;
+         }
+         boolean after;
+         switch (op.kind()) {
+            case ADD -> {
+               if (op.result() == present) {
+                  continue;
+               }
+               after = true;
+            }
+            case REMOVE -> {
+               if (op.result() != present) {
+                  continue;
+               }
+               after = false;
+            }
+            default -> {
+               if (op.result() != present) {
+                  continue;
+               }
+               after = present;
+            }
+         }
+         if (linearizable(ops, done | 1L << i, after, last, seen)) {
+            return true;
+         }
+      }
+      return false;
+   }
+}
@@ -0,0 +1,147 @@
+package binarysearchtree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the DurableBinarySearchTree log: changes come back after a
+ * reopen, a torn or damaged tail is cut off at the last good record, and
+ * only the records a syncEvery batch wrote survive a crash.
+ */
+class DurableBinarySearchTreeTest {
+
+  /** Bytes of a logged int key: length, operation, key and checksum. */
+   private static final int RECORD = 13;
+
+  /** Directory for the snapshot and the log. */
+   @TempDir
+   Path directory;
+
+  /**
+   * Opens the tree in the test directory.
+   *
+   * @param syncEvery Records appended per fsync
+   * @return the recovered tree
+   * @throws IOException if the files cannot be read
+   */
+   private DurableBinarySearchTree<Integer> open(int syncEvery)
+         throws IOException {
+      return DurableBinarySearchTree.open(directory, KeyCodec.integers(), true,
+         syncEvery);
+   }
+
+  /** Logged adds and removes are replayed on the next open. */
+   @Test
+   void reopenReplaysTheLog() throws IOException {
+      try (DurableBinarySearchTree<Integer> tree = this.open(1)) {
+         for (int i = 0; i < 100; i++) {
+            tree.add(i);
+         }
+         for (int i = 0; i < 100; i += 2) {
+            tree.remove(i);
+         }
+         assertEquals(150 * RECORD, tree.logSize());
+      }
+      try (DurableBinarySearchTree<Integer> tree = this.open(1)) {
+         assertEquals(50, tree.size());
+         assertFalse(tree.contains(0));
+         assertTrue(tree.contains(99));
+         assertEquals(150 * RECORD, tree.logSize());
+      }
+   }
+
+  /** Compaction moves the items into the snapshot and empties the log. */
+   @Test
+   void compactionSurvivesReopen() throws IOException {
+      try (DurableBinarySearchTree<Integer> tree = this.open(1)) {
+         for (int i = 0; i < 100; i++) {
+            tree.add(i);
+         }
+         tree.compact();
+         assertEquals(0, tree.logSize());
+         tree.remove(5);
+      }
+      try (DurableBinarySearchTree<Integer> tree = this.open(1)) {
+         assertEquals(99, tree.size());
+         assertFalse(tree.contains(5));
+         assertEquals(RECORD, tree.logSize());
+      }
+   }
+
+  /** A record cut short by a crash is dropped and the log cut back. */
+   @Test
+   void tornTailIsTruncated() throws IOException {
+      try (DurableBinarySearchTree<Integer> tree = this.open(1)) {
+         for (int i = 0; i < 10; i++) {
+            tree.add(i);
+         }
+      }
+      Path log = directory.resolve("tree.wal");
+      try (FileChannel channel = FileChannel.open(log,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+         channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 5, 1, 0, 0}));
+      }
+      try (DurableBinarySearchTree<Integer> tree = this.open(1)) {
+         assertEquals(10, tree.size());
+         assertEquals(10 * RECORD, tree.logSize());
+         assertEquals(10 * RECORD, Files.size(log));
+         tree.add(10);
+      }
+      try (DurableBinarySearchTree<Integer> tree = this.open(1)) {
+         assertEquals(11, tree.size());
+      }
+   }
+
+  /** A record failing its checksum ends the replay there. */
+   @Test
+   void damagedRecordEndsReplay() throws IOException {
+      try (DurableBinarySearchTree<Integer> tree = this.open(1)) {
+         for (int i = 0; i < 10; i++) {
+            tree.add(i);
+         }
+      }
+      Path log = directory.resolve("tree.wal");
+      try (FileChannel channel = FileChannel.open(log,
+            StandardOpenOption.WRITE)) {
+         // the last byte of the key of record 8, adding 7
+         channel.write(ByteBuffer.wrap(new byte[] {42}), 8 * RECORD - 5);
+      }
+      try (DurableBinarySearchTree<Integer> tree = this.open(1)) {
+         assertEquals(7, tree.size());
+         assertTrue(tree.contains(6));
+         assertFalse(tree.contains(7));
+         assertEquals(7 * RECORD, tree.logSize());
+      }
+   }
+
+  /** Only whole syncEvery batches are on disk until close syncs the rest. */
+   @Test
+   void partialBatchIsLostInACrash() throws IOException {
+      DurableBinarySearchTree<Integer> tree = this.open(4);
+      for (int i = 0; i < 10; i++) {
+         tree.add(i);
+      }
+      assertEquals(8 * RECORD, tree.logSize());
+      // a second open reads the files as a restart after a crash would
+      try (DurableBinarySearchTree<Integer> crashed = this.open(4)) {
+         assertEquals(8, crashed.size());
+         assertTrue(crashed.contains(7));
+         assertFalse(crashed.contains(8));
+      }
+      tree.close();
+      try (DurableBinarySearchTree<Integer> reopened = this.open(4)) {
+         assertEquals(10, reopened.size());
+         assertEquals(10 * RECORD, reopened.logSize());
+      }
+   }
+}
@@ -0,0 +1,158 @@
+package binarysearchtree;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the HuffmanBlockFile container: files in memory and on disk
+ * decode to the bytes compressed, random access reads across block
+ * boundaries, codes far longer than the first decode table come back,
+ * and a damaged trailer, index or block is refused.
+ */
+class HuffmanBlockFileTest {
+
+  /** Small blocks, so the inputs below span many blocks. */
+   private static final int BLOCK = 1000;
+
+  /** Directory for the file round trip. */
+   @TempDir
+   Path directory;
+
+  /** Every block, and the whole file, decode to what was compressed. */
+   @Test
+   void memoryRoundTrip() throws IOException {
+      byte[] data = HuffmanTestData.skewed(20 * BLOCK + 123);
+      HuffmanBlockFile file = HuffmanBlockFile.wrap(
+         HuffmanBlockFile.compress(data, BLOCK));
+      assertEquals(data.length, file.length());
+      assertEquals(BLOCK, file.blockSize());
+      assertEquals(21, file.blockCount());
+      assertArrayEquals(data, file.decompress());
+      assertArrayEquals(Arrays.copyOfRange(data, 20 * BLOCK, data.length),
+         file.readBlock(20));
+   }
+
+  /** Empty and one-symbol inputs make valid files. */
+   @Test
+   void emptyAndOneSymbolInputsRoundTrip() throws IOException {
+      HuffmanBlockFile empty = HuffmanBlockFile.wrap(
+         HuffmanBlockFile.compress(new byte[0], BLOCK));
+      assertEquals(0, empty.blockCount());
+      assertArrayEquals(new byte[0], empty.decompress());
+      assertEquals(-1, empty.read(0, new byte[1], 0, 1));
+
+      byte[] same = new byte[2 * BLOCK + 1];
+      Arrays.fill(same, (byte) 'x');
+      assertArrayEquals(same, HuffmanBlockFile.wrap(
+         HuffmanBlockFile.compress(same, BLOCK)).decompress());
+   }
+
+  /**
+   * Bytes with Fibonacci counts get codes of up to 24 bits in a block of
+   * their own, and shorter ones when split over blocks, and decode the
+   * same on one thread as on the common pool.
+   */
+   @Test
+   void longCodesRoundTrip() throws IOException {
+      final int symbols = 25;
+      byte[] data = HuffmanTestData.fibonacci(symbols);
+      byte[] whole = HuffmanBlockFile.compress(data, data.length);
+      int[] lengths = HuffmanTestData.codeLengths(ByteBuffer.wrap(whole));
+      assertEquals(symbols - 1, lengths[0]);
+      assertEquals(symbols - 1, lengths[1]);
+      assertEquals(1, lengths[symbols - 1]);
+      assertArrayEquals(data, HuffmanBlockFile.wrap(whole).decompress());
+
+      ForkJoinPool single = new ForkJoinPool(1);
+      try {
+         for (int blockSize : new int[] {1 << 16, BLOCK}) {
+            byte[] compressed = HuffmanBlockFile.compress(data, blockSize);
+            assertArrayEquals(compressed,
+               HuffmanBlockFile.compress(data, blockSize, single));
+            HuffmanBlockFile file = HuffmanBlockFile.wrap(compressed);
+            assertArrayEquals(data, file.decompress());
+            assertArrayEquals(data, file.decompress(single));
+         }
+      }
+      finally {
+         single.shutdown();
+      }
+   }
+
+  /** Reads starting in one block and ending in a later one. */
+   @Test
+   void positionedReadsCrossBlockBoundaries() throws IOException {
+      byte[] data = HuffmanTestData.skewed(10 * BLOCK + 7);
+      Path source = directory.resolve("data");
+      Path target = directory.resolve("data.hufb");
+      Files.write(source, data);
+      HuffmanBlockFile.compress(source, target, BLOCK);
+      try (HuffmanBlockFile file = HuffmanBlockFile.open(target)) {
+         assertArrayEquals(data, file.decompress());
+         long[] positions = {0, BLOCK - 1, BLOCK, 3 * BLOCK - 10,
+            10 * BLOCK - 1};
+         for (long position : positions) {
+            byte[] read = new byte[2 * BLOCK + 20];
+            int expected = (int) Math.min(read.length - 5,
+               data.length - position);
+            assertEquals(expected, file.read(position, read, 5,
+               read.length - 5));
+            assertArrayEquals(Arrays.copyOfRange(data, (int) position,
+               (int) position + expected),
+               Arrays.copyOfRange(read, 5, 5 + expected));
+         }
+         assertEquals(-1, file.read(data.length, new byte[1], 0, 1));
+      }
+   }
+
+  /** A file not ending in MAGIC, or with a trailer that does not fit. */
+   @Test
+   void damagedTrailerIsRefused() {
+      byte[] data = HuffmanTestData.skewed(5 * BLOCK);
+      byte[] compressed = HuffmanBlockFile.compress(data, BLOCK);
+      byte[] magic = compressed.clone();
+      magic[magic.length - 1] ^= 1;
+      assertThrows(IOException.class, () -> HuffmanBlockFile.wrap(magic));
+      byte[] length = compressed.clone();
+      // the low byte of the uncompressed length
+      length[length.length - 9] ^= 1;
+      assertThrows(IOException.class, () -> HuffmanBlockFile.wrap(length));
+      assertThrows(IOException.class, () -> HuffmanBlockFile.wrap(
+         Arrays.copyOf(compressed, compressed.length - 1)));
+   }
+
+  /** Index offsets out of order, and a block with a damaged bit length. */
+   @Test
+   void damagedIndexOrBlockIsRefused() throws IOException {
+      byte[] data = HuffmanTestData.skewed(5 * BLOCK);
+      byte[] compressed = HuffmanBlockFile.compress(data, BLOCK);
+      ByteBuffer buffer = ByteBuffer.wrap(compressed);
+      int indexOffset = (int) buffer.getLong(compressed.length - 24);
+
+      byte[] index = compressed.clone();
+      ByteBuffer.wrap(index).putLong(indexOffset + Long.BYTES,
+         indexOffset + 1);
+      assertThrows(IOException.class, () -> HuffmanBlockFile.wrap(index));
+
+      byte[] block = compressed.clone();
+      int second = (int) buffer.getLong(indexOffset + Long.BYTES);
+      int symbols = buffer.getInt(second);
+      // the high byte of the second block's bit length
+      block[second + Integer.BYTES + 3 * symbols] = 0x7f;
+      HuffmanBlockFile file = HuffmanBlockFile.wrap(block);
+      assertArrayEquals(Arrays.copyOf(data, BLOCK), file.readBlock(0));
+      assertThrows(IOException.class, () -> file.readBlock(1));
+      assertThrows(IOException.class, () -> file.read(BLOCK - 1, new byte[2],
+         0, 2));
+   }
+}
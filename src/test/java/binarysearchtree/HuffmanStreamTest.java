@@ -0,0 +1,147 @@
+package binarysearchtree;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the HuffmanOutputStream frame format: inputs of every shape
+ * come back byte for byte through HuffmanInputStream, and a stream that
+ * was cut short or changed fails instead of returning wrong bytes.
+ */
+class HuffmanStreamTest {
+
+  /** Small chunks, so the inputs below span several frames. */
+   private static final int CHUNK = 1000;
+
+  /** Directory for the file round trip. */
+   @TempDir
+   Path directory;
+
+  /**
+   * Compresses bytes into the stream format.
+   *
+   * @param data The bytes
+   * @return the compressed stream
+   * @throws IOException never, the streams are in memory
+   */
+   private static byte[] compress(byte[] data) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (HuffmanOutputStream out = new HuffmanOutputStream(bytes, CHUNK)) {
+         out.write(data);
+      }
+      return bytes.toByteArray();
+   }
+
+  /**
+   * Decompresses a whole stream.
+   *
+   * @param compressed The compressed stream
+   * @return the bytes read back
+   * @throws IOException if the stream is damaged
+   */
+   private static byte[] decompress(byte[] compressed) throws IOException {
+      try (InputStream in = new HuffmanInputStream(
+            new ByteArrayInputStream(compressed))) {
+         return in.readAllBytes();
+      }
+   }
+
+  /** An empty input is MAGIC alone and reads back as nothing. */
+   @Test
+   void emptyInputRoundTrips() throws IOException {
+      byte[] compressed = compress(new byte[0]);
+      assertEquals(Integer.BYTES, compressed.length);
+      assertArrayEquals(new byte[0], decompress(compressed));
+   }
+
+  /** A single byte, and many copies of one byte, each need one symbol. */
+   @Test
+   void oneSymbolInputsRoundTrip() throws IOException {
+      assertArrayEquals(new byte[] {7}, decompress(compress(new byte[] {7})));
+      byte[] same = new byte[3 * CHUNK + 1];
+      Arrays.fill(same, (byte) 'x');
+      assertArrayEquals(same, decompress(compress(same)));
+   }
+
+  /** Inputs ending on, before and after a frame boundary. */
+   @Test
+   void multiFrameInputsRoundTrip() throws IOException {
+      for (int length : new int[] {CHUNK - 1, CHUNK, CHUNK + 1, 10 * CHUNK}) {
+         byte[] data = HuffmanTestData.skewed(length);
+         assertArrayEquals(data, decompress(compress(data)));
+      }
+      byte[] all = new byte[256 * 5];
+      for (int i = 0; i < all.length; i++) {
+         all[i] = (byte) i;
+      }
+      assertArrayEquals(all, decompress(compress(all)));
+   }
+
+  /** Writes one byte at a time and flushes between frames. */
+   @Test
+   void singleByteWritesAndFlushRoundTrip() throws IOException {
+      byte[] data = HuffmanTestData.skewed(2 * CHUNK + 17);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (HuffmanOutputStream out = new HuffmanOutputStream(bytes, CHUNK)) {
+         for (int i = 0; i < data.length; i++) {
+            out.write(data[i]);
+            if (i == 10) {
+               out.flush();
+            }
+         }
+      }
+      assertArrayEquals(data, decompress(bytes.toByteArray()));
+   }
+
+  /** compress and decompress between files, the mapped path. */
+   @Test
+   void fileRoundTrip() throws IOException {
+      byte[] data = HuffmanTestData.skewed(
+         5 * HuffmanOutputStream.DEFAULT_CHUNK_SIZE / 2);
+      Path source = directory.resolve("data");
+      Path compressed = directory.resolve("data.huf");
+      Path target = directory.resolve("data.out");
+      Files.write(source, data);
+      HuffmanOutputStream.compress(source, compressed);
+      assertEquals(data.length, HuffmanInputStream.decompress(compressed,
+         target));
+      assertArrayEquals(data, Files.readAllBytes(target));
+   }
+
+  /** A stream cut anywhere inside a frame is an error, not a short read. */
+   @Test
+   void truncatedStreamFails() throws IOException {
+      byte[] compressed = compress(HuffmanTestData.skewed(3 * CHUNK));
+      for (int cut : new int[] {2, 6, 12, compressed.length / 2,
+            compressed.length - 1}) {
+         byte[] shorter = Arrays.copyOf(compressed, cut);
+         assertThrows(IOException.class, () -> decompress(shorter));
+      }
+   }
+
+  /** A wrong magic number or frame header is refused. */
+   @Test
+   void damagedHeaderFails() throws IOException {
+      byte[] compressed = compress(HuffmanTestData.skewed(CHUNK));
+      byte[] magic = compressed.clone();
+      magic[0] ^= 1;
+      assertThrows(IOException.class, () -> decompress(magic));
+      byte[] length = compressed.clone();
+      length[Integer.BYTES] = (byte) 0x7f;
+      assertThrows(IOException.class, () -> decompress(length));
+      byte[] symbols = compressed.clone();
+      symbols[2 * Integer.BYTES] = 1;
+      assertThrows(IOException.class, () -> decompress(symbols));
+   }
+}
@@ -0,0 +1,99 @@
+package binarysearchtree;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Inputs shared by the Huffman tests. Everything is seeded, so every run
+ * checks the same data.
+ */
+final class HuffmanTestData {
+
+  /** Static methods only. */
+   private HuffmanTestData() {
+   }
+
+  /**
+   * Bytes drawn from a skewed distribution, as text would be.
+   *
+   * @param length The number of bytes
+   * @return the bytes
+   */
+   static byte[] skewed(int length) {
+      Random random = new Random(length);
+      byte[] data = new byte[length];
+      for (int i = 0; i < length; i++) {
+         data[i] = (byte) ('a' + Integer.numberOfTrailingZeros(
+            random.nextInt() | 1 << 20));
+      }
+      return data;
+   }
+
+  /**
+   * Counts following the Fibonacci numbers 1, 1, 2, 3, 5, ..., which
+   * make the Huffman tree a list: symbol i gets a code of symbols - i
+   * bits, save the rarest two, which share the longest length.
+   *
+   * @param first The first symbol
+   * @param symbols The number of symbols, at most 46 before an overflow
+   * @return the counts, indexed by character
+   */
+   static int[] fibonacciCounts(char first, int symbols) {
+      int[] counts = new int[first + symbols];
+      int previous = 0;
+      int current = 1;
+      for (int i = 0; i < symbols; i++) {
+         counts[first + i] = current;
+         int next = previous + current;
+         previous = current;
+         current = next;
+      }
+      return counts;
+   }
+
+  /**
+   * Bytes 0 to symbols - 1 in Fibonacci counts, shuffled, whose codes
+   * grow to symbols - 1 bits. 25 symbols take 196417 bytes.
+   *
+   * @param symbols The number of byte values
+   * @return the bytes
+   */
+   static byte[] fibonacci(int symbols) {
+      int[] counts = fibonacciCounts((char) 0, symbols);
+      int length = 0;
+      for (int count : counts) {
+         length += count;
+      }
+      byte[] data = new byte[length];
+      int filled = 0;
+      for (int symbol = 0; symbol < symbols; symbol++) {
+         for (int i = 0; i < counts[symbol]; i++) {
+            data[filled++] = (byte) symbol;
+         }
+      }
+      Random random = new Random(symbols);
+      for (int i = length - 1; i > 0; i--) {
+         int j = random.nextInt(i + 1);
+         byte swap = data[i];
+         data[i] = data[j];
+         data[j] = swap;
+      }
+      return data;
+   }
+
+  /**
+   * Reads the code length of every symbol from a header written by
+   * HuffmanTree.header(), leaving the buffer after it.
+   *
+   * @param header The header, from its position on
+   * @return the code lengths, indexed by character
+   */
+   static int[] codeLengths(ByteBuffer header) {
+      int[] lengths = new int[Character.MAX_VALUE + 1];
+      for (int count = header.getInt(); count > 0; count--) {
+         char ch = header.getChar();
+         lengths[ch] = header.get();
+      }
+      return lengths;
+   }
+}
@@ -0,0 +1,188 @@
+package binarysearchtree;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the HuffmanTree codes: packed bits decode through the lookup
+ * tables to the text they were encoded from, also for codes far longer
+ * than the first table, and the header is canonical: it depends only on
+ * the frequencies, and a header that is not a complete prefix code is
+ * refused.
+ */
+class HuffmanTreeTest {
+
+  /** Symbols with Fibonacci frequencies, the most before an int overflows. */
+   private static final int SYMBOLS = 40;
+  /** The first symbol. */
+   private static final char FIRST = 'A';
+
+  /** Directory for the frequency files. */
+   @TempDir
+   Path directory;
+
+  /**
+   * Codes from 1 to 39 bits, most of them beyond the 11 bits of the first
+   * decode table, encode and decode back to the same text, both mixed
+   * and with only the longest codes.
+   */
+   @Test
+   void fibonacciFrequenciesRoundTrip() {
+      HuffmanTree tree = HuffmanTree.fromFrequencies(
+         HuffmanTestData.fibonacciCounts(FIRST, SYMBOLS));
+      int[] lengths =
+         HuffmanTestData.codeLengths(ByteBuffer.wrap(tree.header()));
+      for (int i = 0; i < SYMBOLS; i++) {
+         int expected = Math.min(SYMBOLS - i, SYMBOLS - 1);
+         assertEquals(expected, lengths[FIRST + i], "code length of " + i);
+      }
+
+      List<Character> symbols = new ArrayList<Character>();
+      for (int i = 0; i < SYMBOLS; i++) {
+         for (int copy = 0; copy <= i % 5; copy++) {
+            symbols.add((char) (FIRST + i));
+         }
+      }
+      Collections.shuffle(symbols, new Random(SYMBOLS));
+      StringBuilder mixed = new StringBuilder();
+      for (int round = 0; round < 20; round++) {
+         for (char ch : symbols) {
+            mixed.append(ch);
+         }
+      }
+      checkRoundTrip(tree, mixed.toString());
+      // only 38 and 39 bit codes, straddling every byte boundary
+      StringBuilder longest = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+         longest.append((char) (FIRST + i * 7 % 3));
+      }
+      checkRoundTrip(tree, longest.toString());
+      checkRoundTrip(tree, String.valueOf(FIRST));
+      checkRoundTrip(tree, String.valueOf((char) (FIRST + SYMBOLS - 1)));
+   }
+
+  /**
+   * The same frequencies listed in any order, ties included, give the
+   * same header byte for byte, and the same as fromFrequencies.
+   *
+   * @throws IOException if a frequency file cannot be written
+   */
+   @Test
+   void shuffledFrequenciesGiveTheSameHeader() throws IOException {
+      int[] counts = new int['z' + 1];
+      List<String> lines = new ArrayList<String>();
+      for (char ch = 'a'; ch <= 'z'; ch++) {
+         // few distinct counts, so many symbols tie
+         counts[ch] = 1 + (ch * 31 % 7) * (ch % 3 + 1);
+         lines.add(ch + " " + counts[ch]);
+      }
+      byte[] expected = HuffmanTree.fromFrequencies(counts).header();
+      Random random = new Random(7);
+      for (int round = 0; round < 10; round++) {
+         Collections.shuffle(lines, random);
+         Path file = directory.resolve("frequencies" + round + ".txt");
+         Files.write(file, lines);
+         byte[] header = new HuffmanTree(file.toFile()).header();
+         assertArrayEquals(expected, header, "order " + lines);
+      }
+   }
+
+  /**
+   * Headers whose code lengths claim more code space than there is, or
+   * leave some of it unused, are refused, as are damaged entries.
+   */
+   @Test
+   void headersThatAreNotCompleteCodesAreRefused() {
+      // three 1-bit codes, one too many
+      checkRefused("complete code", 'a', 1, 'b', 1, 'c', 1);
+      // a complete code with one 3-bit code too many
+      checkRefused("complete code", 'a', 1, 'b', 2, 'c', 3, 'd', 3, 'e', 3);
+      // 1 + 2 + 3 bits leave an eighth of the codes unused
+      checkRefused("complete code", 'a', 1, 'b', 2, 'c', 3);
+      checkRefused("complete code", 'a', 2);
+      checkRefused("damaged", 'b', 1, 'a', 1);
+      checkRefused("damaged", 'a', 1, 'a', 1);
+      checkRefused("damaged", 'a', 0, 'b', 1);
+      checkRefused("damaged", 'a', 1, 'b', HuffmanTree.MAX_CODE_LENGTH + 1);
+      ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).putInt(0, 5);
+      assertThrows(IllegalArgumentException.class,
+         () -> HuffmanTree.fromHeader(header));
+
+      // the complete codes next to them are accepted
+      ByteBuffer complete = header('a', 1, 'b', 2, 'c', 3, 'd', 3);
+      assertEquals(4, HuffmanTree.fromHeader(complete).huffmanCodes.size());
+      assertEquals(0, complete.remaining());
+      assertEquals(1,
+         HuffmanTree.fromHeader(header('a', 1)).huffmanCodes.size());
+   }
+
+  /**
+   * Asserts that fromHeader refuses a header.
+   *
+   * @param reason Part of the expected message
+   * @param entries Character and code length pairs
+   */
+   private static void checkRefused(String reason, int... entries) {
+      IllegalArgumentException exception = assertThrows(
+         IllegalArgumentException.class,
+         () -> HuffmanTree.fromHeader(header(entries)));
+      assertTrue(exception.getMessage().contains(reason),
+         exception.getMessage());
+   }
+
+  /**
+   * Writes a header in the format of header().
+   *
+   * @param entries Character and code length pairs
+   * @return the header, ready to read
+   */
+   private static ByteBuffer header(int... entries) {
+      ByteBuffer header = ByteBuffer.allocate(Integer.BYTES
+         + 3 * entries.length / 2);
+      header.putInt(entries.length / 2);
+      for (int i = 0; i < entries.length; i += 2) {
+         header.putChar((char) entries[i]).put((byte) entries[i + 1]);
+      }
+      return header.flip();
+   }
+
+  /**
+   * Encodes a text into packed bits and decodes it back, from an array,
+   * from the middle of a buffer and through a tree rebuilt from the
+   * header.
+   *
+   * @param tree The tree
+   * @param text The text
+   */
+   private static void checkRoundTrip(HuffmanTree tree, String text) {
+      long bits = tree.encodedLength(text);
+      byte[] packed = tree.encodeToBytes(text);
+      assertEquals((bits + 7) / 8, packed.length);
+      assertEquals(text, tree.decode(packed, bits));
+
+      ByteBuffer buffer = ByteBuffer.allocate(packed.length + 5);
+      buffer.position(3);
+      assertEquals(bits, tree.encode(text, buffer));
+      buffer.flip().position(3);
+      assertEquals(text, tree.decode(buffer, bits));
+
+      HuffmanTree rebuilt =
+         HuffmanTree.fromHeader(ByteBuffer.wrap(tree.header()));
+      assertEquals(text, rebuilt.decode(packed, bits));
+      assertEquals(text,
+         HuffmanTree.decompress(ByteBuffer.wrap(tree.compress(text))));
+   }
+}
@@ -0,0 +1,192 @@
+package binarysearchtree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the MappedSnapshot file format: a written tree reads back
+ * with the same items, and a file whose bytes were changed or cut short,
+ * or whose fields point outside the items under a valid checksum, is
+ * refused instead of read.
+ */
+class MappedSnapshotTest {
+
+  /** Keys in the saved tree. */
+   private static final int KEYS = 1000;
+
+  /** Directory for the snapshot files. */
+   @TempDir
+   Path directory;
+
+  /**
+   * Saves a tree of the even numbers below 2 * KEYS.
+   *
+   * @return the snapshot file
+   * @throws IOException if the file cannot be written
+   */
+   private Path writeEvens() throws IOException {
+      BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+      for (int i = 0; i < KEYS; i++) {
+         tree.add((int) (i * 2654435761L % KEYS) * 2);
+      }
+      Path file = directory.resolve("tree.bsts");
+      tree.writeSnapshot(file, KeyCodec.integers());
+      return file;
+   }
+
+  /**
+   * Overwrites one byte of a file.
+   *
+   * @param file The file
+   * @param position Offset of the byte
+   * @param value The new byte
+   * @throws IOException if the file cannot be written
+   */
+   private static void poke(Path file, long position, byte value)
+         throws IOException {
+      try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.WRITE)) {
+         channel.write(ByteBuffer.wrap(new byte[] {value}), position);
+      }
+   }
+
+  /**
+   * Overwrites one int of a file and fixes up the checksum to match, as
+   * a buggy writer would.
+   *
+   * @param file The file
+   * @param position Offset of the int
+   * @param value The new int
+   * @throws IOException if the file cannot be read or written
+   */
+   private static void damage(Path file, int position, int value)
+         throws IOException {
+      byte[] bytes = Files.readAllBytes(file);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      buffer.putInt(position, value);
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length - Integer.BYTES);
+      buffer.putInt(bytes.length - Integer.BYTES, (int) crc.getValue());
+      Files.write(file, bytes);
+   }
+
+  /** Reads back the items, both mapped and rebuilt into a tree. */
+   @Test
+   void roundTripKeepsEveryItem() throws IOException {
+      Path file = this.writeEvens();
+      assertFalse(Files.exists(file.resolveSibling("tree.bsts.tmp")));
+      MappedSnapshot<Integer> mapped = MappedSnapshot.open(file,
+         KeyCodec.integers());
+      assertEquals(KEYS, mapped.size());
+      for (int i = 0; i < KEYS; i++) {
+         assertEquals(2 * i, mapped.asList().get(i));
+      }
+      assertEquals(10, mapped.get(10));
+      assertFalse(mapped.contains(11));
+      assertEquals(10, mapped.floor(11));
+      assertEquals(12, mapped.ceiling(11));
+      assertNull(mapped.floor(-1));
+      assertNull(mapped.ceiling(2 * KEYS));
+
+      BinarySearchTree<Integer> loaded = BinarySearchTree.loadSnapshot(file,
+         KeyCodec.integers(), true);
+      assertEquals(KEYS, loaded.size());
+      assertTrue(loaded.height() <= 10);
+      assertEquals(0, loaded.first());
+      assertEquals(2 * KEYS - 2, loaded.last());
+   }
+
+  /** An empty tree still makes a valid snapshot. */
+   @Test
+   void emptyTreeRoundTrips() throws IOException {
+      Path file = directory.resolve("empty.bsts");
+      new BinarySearchTree<String>().writeSnapshot(file, KeyCodec.strings());
+      MappedSnapshot<String> mapped = MappedSnapshot.open(file,
+         KeyCodec.strings());
+      assertEquals(0, mapped.size());
+      assertNull(mapped.ceiling(""));
+      assertEquals(0, mapped.toTree(false).size());
+   }
+
+  /** A changed item byte no longer matches the CRC in the trailer. */
+   @Test
+   void flippedByteFailsTheChecksum() throws IOException {
+      Path file = this.writeEvens();
+      poke(file, 20, (byte) 42);
+      IOException exception = assertThrows(IOException.class,
+         () -> MappedSnapshot.open(file, KeyCodec.integers()));
+      assertTrue(exception.getMessage().contains("checksum"));
+   }
+
+  /** A file cut short loses its trailer, and with it the checksum. */
+   @Test
+   void truncatedFileIsRefused() throws IOException {
+      Path file = this.writeEvens();
+      try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.WRITE)) {
+         channel.truncate(channel.size() - 3);
+      }
+      assertThrows(IOException.class,
+         () -> MappedSnapshot.open(file, KeyCodec.integers()));
+      try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.WRITE)) {
+         channel.truncate(8);
+      }
+      assertThrows(IOException.class,
+         () -> MappedSnapshot.open(file, KeyCodec.integers()));
+   }
+
+  /** A file that does not start with the magic number is not a snapshot. */
+   @Test
+   void wrongMagicIsRefused() throws IOException {
+      Path file = this.writeEvens();
+      poke(file, 0, (byte) 'X');
+      IOException exception = assertThrows(IOException.class,
+         () -> MappedSnapshot.open(file, KeyCodec.integers()));
+      assertTrue(exception.getMessage().startsWith("Not a tree snapshot"));
+   }
+
+  /**
+   * Counts, offsets and lengths that would send reads outside the items
+   * are refused at open, even with a checksum that matches them.
+   */
+   @Test
+   void fieldsPointingOutsideTheItemsAreRefused() throws IOException {
+      Path file = this.writeEvens();
+      int length = (int) Files.size(file);
+      int index = length - Integer.BYTES - KEYS * Integer.BYTES;
+      int[][] damages = {
+         // a negative count, and one whose size in bytes wraps to 4
+         {8, -1}, {8, 0x40000001},
+         // index entries pointing into the header, the index and past it
+         {index, 0}, {index + 4, index}, {index + 8, length},
+         // the first record with a negative length and one running long
+         {12, -1}, {12, index}};
+      for (int[] field : damages) {
+         this.writeEvens();
+         damage(file, field[0], field[1]);
+         IOException exception = assertThrows(IOException.class,
+            () -> MappedSnapshot.open(file, KeyCodec.integers()),
+            () -> field[1] + " at " + field[0] + " was accepted");
+         assertTrue(exception.getMessage().startsWith("Corrupt snapshot"),
+            exception.getMessage());
+      }
+      // the same helper leaves a valid file alone
+      this.writeEvens();
+      damage(file, 8, KEYS);
+      assertEquals(KEYS, MappedSnapshot.open(file, KeyCodec.integers()).size());
+   }
+}
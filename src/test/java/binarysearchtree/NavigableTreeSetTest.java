@@ -0,0 +1,200 @@
+package binarysearchtree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.Function;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Differential tests of the NavigableSet views of BinarySearchTree: every
+ * view, however deeply nested and in either direction, must answer like
+ * the same view of a TreeSet holding the same keys, and changes through a
+ * view, iterator removes included, must reach the tree.
+ */
+class NavigableTreeSetTest {
+
+  /** Keys are drawn from 0 to KEYS - 1. */
+   private static final int KEYS = 200;
+  /** Random views checked per tree. */
+   private static final int VIEWS = 300;
+  /** Most nested views below the whole set. */
+   private static final int DEPTH = 4;
+
+  /**
+   * Builds random nested views of the tree and of a TreeSet and compares
+   * their answers.
+   *
+   * @param seed The random seed
+   */
+   @ParameterizedTest
+   @ValueSource(ints = {1, 2, 3, 4, 5})
+   void nestedViewsMatchTreeSet(int seed) {
+      Random random = new Random(seed);
+      BinarySearchTree<Integer> tree =
+         new BinarySearchTree<Integer>(seed % 2 == 0);
+      TreeSet<Integer> reference = new TreeSet<Integer>();
+      for (int i = 0; i < KEYS / 2; i++) {
+         int key = random.nextInt(KEYS);
+         assertEquals(reference.add(key), tree.asNavigableSet().add(key));
+      }
+      for (int v = 0; v < VIEWS; v++) {
+         NavigableSet<Integer> mine = tree.asNavigableSet();
+         NavigableSet<Integer> theirs = reference;
+         int depth = random.nextInt(DEPTH + 1);
+         for (int d = 0; d < depth; d++) {
+            Function<NavigableSet<Integer>, NavigableSet<Integer>> narrow =
+               randomNarrowing(random);
+            NavigableSet<Integer> expected;
+            try {
+               expected = narrow.apply(theirs);
+            }
+            catch (IllegalArgumentException exception) {
+               NavigableSet<Integer> view = mine;
+               assertThrows(IllegalArgumentException.class,
+                  () -> narrow.apply(view));
+               break;
+            }
+            mine = narrow.apply(mine);
+            theirs = expected;
+         }
+         compare(theirs, mine, random);
+      }
+   }
+
+  /**
+   * Removes through iterators of random views, then checks the tree and
+   * the reference still hold the same keys.
+   *
+   * @param seed The random seed
+   */
+   @ParameterizedTest
+   @ValueSource(ints = {6, 7, 8})
+   void iteratorRemoveReachesTheTree(int seed) {
+      Random random = new Random(seed);
+      BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(true);
+      TreeSet<Integer> reference = new TreeSet<Integer>();
+      for (int key = 0; key < KEYS; key++) {
+         tree.add(key);
+         reference.add(key);
+      }
+      for (int round = 0; round < 20; round++) {
+         int from = random.nextInt(KEYS);
+         int to = from + random.nextInt(KEYS - from + 1);
+         boolean reverse = random.nextBoolean();
+         NavigableSet<Integer> mine = tree.subSet(from, true, to, false);
+         NavigableSet<Integer> theirs = reference.subSet(from, true, to, false);
+         if (reverse) {
+            mine = mine.descendingSet();
+            theirs = theirs.descendingSet();
+         }
+         Iterator<Integer> myItems = mine.iterator();
+         Iterator<Integer> theirItems = theirs.iterator();
+         int step = 2 + random.nextInt(3);
+         for (int i = 0; theirItems.hasNext(); i++) {
+            assertEquals(theirItems.next(), myItems.next());
+            if (i % step == 0) {
+               theirItems.remove();
+               myItems.remove();
+            }
+         }
+         assertFalse(myItems.hasNext());
+         assertEquals(new ArrayList<Integer>(reference),
+            new ArrayList<Integer>(tree.asNavigableSet()));
+         assertEquals(reference.size(), tree.size());
+      }
+      Iterator<Integer> fresh = tree.asNavigableSet().iterator();
+      assertThrows(IllegalStateException.class, fresh::remove);
+   }
+
+  /**
+   * Picks one of the narrowing calls with random bounds.
+   *
+   * @param random The random source
+   * @return a function making the narrower view of a set
+   */
+   private static Function<NavigableSet<Integer>, NavigableSet<Integer>>
+         randomNarrowing(Random random) {
+      int a = random.nextInt(KEYS + 20) - 10;
+      int b = random.nextInt(KEYS + 20) - 10;
+      boolean aInclusive = random.nextBoolean();
+      boolean bInclusive = random.nextBoolean();
+      switch (random.nextInt(7)) {
+         case 0:
+            return set -> set.descendingSet();
+         case 1:
+            return set -> set.headSet(a, aInclusive);
+         case 2:
+            return set -> set.tailSet(a, aInclusive);
+         case 3:
+            return set -> (NavigableSet<Integer>) set.headSet(a);
+         case 4:
+            return set -> (NavigableSet<Integer>) set.tailSet(a);
+         case 5:
+            return set -> set.subSet(a, aInclusive, b, bInclusive);
+         default:
+            return set -> (NavigableSet<Integer>) set.subSet(a, b);
+      }
+   }
+
+  /**
+   * Asserts that two views hold the same items in the same order and
+   * give the same answers to the navigation queries, then adds and
+   * removes a key through both.
+   *
+   * @param expected The TreeSet view
+   * @param actual The tree view
+   * @param random The random source
+   */
+   private static void compare(NavigableSet<Integer> expected,
+         NavigableSet<Integer> actual, Random random) {
+      assertEquals(new ArrayList<Integer>(expected),
+         new ArrayList<Integer>(actual));
+      assertEquals(expected.size(), actual.size());
+      assertEquals(expected.isEmpty(), actual.isEmpty());
+      List<Integer> backwards = new ArrayList<Integer>();
+      actual.descendingIterator().forEachRemaining(backwards::add);
+      List<Integer> expectedBackwards = new ArrayList<Integer>();
+      expected.descendingIterator().forEachRemaining(expectedBackwards::add);
+      assertEquals(expectedBackwards, backwards);
+      if (expected.isEmpty()) {
+         assertThrows(NoSuchElementException.class, actual::first);
+         assertThrows(NoSuchElementException.class, actual::last);
+      }
+      else {
+         assertEquals(expected.first(), actual.first());
+         assertEquals(expected.last(), actual.last());
+      }
+      for (int key = -2; key < KEYS + 2; key += 1 + random.nextInt(7)) {
+         assertEquals(expected.contains(key), actual.contains(key));
+         assertEquals(expected.lower(key), actual.lower(key));
+         assertEquals(expected.floor(key), actual.floor(key));
+         assertEquals(expected.ceiling(key), actual.ceiling(key));
+         assertEquals(expected.higher(key), actual.higher(key));
+      }
+      int key = random.nextInt(KEYS);
+      boolean added;
+      try {
+         added = expected.add(key);
+      }
+      catch (IllegalArgumentException exception) {
+         assertThrows(IllegalArgumentException.class, () -> actual.add(key));
+         return;
+      }
+      assertEquals(added, actual.add(key));
+      int other = random.nextInt(KEYS);
+      assertEquals(expected.remove(other), actual.remove(other));
+      assertEquals(expected.pollFirst(), actual.pollFirst());
+      assertEquals(new ArrayList<Integer>(expected),
+         new ArrayList<Integer>(actual));
+   }
+}
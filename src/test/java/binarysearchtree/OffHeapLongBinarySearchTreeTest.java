@@ -0,0 +1,144 @@
+package binarysearchtree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.PrimitiveIterator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests of OffHeapLongBinarySearchTree: keys spread over several 64K
+ * record chunks come back in order, removed records are reused before a
+ * new chunk is allocated, and a closed tree refuses to be used.
+ */
+class OffHeapLongBinarySearchTreeTest {
+
+  /** Records in one chunk of direct memory. */
+   private static final int CHUNK = 1 << 16;
+  /** Bytes of one record. */
+   private static final int RECORD = 20;
+
+  /**
+   * Key number i of a scrambled order over 0 to count - 1.
+   *
+   * @param i The position in insert order
+   * @param count The number of keys, not a multiple of the prime multiplier
+   * @return the key, spread beyond the int range
+   */
+   private static long key(int i, int count) {
+      return (i * 2654435761L % count) * 3 - (1L << 40);
+   }
+
+  /**
+   * Adds keys filling more than three chunks, removes every other one
+   * and checks contents and order after each step.
+   *
+   * @param balanced true for an AVL tree
+   */
+   @ParameterizedTest
+   @ValueSource(booleans = {false, true})
+   void keysRoundTripAcrossChunks(boolean balanced) {
+      final int count = 3 * CHUNK + 5;
+      try (OffHeapLongBinarySearchTree tree =
+            new OffHeapLongBinarySearchTree(balanced)) {
+         for (int i = 0; i < count; i++) {
+            tree.add(key(i, count));
+         }
+         assertEquals(count, tree.size());
+         assertEquals(4L * RECORD * CHUNK, tree.offHeapBytes());
+         checkOrder(tree, count);
+         for (int i = 0; i < count; i++) {
+            assertTrue(tree.contains(key(i, count)));
+            assertFalse(tree.contains(key(i, count) + 1));
+         }
+         if (balanced) {
+            assertTrue(tree.height() <= 1.4405 * Math.log(count + 2)
+               / Math.log(2));
+         }
+         for (int i = 0; i < count; i += 2) {
+            tree.remove(key(i, count));
+         }
+         assertEquals(count / 2, tree.size());
+         for (int i = 0; i < count; i++) {
+            assertEquals(i % 2 == 1, tree.contains(key(i, count)));
+         }
+         checkOrder(tree, count / 2);
+         assertThrows(TreeException.class, () -> tree.remove(key(0, count)));
+         assertThrows(TreeException.class, () -> tree.add(key(1, count)));
+      }
+   }
+
+  /** Freed records are handed out again before another chunk is added. */
+   @Test
+   void removedRecordsAreReused() {
+      try (OffHeapLongBinarySearchTree tree =
+            new OffHeapLongBinarySearchTree()) {
+         for (int i = 0; i < CHUNK; i++) {
+            tree.add(key(i, CHUNK + 1));
+         }
+         long bytes = tree.offHeapBytes();
+         for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 1000; i++) {
+               tree.remove(tree.first());
+            }
+            for (int i = 0; i < 1000; i++) {
+               tree.add(tree.last() + 1);
+            }
+            assertEquals(CHUNK, tree.size());
+            assertEquals(bytes, tree.offHeapBytes());
+         }
+         tree.add(tree.last() + 1);
+         assertEquals(2 * bytes, tree.offHeapBytes());
+      }
+   }
+
+  /** close releases the memory once, later calls fail without touching it. */
+   @Test
+   void closedTreeRefusesUse() {
+      OffHeapLongBinarySearchTree tree = new OffHeapLongBinarySearchTree();
+      for (long key = 0; key < 1000; key++) {
+         tree.add(key);
+      }
+      PrimitiveIterator.OfLong open = tree.iterator();
+      assertEquals(0, open.nextLong());
+      tree.close();
+      tree.close();
+      assertEquals(0, tree.offHeapBytes());
+      assertEquals(0, tree.size());
+      assertThrows(IllegalStateException.class, open::nextLong);
+      assertThrows(IllegalStateException.class, () -> tree.add(5));
+      assertThrows(IllegalStateException.class, () -> tree.contains(5));
+      assertThrows(IllegalStateException.class, () -> tree.get(5));
+      assertThrows(IllegalStateException.class, () -> tree.remove(5));
+      assertThrows(IllegalStateException.class, tree::first);
+      assertThrows(IllegalStateException.class, tree::last);
+      assertThrows(IllegalStateException.class, tree::height);
+      assertThrows(IllegalStateException.class, tree::iterator);
+   }
+
+  /**
+   * Asserts that the keys come out in strictly ascending order.
+   *
+   * @param tree The tree
+   * @param count The number of keys it should hold
+   */
+   private static void checkOrder(OffHeapLongBinarySearchTree tree,
+         int count) {
+      PrimitiveIterator.OfLong keys = tree.iterator();
+      long previous = Long.MIN_VALUE;
+      int seen = 0;
+      while (keys.hasNext()) {
+         long key = keys.nextLong();
+         assertTrue(key > previous);
+         previous = key;
+         seen++;
+      }
+      assertEquals(count, seen);
+      assertEquals(tree.first(), tree.stream().min().getAsLong());
+      assertEquals(tree.last(), previous);
+   }
+}
@@ -0,0 +1,119 @@
+package binarysearchtree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests of IntBinarySearchTree and LongBinarySearchTree: the same adds
+ * and removes must give them the same shape as a BinarySearchTree of
+ * boxed keys, balanced or not, and removed slots must be reused.
+ */
+class PrimitiveBinarySearchTreeTest {
+
+  /** Keys are drawn from 0 to KEYS - 1. */
+   private static final int KEYS = 2000;
+  /** Random adds and removes per run. */
+   private static final int OPERATIONS = 6000;
+  /** Added to the long keys, so they do not fit in an int. */
+   private static final long OFFSET = 1L << 40;
+
+  /**
+   * Runs one random sequence of adds and removes on all four trees and
+   * compares their shapes as it goes.
+   *
+   * @param balanced true for AVL trees
+   */
+   @ParameterizedTest
+   @ValueSource(booleans = {false, true})
+   void sameOperationsGiveTheSameShape(boolean balanced) {
+      Random random = new Random(balanced ? 1 : 2);
+      IntBinarySearchTree ints = new IntBinarySearchTree(balanced);
+      LongBinarySearchTree longs = new LongBinarySearchTree(balanced);
+      BinarySearchTree<Integer> boxedInts =
+         new BinarySearchTree<Integer>(balanced);
+      BinarySearchTree<Long> boxedLongs = new BinarySearchTree<Long>(balanced);
+      for (int i = 0; i < OPERATIONS; i++) {
+         int key = random.nextInt(KEYS);
+         boolean present = boxedInts.contains(key);
+         assertEquals(present, ints.contains(key));
+         assertEquals(present, longs.contains(key + OFFSET));
+         // lean towards adds so the trees grow, then shrink again
+         boolean add = random.nextInt(OPERATIONS) > i;
+         if (add && !present) {
+            ints.add(key);
+            longs.add(key + OFFSET);
+            boxedInts.add(key);
+            boxedLongs.add(key + OFFSET);
+         }
+         else if (!add && present) {
+            ints.remove(key);
+            longs.remove(key + OFFSET);
+            boxedInts.remove(key);
+            boxedLongs.remove(key + OFFSET);
+         }
+         if (i % 100 == 0 || i == OPERATIONS - 1) {
+            assertEquals(boxedInts.preOrder(), ints.preOrder());
+            assertEquals(boxedLongs.preOrder(), longs.preOrder());
+            assertEquals(boxedInts.height(), ints.height());
+            assertEquals(boxedLongs.height(), longs.height());
+            assertEquals(boxedInts.size(), ints.size());
+            assertEquals(boxedInts.size(), longs.size());
+         }
+      }
+      assertEquals(boxedInts.toString(), ints.toString());
+      assertEquals(boxedInts.postOrder(), ints.postOrder());
+      assertEquals(boxedLongs.postOrder(), longs.postOrder());
+   }
+
+  /**
+   * Removing keys and adding as many others back does not grow the
+   * arrays, the freed slots are handed out again.
+   *
+   * @param balanced true for AVL trees
+   */
+   @ParameterizedTest
+   @ValueSource(booleans = {false, true})
+   void removedSlotsAreReused(boolean balanced) {
+      final int capacity = 64;
+      IntBinarySearchTree ints = new IntBinarySearchTree(balanced, capacity);
+      LongBinarySearchTree longs = new LongBinarySearchTree(balanced, capacity);
+      for (int key = 0; key < capacity; key++) {
+         ints.add(key);
+         longs.add(key + OFFSET);
+      }
+      double intBytes = ints.bytesPerKey() * ints.size();
+      double longBytes = longs.bytesPerKey() * longs.size();
+      for (int round = 1; round <= 3; round++) {
+         for (int key = 0; key < capacity; key += 2) {
+            ints.remove(key + (round - 1) * capacity);
+            longs.remove(key + (round - 1) * capacity + OFFSET);
+         }
+         for (int key = 0; key < capacity; key += 2) {
+            ints.add(key + round * capacity);
+            longs.add(key + round * capacity + OFFSET);
+         }
+         assertEquals(capacity, ints.size());
+         assertEquals(intBytes, ints.bytesPerKey() * ints.size(), 1e-9);
+         assertEquals(longBytes, longs.bytesPerKey() * longs.size(), 1e-9);
+      }
+      List<Integer> keys = new ArrayList<Integer>();
+      ints.iterator().forEachRemaining((int key) -> keys.add(key));
+      for (int i = 1; i < keys.size(); i++) {
+         assertTrue(keys.get(i - 1) < keys.get(i));
+      }
+      assertFalse(ints.contains(0));
+      assertThrows(TreeException.class, () -> ints.remove(0));
+      assertThrows(TreeException.class, () -> ints.add(1));
+      assertThrows(TreeException.class, () -> longs.get(OFFSET));
+      ints.add(capacity * 10);
+      assertTrue(ints.bytesPerKey() * ints.size() > intBytes);
+   }
+}